@@ -0,0 +1,25 @@
+package dev.yerid.config;
+
+import dev.yerid.usecase.sync.SyncJournalUseCase;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import reactor.core.Disposable;
+
+import java.time.Duration;
+
+@Configuration
+public class SyncJournalConfig {
+
+    /**
+     * Tarea que vacía el diario de sincronización en la base de datos (solo si sync.journal.enabled)
+     */
+    @Bean(destroyMethod = "dispose")
+    public Disposable syncJournalFlusher(
+            SyncJournalUseCase syncJournalUseCase,
+            @Value("${sync.journal.flush-interval:100ms}") Duration interval,
+            @Value("${sync.journal.batch-size:256}") int batchSize) {
+        return syncJournalUseCase.start(interval, batchSize);
+    }
+
+}
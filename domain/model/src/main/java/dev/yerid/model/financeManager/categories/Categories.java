@@ -11,4 +11,6 @@ public class Categories {
     private String icono;
     private String color;
     private String userId;
+    private Long fechaModificacion;
+    private Long version;
 }
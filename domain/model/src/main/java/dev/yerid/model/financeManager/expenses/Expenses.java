@@ -14,4 +14,6 @@ public class Expenses {
     private String userId;
     private String origen;
     private String recordatorioId;
+    private Long fechaModificacion;
+    private Long version;
 }
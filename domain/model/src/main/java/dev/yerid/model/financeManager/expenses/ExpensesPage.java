@@ -0,0 +1,20 @@
+package dev.yerid.model.financeManager.expenses;
+
+import lombok.Builder;
+import lombok.Data;
+
+import java.util.List;
+
+/**
+ * Página de gastos ordenada por fecha descendente.
+ * El cursor es opaco para el cliente y es null cuando no hay más páginas.
+ * lastSyncTimestamp es la marca del documento al leer la primera página: al terminar,
+ * el cliente la usa como since para recibir lo que cambió durante la paginación
+ */
+@Data
+@Builder(toBuilder = true)
+public class ExpensesPage {
+    private List<Expenses> gastos;
+    private String cursor;
+    private Long lastSyncTimestamp;
+}
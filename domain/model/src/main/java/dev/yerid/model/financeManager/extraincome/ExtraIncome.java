@@ -11,4 +11,6 @@ public class ExtraIncome {
     private String descripcion;
     private Long fecha;
     private String userId;
+    private Long fechaModificacion;
+    private Long version;
 }
\ No newline at end of file
@@ -22,6 +22,7 @@ import java.util.Map;
 public class FinanceManager {
     private String id;
     private String userId;
+    private Long version;
 
     // Campos para seguimiento y sincronización
     private Long lastSyncTimestamp;
@@ -29,6 +30,9 @@ public class FinanceManager {
     private String sessionId;
     private Long dataImportTimestamp;
 
+    // Marca desde la que se conservan los elementos eliminados (los anteriores se compactaron)
+    private Long eliminadosDesde;
+
     // Datos financieros
     private Budget presupuesto;
     private Map<String, Expenses> gastos;
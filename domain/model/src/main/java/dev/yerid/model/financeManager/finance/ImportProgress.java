@@ -0,0 +1,21 @@
+package dev.yerid.model.financeManager.finance;
+
+import lombok.Builder;
+import lombok.Data;
+
+/**
+ * Avance acumulado de una importación de gastos e ingresos extra: lotes escritos, elementos
+ * recibidos por sección y rechazados (enviados con una versión que no es mayor que la almacenada).
+ * version es la del documento tras el último lote; completado indica que ya se escribió todo el archivo
+ */
+@Data
+@Builder(toBuilder = true)
+public class ImportProgress {
+    private long lotes;
+    private long gastos;
+    private long ingresosExtra;
+    private long rechazados;
+    private long version;
+    private boolean completado;
+    private Long dataImportTimestamp;
+}
@@ -0,0 +1,19 @@
+package dev.yerid.model.financeManager.finance;
+
+import lombok.Builder;
+import lombok.Data;
+
+import java.util.Set;
+
+/**
+ * Aviso de que los datos de un usuario cambiaron: versión resultante y secciones afectadas.
+ * Los dispositivos conectados lo usan para decidir si descargan y qué secciones
+ */
+@Data
+@Builder(toBuilder = true)
+public class SyncChangeEvent {
+    private String userId;
+    private Long version;
+    private Set<SyncSection> sections;
+    private long timestamp;
+}
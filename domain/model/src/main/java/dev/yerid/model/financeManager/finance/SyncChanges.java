@@ -0,0 +1,57 @@
+package dev.yerid.model.financeManager.finance;
+
+import dev.yerid.model.financeManager.categories.Categories;
+import dev.yerid.model.financeManager.expenses.Expenses;
+import dev.yerid.model.financeManager.extraincome.ExtraIncome;
+import dev.yerid.model.financeManager.reminder.Reminder;
+import dev.yerid.model.financeManager.savingsgoal.SavingsGoal;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Cambios enviados por un cliente en una sincronización ascendente, ya tipados.
+ * Un campo en null indica que el cliente no lo envió; una lista vacía, que envió la sección sin elementos.
+ * Los elementos sin id reciben uno al guardarse
+ */
+@Data
+@Builder(toBuilder = true)
+@NoArgsConstructor
+@AllArgsConstructor
+public class SyncChanges {
+    private Double presupuesto;
+
+    // Campos para seguimiento y sincronización
+    private String lastVisitedRoute;
+    private String sessionId;
+    private Long dataImportTimestamp;
+
+    // Elementos creados o modificados
+    private List<Expenses> gastos;
+    private List<Categories> categorias;
+    private List<SavingsGoal> metasAhorro;
+    private List<Reminder> recordatorios;
+    private List<ExtraIncome> ingresosExtra;
+
+    // Ids eliminados por sección
+    private FinanceManager.EliminadosInfo eliminados;
+
+    /**
+     * Secciones presentes en los cambios, ya sea con elementos o con eliminaciones
+     */
+    public Set<SyncSection> sections() {
+        Set<SyncSection> sections = EnumSet.noneOf(SyncSection.class);
+        if (presupuesto != null) sections.add(SyncSection.PRESUPUESTO);
+        if (gastos != null || (eliminados != null && eliminados.getGastos() != null)) sections.add(SyncSection.GASTOS);
+        if (categorias != null || (eliminados != null && eliminados.getCategorias() != null)) sections.add(SyncSection.CATEGORIAS);
+        if (metasAhorro != null || (eliminados != null && eliminados.getMetasAhorro() != null)) sections.add(SyncSection.METAS_AHORRO);
+        if (recordatorios != null || (eliminados != null && eliminados.getRecordatorios() != null)) sections.add(SyncSection.RECORDATORIOS);
+        if (ingresosExtra != null || (eliminados != null && eliminados.getIngresosExtra() != null)) sections.add(SyncSection.INGRESOS_EXTRA);
+        return sections;
+    }
+}
@@ -0,0 +1,17 @@
+package dev.yerid.model.financeManager.finance;
+
+import lombok.Builder;
+import lombok.Data;
+
+/**
+ * Subida guardada en el diario local de sincronización y pendiente de escribirse en la base de datos.
+ * La secuencia es creciente y determina el orden en que se aplican las subidas
+ */
+@Data
+@Builder(toBuilder = true)
+public class SyncJournalEntry {
+    private long sequence;
+    private String userId;
+    private long timestamp;
+    private SyncChanges changes;
+}
@@ -0,0 +1,26 @@
+package dev.yerid.model.financeManager.finance;
+
+import lombok.Builder;
+import lombok.Data;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Resultado de una sincronización ascendente: versión del documento tras la escritura y los
+ * elementos rechazados por sección (clave del cliente), es decir, los enviados con una versión
+ * que no es mayor que la almacenada. El cliente debe descargarlos antes de volver a editarlos.
+ * Con el diario de sincronización activo la subida se confirma al guardarse en el diario: pendiente es
+ * true, version queda en 0 y los rechazos no se conocen hasta que se escribe
+ */
+@Data
+@Builder(toBuilder = true)
+public class SyncResult {
+    private long version;
+    private Map<String, List<String>> rechazados;
+    private boolean pendiente;
+
+    public boolean hasRejected() {
+        return rechazados != null && rechazados.values().stream().anyMatch(ids -> !ids.isEmpty());
+    }
+}
@@ -0,0 +1,73 @@
+package dev.yerid.model.financeManager.finance;
+
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.Set;
+
+/**
+ * Secciones del documento financiero que se pueden sincronizar de forma independiente.
+ * Relaciona la clave usada por el cliente con el campo de FinanceManager
+ */
+public enum SyncSection {
+    PRESUPUESTO("PresupuestoLS", "presupuesto"),
+    GASTOS("ObjetosGastos", "gastos"),
+    CATEGORIAS("categorias", "categorias"),
+    METAS_AHORRO("MetasAhorro", "metasAhorro"),
+    RECORDATORIOS("recordatorios", "recordatorios"),
+    INGRESOS_EXTRA("IngresosExtra", "ingresosExtra");
+
+    public static final Set<SyncSection> ALL = Collections.unmodifiableSet(EnumSet.allOf(SyncSection.class));
+
+    private final String clientKey;
+    private final String field;
+
+    SyncSection(String clientKey, String field) {
+        this.clientKey = clientKey;
+        this.field = field;
+    }
+
+    public String getClientKey() {
+        return clientKey;
+    }
+
+    public String getField() {
+        return field;
+    }
+
+    /**
+     * Indica si la sección tiene lista de elementos eliminados (el presupuesto no la tiene)
+     */
+    public boolean hasItems() {
+        return this != PRESUPUESTO;
+    }
+
+    /**
+     * Obtiene la sección a partir de la clave del cliente (por ejemplo "ObjetosGastos")
+     */
+    public static SyncSection fromClientKey(String clientKey) {
+        for (SyncSection section : values()) {
+            if (section.clientKey.equalsIgnoreCase(clientKey)) {
+                return section;
+            }
+        }
+        throw new IllegalArgumentException("Sección de sincronización desconocida: " + clientKey);
+    }
+
+    /**
+     * Convierte una lista separada por comas de claves del cliente en un conjunto de secciones.
+     * Una lista vacía o nula equivale a todas las secciones
+     */
+    public static Set<SyncSection> parse(String clientKeys) {
+        if (clientKeys == null || clientKeys.isBlank()) {
+            return ALL;
+        }
+
+        Set<SyncSection> sections = EnumSet.noneOf(SyncSection.class);
+        for (String key : clientKeys.split(",")) {
+            if (!key.isBlank()) {
+                sections.add(fromClientKey(key.trim()));
+            }
+        }
+        return sections.isEmpty() ? ALL : sections;
+    }
+}
@@ -1,11 +1,23 @@
 package dev.yerid.model.financeManager.finance.gateways;
 
+import dev.yerid.model.financeManager.expenses.ExpensesPage;
 import dev.yerid.model.financeManager.finance.FinanceManager;
+import dev.yerid.model.financeManager.finance.SyncChanges;
+import dev.yerid.model.financeManager.finance.SyncResult;
+import dev.yerid.model.financeManager.finance.SyncSection;
 import reactor.core.publisher.Mono;
 
 import java.util.Map;
+import java.util.Set;
 
 public interface FinanceManagerRepository {
     Mono<FinanceManager> findByUserId(String userId);
-    Mono<Void> batchUpdate(String userId, Map<String, Object> data, Map<String, Object> eliminados);
+    Mono<FinanceManager> findByUserId(String userId, long minVersion);
+    Mono<FinanceManager> findByUserId(String userId, Set<SyncSection> sections);
+    Mono<FinanceManager> findChangesSince(String userId, long since);
+    Mono<FinanceManager> findChangesSince(String userId, long since, Set<SyncSection> sections);
+    Mono<Long> findVersionByUserId(String userId);
+    Mono<ExpensesPage> findExpensesPage(String userId, String cursor, Long desde, Long hasta, int limit);
+    Mono<SyncResult> batchUpdate(String userId, Map<String, Object> data, Map<String, Object> eliminados);
+    Mono<SyncResult> batchUpdate(String userId, SyncChanges changes);
 }
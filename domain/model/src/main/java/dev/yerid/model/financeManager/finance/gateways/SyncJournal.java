@@ -0,0 +1,18 @@
+package dev.yerid.model.financeManager.finance.gateways;
+
+import dev.yerid.model.financeManager.finance.SyncChanges;
+import dev.yerid.model.financeManager.finance.SyncJournalEntry;
+import reactor.core.publisher.Mono;
+
+import java.util.List;
+import java.util.Map;
+
+public interface SyncJournal {
+    boolean isEnabled();
+    Mono<Long> append(String userId, SyncChanges changes, long timestamp);
+    Mono<Long> append(String userId, Map<String, Object> data, Map<String, Object> eliminados, long timestamp);
+    Mono<List<SyncJournalEntry>> readAfter(long sequence, int max);
+    Mono<Long> lastApplied();
+    Mono<Void> markApplied(long sequence);
+    Mono<Void> deadLetter(SyncJournalEntry entry, String reason);
+}
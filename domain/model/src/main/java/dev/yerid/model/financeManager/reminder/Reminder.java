@@ -18,4 +18,6 @@ public class Reminder {
     private Long fechaCreacion;
     private String estado;
     private String userId;
+    private Long fechaModificacion;
+    private Long version;
 }
@@ -19,4 +19,6 @@ public class SavingsGoal {
     private int diasRestantes;
     private boolean completada;
     private String userId;
+    private Long fechaModificacion;
+    private Long version;
 }
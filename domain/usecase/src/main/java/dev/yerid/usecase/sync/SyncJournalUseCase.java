@@ -0,0 +1,181 @@
+package dev.yerid.usecase.sync;
+
+import dev.yerid.model.financeManager.finance.SyncJournalEntry;
+import dev.yerid.model.financeManager.finance.gateways.SyncJournal;
+import lombok.RequiredArgsConstructor;
+import reactor.core.Disposable;
+import reactor.core.Disposables;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Caso de uso que vacía el diario de sincronización en la base de datos.
+ * Lee las subidas posteriores a la última aplicada por lotes y las escribe: las de un mismo usuario
+ * en orden y las de usuarios distintos en paralelo. Al arrancar retoma las subidas que quedaron
+ * pendientes (por ejemplo, tras una caída), ya que solo se marcan como aplicadas después de escribirse.
+ * Una subida que sigue fallando después de MAX_ATTEMPTS intentos durante al menos MIN_FAILING_TIME,
+ * mientras otras sí se escriben, se aparta del diario para que no detenga el avance del checkpoint
+ */
+@RequiredArgsConstructor
+public class SyncJournalUseCase {
+    private static final Logger logger = Logger.getLogger(SyncJournalUseCase.class.getName());
+    private static final int MAX_CONCURRENT_USERS = 32;
+    private static final int MAX_ATTEMPTS = 20;
+    private static final Duration MIN_FAILING_TIME = Duration.ofMinutes(1);
+
+    private final SyncJournal syncJournal;
+    private final SyncUseCase syncUseCase;
+
+    // Fallos por secuencia y subidas escritas por encima del checkpoint, que no se vuelven a aplicar
+    private final Map<Long, Failure> failures = new ConcurrentHashMap<>();
+    private final Set<Long> writtenAhead = ConcurrentHashMap.newKeySet();
+    private volatile long lastWrite;
+
+    private record Failure(int attempts, long since) {
+    }
+
+    /**
+     * Vacía el diario periódicamente hasta que se descarte la tarea devuelta.
+     * Si el diario no está activo no hace nada
+     */
+    public Disposable start(Duration interval, int batchSize) {
+        if (!syncJournal.isEnabled()) {
+            return Disposables.disposed();
+        }
+
+        logger.info("Diario de sincronización activo, vaciado cada " + interval);
+        return Flux.interval(Duration.ZERO, interval)
+                .onBackpressureDrop()
+                .concatMap(tick -> flush(batchSize)
+                        .onErrorResume(e -> {
+                            logger.log(Level.WARNING, "Error al vaciar el diario de sincronización", e);
+                            return Mono.empty();
+                        }), 0)
+                .subscribe();
+    }
+
+    /**
+     * Aplica los lotes pendientes hasta vaciar el diario o hasta que una escritura falle.
+     * Devuelve cuántas subidas se aplicaron
+     */
+    public Mono<Long> flush(int batchSize) {
+        return syncJournal.lastApplied()
+                .flatMap(applied -> flushAfter(applied, batchSize, 0L));
+    }
+
+    private Mono<Long> flushAfter(long applied, int batchSize, long total) {
+        return syncJournal.readAfter(applied, batchSize)
+                .flatMap(batch -> {
+                    if (batch.isEmpty()) {
+                        return Mono.just(total);
+                    }
+
+                    return applyBatch(batch)
+                            .flatMap(last -> {
+                                long count = total + countUpTo(batch, last);
+                                Mono<Void> mark = last > applied
+                                        ? syncJournal.markApplied(last).doOnSuccess(done -> forget(last))
+                                        : Mono.empty();
+
+                                // Si el lote no se aplicó completo, se reintenta en la próxima pasada
+                                return last == batch.get(batch.size() - 1).getSequence()
+                                        ? mark.then(Mono.defer(() -> flushAfter(last, batchSize, count)))
+                                        : mark.thenReturn(count);
+                            });
+                });
+    }
+
+    /**
+     * Escribe un lote y devuelve la mayor secuencia hasta la que todas las subidas quedaron escritas.
+     * Las subidas inválidas se descartan para no bloquear el diario; ante cualquier otro error la
+     * subida queda pendiente y se reintenta después (las reescrituras no duplican elementos porque
+     * los ids se asignan al guardar en el diario). Las subidas ya escritas en una pasada anterior,
+     * posteriores a una pendiente, no se vuelven a escribir
+     */
+    private Mono<Long> applyBatch(List<SyncJournalEntry> batch) {
+        Map<String, List<SyncJournalEntry>> byUser = new LinkedHashMap<>();
+        batch.forEach(entry -> byUser.computeIfAbsent(entry.getUserId(), userId -> new ArrayList<>()).add(entry));
+
+        Map<Long, Boolean> written = new ConcurrentHashMap<>();
+        return Flux.fromIterable(byUser.values())
+                .flatMap(entries -> Flux.fromIterable(entries)
+                        .concatMap(entry -> (writtenAhead.contains(entry.getSequence()) ? Mono.just(true) : apply(entry))
+                                .doOnNext(ok -> written.put(entry.getSequence(), ok)))
+                        // Tras un fallo no se escriben las siguientes del mismo usuario, para conservar el orden
+                        .takeUntil(ok -> !ok), MAX_CONCURRENT_USERS)
+                .then(Mono.fromSupplier(() -> {
+                    long last = batch.get(0).getSequence() - 1;
+                    for (SyncJournalEntry entry : batch) {
+                        if (!Boolean.TRUE.equals(written.get(entry.getSequence()))) {
+                            break;
+                        }
+                        last = entry.getSequence();
+                    }
+                    return last;
+                }));
+    }
+
+    private Mono<Boolean> apply(SyncJournalEntry entry) {
+        return syncUseCase.applyJournalEntry(entry)
+                .then(Mono.fromSupplier(() -> {
+                    lastWrite = System.currentTimeMillis();
+                    failures.remove(entry.getSequence());
+                    writtenAhead.add(entry.getSequence());
+                    return true;
+                }))
+                .onErrorResume(IllegalArgumentException.class, e -> {
+                    logger.warning("Subida descartada del diario (secuencia " + entry.getSequence()
+                            + ", usuario " + entry.getUserId() + "): " + e.getMessage());
+                    return Mono.just(true);
+                })
+                .onErrorResume(e -> failed(entry, e));
+    }
+
+    /**
+     * Cuenta el fallo y aparta la subida cuando agotó los intentos. Si ninguna otra subida se escribió
+     * desde el primer fallo el problema es de la base de datos y no de la subida, así que sigue pendiente
+     */
+    private Mono<Boolean> failed(SyncJournalEntry entry, Throwable error) {
+        long now = System.currentTimeMillis();
+        Failure failure = failures.merge(entry.getSequence(), new Failure(1, now),
+                (previous, next) -> new Failure(previous.attempts() + 1, previous.since()));
+
+        boolean exhausted = failure.attempts() >= MAX_ATTEMPTS
+                && now - failure.since() >= MIN_FAILING_TIME.toMillis()
+                && lastWrite > failure.since();
+        if (!exhausted) {
+            logger.warning("Escritura pendiente en el diario (secuencia " + entry.getSequence()
+                    + ", usuario " + entry.getUserId() + ", intento " + failure.attempts() + "): " + error.getMessage());
+            return Mono.just(false);
+        }
+
+        return syncJournal.deadLetter(entry, error.getMessage())
+                .then(Mono.fromSupplier(() -> {
+                    failures.remove(entry.getSequence());
+                    return true;
+                }))
+                .onErrorResume(e -> {
+                    logger.log(Level.SEVERE, "No se pudo apartar la subida " + entry.getSequence() + " del diario", e);
+                    return Mono.just(false);
+                });
+    }
+
+    private void forget(long applied) {
+        writtenAhead.removeIf(sequence -> sequence <= applied);
+        failures.keySet().removeIf(sequence -> sequence <= applied);
+    }
+
+    private long countUpTo(List<SyncJournalEntry> batch, long last) {
+        return batch.stream().filter(entry -> entry.getSequence() <= last).count();
+    }
+}
@@ -0,0 +1,67 @@
+package dev.yerid.usecase.sync;
+
+import dev.yerid.model.financeManager.finance.SyncChangeEvent;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Sinks;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Logger;
+
+/**
+ * Caso de uso para avisar a los dispositivos conectados de un usuario cuando sus datos cambian.
+ * Mantiene un canal en memoria por usuario que existe solo mientras tenga suscriptores
+ */
+public class SyncNotificationUseCase {
+    private static final Logger logger = Logger.getLogger(SyncNotificationUseCase.class.getName());
+
+    private final Map<String, Channel> channels = new ConcurrentHashMap<>();
+
+    /**
+     * Flujo de cambios del usuario. Al cancelarse la última suscripción se libera el canal
+     */
+    public Flux<SyncChangeEvent> subscribe(String userId) {
+        return Flux.defer(() -> {
+            Channel channel = channels.compute(userId, (key, current) -> {
+                Channel result = current != null ? current : new Channel();
+                result.subscribers++;
+                return result;
+            });
+
+            return channel.sink.asFlux()
+                    .doFinally(signal -> channels.computeIfPresent(userId,
+                            (key, current) -> --current.subscribers == 0 ? null : current));
+        });
+    }
+
+    /**
+     * Indica si el usuario tiene algún dispositivo suscrito, para no preparar avisos que nadie recibirá
+     */
+    public boolean hasSubscribers(String userId) {
+        return channels.containsKey(userId);
+    }
+
+    /**
+     * Envía el aviso a los dispositivos suscritos del usuario. Los suscriptores lentos lo pierden
+     * en lugar de frenar al resto, ya que cualquier aviso posterior lo reemplaza
+     */
+    public void publish(SyncChangeEvent event) {
+        Channel channel = channels.get(event.getUserId());
+        if (channel == null) {
+            return;
+        }
+
+        Sinks.EmitResult result;
+        synchronized (channel) {
+            result = channel.sink.tryEmitNext(event);
+        }
+        if (result.isFailure() && result != Sinks.EmitResult.FAIL_ZERO_SUBSCRIBER) {
+            logger.warning("No se pudo enviar el aviso de cambios al usuario " + event.getUserId() + ": " + result);
+        }
+    }
+
+    private static final class Channel {
+        private final Sinks.Many<SyncChangeEvent> sink = Sinks.many().multicast().directBestEffort();
+        private int subscribers;
+    }
+}
@@ -1,13 +1,25 @@
 package dev.yerid.usecase.sync;
 
+import dev.yerid.model.financeManager.expenses.ExpensesPage;
 import dev.yerid.model.financeManager.finance.FinanceManager;
+import dev.yerid.model.financeManager.finance.ImportProgress;
+import dev.yerid.model.financeManager.finance.SyncChangeEvent;
+import dev.yerid.model.financeManager.finance.SyncChanges;
+import dev.yerid.model.financeManager.finance.SyncJournalEntry;
+import dev.yerid.model.financeManager.finance.SyncResult;
+import dev.yerid.model.financeManager.finance.SyncSection;
 import dev.yerid.model.financeManager.finance.gateways.FinanceManagerRepository;
+import dev.yerid.model.financeManager.finance.gateways.SyncJournal;
 import lombok.RequiredArgsConstructor;
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
+import java.util.EnumSet;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -19,13 +31,17 @@ import java.util.logging.Logger;
 public class SyncUseCase {
     private static final Logger logger = Logger.getLogger(SyncUseCase.class.getName());
     private static final DateTimeFormatter formatter = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss.SSS");
+    private static final int MAX_EXPENSES_PAGE_SIZE = 1000;
 
     private final FinanceManagerRepository financeManagerRepository;
+    private final SyncNotificationUseCase syncNotificationUseCase;
+    private final SyncJournal syncJournal;
 
     /**
-     * Procesa los datos de sincronización del cliente con soporte para elementos eliminados
+     * Procesa los datos de sincronización del cliente con soporte para elementos eliminados.
+     * Con el diario activo la subida se confirma al guardarse en él y se escribe en segundo plano
      */
-    public Mono<Void> processSyncData(String userId, Map<String, Object> data, Map<String, Object> eliminados, long timestamp) {
+    public Mono<SyncResult> processSyncData(String userId, Map<String, Object> data, Map<String, Object> eliminados, long timestamp) {
         logInfo("Iniciando sincronización de datos para usuario: " + userId + " con timestamp: " + timestamp);
 
         // Validar userId
@@ -34,28 +50,269 @@ public class SyncUseCase {
             return Mono.error(new IllegalArgumentException("El userId no puede estar vacío"));
         }
 
+        if (syncJournal.isEnabled()) {
+            return syncJournal.append(userId, data, eliminados, timestamp)
+                    .map(sequence -> journaled(userId, sequence))
+                    .doOnError(e -> logError("Error al guardar en el diario la sincronización del usuario: " + userId, e));
+        }
+
         // Usar el nuevo repositorio para actualizar todos los datos en un solo documento
         return financeManagerRepository.batchUpdate(userId, data, eliminados)
-                .doOnSuccess(v -> logInfo("Sincronización completada para usuario: " + userId))
-                .doOnError(e -> logError("Error en sincronización de datos para usuario: " + userId, e));
+                .doOnSuccess(result -> logInfo("Sincronización completada para usuario: " + userId + " (versión " + result.getVersion() + ")"))
+                .doOnError(e -> logError("Error en sincronización de datos para usuario: " + userId, e))
+                .doOnNext(result -> notifyChange(userId, result.getVersion(), changedSections(data, eliminados)));
+    }
+
+    /**
+     * Procesa los cambios ya tipados de una sincronización ascendente.
+     * Con el diario activo la subida se confirma al guardarse en él y se escribe en segundo plano
+     */
+    public Mono<SyncResult> processSyncChanges(String userId, SyncChanges changes, long timestamp) {
+        logInfo("Iniciando sincronización de cambios tipados para usuario: " + userId + " con timestamp: " + timestamp);
+
+        if (userId == null || userId.isEmpty()) {
+            logError("Se intentó sincronizar datos con un userId vacío o nulo", null);
+            return Mono.error(new IllegalArgumentException("El userId no puede estar vacío"));
+        }
+
+        if (syncJournal.isEnabled()) {
+            return syncJournal.append(userId, changes, timestamp)
+                    .map(sequence -> journaled(userId, sequence))
+                    .doOnError(e -> logError("Error al guardar en el diario la sincronización del usuario: " + userId, e));
+        }
+
+        return applySyncChanges(userId, changes);
+    }
+
+    /**
+     * Escribe una subida guardada en el diario y avisa a los dispositivos del usuario
+     */
+    public Mono<SyncResult> applyJournalEntry(SyncJournalEntry entry) {
+        return applySyncChanges(entry.getUserId(), entry.getChanges());
+    }
+
+    private Mono<SyncResult> applySyncChanges(String userId, SyncChanges changes) {
+        return financeManagerRepository.batchUpdate(userId, changes)
+                .doOnSuccess(result -> logInfo("Sincronización completada para usuario: " + userId + " (versión " + result.getVersion() + ")"))
+                .doOnError(e -> logError("Error en sincronización de datos para usuario: " + userId, e))
+                .doOnNext(result -> notifyChange(userId, result.getVersion(), changes.sections()));
+    }
+
+    /**
+     * Importa gastos e ingresos extra recibidos por lotes (por ejemplo, el historial de un banco).
+     * Cada lote se escribe cuando termina el anterior, así que solo hay un lote en memoria, y tras cada
+     * uno se emite el avance acumulado. Al terminar se guarda dataImportTimestamp y se avisa una sola vez
+     * a los dispositivos del usuario. La importación no pasa por el diario: el avance refleja lo ya escrito
+     */
+    public Flux<ImportProgress> importData(String userId, Flux<SyncChanges> batches) {
+        if (userId == null || userId.isEmpty()) {
+            logError("Se intentó importar datos con un userId vacío o nulo", null);
+            return Flux.error(new IllegalArgumentException("El userId no puede estar vacío"));
+        }
+
+        return Flux.defer(() -> {
+            logInfo("Iniciando importación para usuario: " + userId);
+            AtomicReference<ImportProgress> progress = new AtomicReference<>(ImportProgress.builder().build());
+            Set<SyncSection> sections = EnumSet.noneOf(SyncSection.class);
+
+            Flux<ImportProgress> written = batches
+                    .concatMap(batch -> financeManagerRepository.batchUpdate(userId, batch)
+                            .map(result -> {
+                                sections.addAll(batch.sections());
+                                return progress.updateAndGet(current -> accumulate(current, batch, result));
+                            }), 0);
+
+            return written
+                    .concatWith(Mono.defer(() -> completeImport(userId, progress.get(), sections)))
+                    .doOnError(e -> logError("Error en importación para usuario: " + userId
+                            + " tras " + progress.get().getLotes() + " lotes", e));
+        });
+    }
+
+    private ImportProgress accumulate(ImportProgress current, SyncChanges batch, SyncResult result) {
+        long rechazados = result.getRechazados() == null ? 0
+                : result.getRechazados().values().stream().mapToLong(java.util.List::size).sum();
+
+        return current.toBuilder()
+                .lotes(current.getLotes() + 1)
+                .gastos(current.getGastos() + (batch.getGastos() != null ? batch.getGastos().size() : 0))
+                .ingresosExtra(current.getIngresosExtra() + (batch.getIngresosExtra() != null ? batch.getIngresosExtra().size() : 0))
+                .rechazados(current.getRechazados() + rechazados)
+                .version(result.getVersion())
+                .build();
+    }
+
+    /**
+     * Marca la importación en el documento y avisa de las secciones modificadas
+     */
+    private Mono<ImportProgress> completeImport(String userId, ImportProgress progress, Set<SyncSection> sections) {
+        if (progress.getLotes() == 0) {
+            logInfo("Importación sin elementos para usuario: " + userId);
+            return Mono.just(progress.toBuilder().completado(true).build());
+        }
+
+        long now = System.currentTimeMillis();
+        return financeManagerRepository.batchUpdate(userId, SyncChanges.builder().dataImportTimestamp(now).build())
+                .map(result -> {
+                    logInfo("Importación completada para usuario: " + userId + " (" + progress.getGastos() + " gastos, "
+                            + progress.getIngresosExtra() + " ingresos extra, versión " + result.getVersion() + ")");
+                    notifyChange(userId, result.getVersion(), sections);
+                    return progress.toBuilder()
+                            .version(result.getVersion())
+                            .dataImportTimestamp(now)
+                            .completado(true)
+                            .build();
+                });
+    }
+
+    private SyncResult journaled(String userId, long sequence) {
+        logInfo("Sincronización guardada en el diario para usuario: " + userId + " (secuencia " + sequence + ")");
+        return SyncResult.builder()
+                .rechazados(Map.of())
+                .pendiente(true)
+                .build();
+    }
+
+    /**
+     * Avisa a los dispositivos conectados del usuario de la nueva versión y las secciones modificadas.
+     * Un fallo al avisar no afecta a la sincronización ya confirmada
+     */
+    private void notifyChange(String userId, long version, Set<SyncSection> sections) {
+        if (!syncNotificationUseCase.hasSubscribers(userId)) {
+            return;
+        }
+
+        try {
+            syncNotificationUseCase.publish(SyncChangeEvent.builder()
+                    .userId(userId)
+                    .version(version)
+                    .sections(sections)
+                    .timestamp(System.currentTimeMillis())
+                    .build());
+        } catch (RuntimeException e) {
+            logError("Error al avisar cambios al usuario: " + userId, e);
+        }
     }
 
     /**
-     * Obtiene todos los datos del usuario para sincronización
+     * Secciones presentes en los datos o eliminados recibidos
+     */
+    private Set<SyncSection> changedSections(Map<String, Object> data, Map<String, Object> eliminados) {
+        Set<SyncSection> sections = EnumSet.noneOf(SyncSection.class);
+        for (SyncSection section : SyncSection.values()) {
+            if ((data != null && data.containsKey(section.getClientKey()))
+                    || (eliminados != null && eliminados.containsKey(section.getClientKey()))) {
+                sections.add(section);
+            }
+        }
+        return sections;
+    }
+
+    /**
+     * Obtiene los datos del usuario para sincronización.
+     * Con since mayor a 0 solo se devuelven los cambios posteriores (descarga incremental)
      */
     public Mono<Map<String, Object>> getUserData(String userId, long since) {
-        logInfo("Obteniendo datos para usuario: " + userId + " desde timestamp: " + since);
-
-        // Obtener el documento completo y convertirlo al formato esperado por el cliente
-        return financeManagerRepository.findByUserId(userId)
-                .map(financeManager -> {
-                    // Convertir a Map
-                    return convertFinanceManagerToMap(financeManager);
-                })
+        return getUserData(userId, since, SyncSection.ALL);
+    }
+
+    /**
+     * Obtiene los datos del usuario limitados a las secciones indicadas
+     */
+    public Mono<Map<String, Object>> getUserData(String userId, long since, Set<SyncSection> sections) {
+        return getUserSnapshot(userId, since, sections)
+                .map(financeManager -> toUserData(financeManager, since, sections));
+    }
+
+    /**
+     * Convierte un documento ya leído con getUserSnapshot al mapa que recibe el cliente
+     */
+    public Map<String, Object> toUserData(FinanceManager financeManager, long since, Set<SyncSection> sections) {
+        Map<String, Object> result = isDelta(financeManager, since)
+                ? convertChangesToMap(financeManager)
+                : convertFinanceManagerToMap(financeManager);
+        return retainSections(result, sections);
+    }
+
+    /**
+     * Obtiene el documento financiero del usuario sin convertirlo, para que el punto de entrada
+     * pueda serializarlo directamente. Con since mayor a 0 solo contiene los cambios posteriores
+     */
+    public Mono<FinanceManager> getUserSnapshot(String userId, long since) {
+        return getUserSnapshot(userId, since, SyncSection.ALL);
+    }
+
+    /**
+     * Obtiene el documento financiero del usuario leyendo solo las secciones indicadas
+     */
+    public Mono<FinanceManager> getUserSnapshot(String userId, long since, Set<SyncSection> sections) {
+        return getUserSnapshot(userId, since, sections, 0L);
+    }
+
+    /**
+     * Igual que getUserSnapshot, para quien ya leyó la versión con getDataVersion: el documento
+     * completo no se sirve desde una copia en caché anterior a minVersion
+     */
+    public Mono<FinanceManager> getUserSnapshot(String userId, long since, Set<SyncSection> sections, long minVersion) {
+        logInfo("Obteniendo datos para usuario: " + userId + " desde timestamp: " + since + " secciones: " + sections);
+
+        Mono<FinanceManager> snapshot;
+        if (since > 0) {
+            snapshot = financeManagerRepository.findChangesSince(userId, since, sections);
+        } else if (sections.containsAll(SyncSection.ALL)) {
+            snapshot = financeManagerRepository.findByUserId(userId, minVersion);
+        } else {
+            snapshot = financeManagerRepository.findByUserId(userId, sections);
+        }
+
+        return snapshot
                 .doOnSuccess(result -> logInfo("Datos obtenidos y preparados para usuario: " + userId))
                 .doOnError(error -> logError("Error al obtener datos para usuario: " + userId, error));
     }
 
+    /**
+     * Indica si la descarga puede ser incremental. Si las eliminaciones posteriores a since
+     * ya se compactaron, el cliente no puede enterarse de ellas y necesita la descarga completa
+     */
+    public boolean isDelta(FinanceManager financeManager, long since) {
+        return since > 0 && (financeManager.getEliminadosDesde() == null || since >= financeManager.getEliminadosDesde());
+    }
+
+    /**
+     * Obtiene la versión actual de los datos del usuario, para responder descargas condicionales
+     * sin leer ni convertir el documento
+     */
+    public Mono<Long> getDataVersion(String userId) {
+        return financeManagerRepository.findVersionByUserId(userId)
+                .doOnError(error -> logError("Error al obtener versión de datos para usuario: " + userId, error));
+    }
+
+    /**
+     * Obtiene una página de gastos ordenada por fecha descendente, para la sincronización inicial
+     * paginada. Sin cursor se devuelve la primera página
+     */
+    public Mono<ExpensesPage> getExpensesPage(String userId, String cursor, int pageSize) {
+        return getExpensesPage(userId, cursor, null, null, pageSize);
+    }
+
+    /**
+     * Obtiene una página de los gastos con fecha entre desde y hasta (inclusive, en milisegundos;
+     * cualquiera de los dos puede ser null), por ejemplo los últimos tres meses o el año actual
+     */
+    public Mono<ExpensesPage> getExpensesPage(String userId, String cursor, Long desde, Long hasta, int pageSize) {
+        if (pageSize <= 0 || pageSize > MAX_EXPENSES_PAGE_SIZE) {
+            return Mono.error(new IllegalArgumentException(
+                    "El tamaño de página debe estar entre 1 y " + MAX_EXPENSES_PAGE_SIZE));
+        }
+        if (desde != null && hasta != null && desde > hasta) {
+            return Mono.error(new IllegalArgumentException("La fecha desde no puede ser posterior a hasta"));
+        }
+
+        return financeManagerRepository.findExpensesPage(userId, cursor, desde, hasta, pageSize)
+                .doOnSuccess(page -> logInfo("Página de " + page.getGastos().size() + " gastos obtenida para usuario: " + userId))
+                .doOnError(error -> logError("Error al obtener página de gastos para usuario: " + userId, error));
+    }
+
     /**
      * Convierte el objeto FinanceManager a un Map para enviarlo al cliente
      */
@@ -122,6 +379,73 @@ public class SyncUseCase {
         return result;
     }
 
+    /**
+     * Convierte un FinanceManager con solo los cambios a un Map incremental.
+     * Solo se incluyen las secciones que tienen cambios, marcando la respuesta con "delta"
+     */
+    private Map<String, Object> convertChangesToMap(FinanceManager changes) {
+        Map<String, Object> result = new java.util.HashMap<>();
+        result.put("delta", true);
+
+        if (changes.getPresupuesto() != null) {
+            result.put("PresupuestoLS", changes.getPresupuesto().getMonto());
+        }
+
+        putIfNotEmpty(result, "ObjetosGastos", changes.getGastos());
+        putIfNotEmpty(result, "MetasAhorro", changes.getMetasAhorro());
+        putIfNotEmpty(result, "categorias", changes.getCategorias());
+        putIfNotEmpty(result, "recordatorios", changes.getRecordatorios());
+        putIfNotEmpty(result, "IngresosExtra", changes.getIngresosExtra());
+
+        // Marca a usar como since en la próxima descarga
+        result.put("lastSyncTimestamp", changes.getLastSyncTimestamp());
+
+        // Elementos eliminados después de since
+        if (changes.getEliminados() != null) {
+            Map<String, Object> eliminados = new java.util.HashMap<>();
+            putIfNotEmpty(eliminados, "ObjetosGastos", changes.getEliminados().getGastos());
+            putIfNotEmpty(eliminados, "categorias", changes.getEliminados().getCategorias());
+            putIfNotEmpty(eliminados, "MetasAhorro", changes.getEliminados().getMetasAhorro());
+            putIfNotEmpty(eliminados, "recordatorios", changes.getEliminados().getRecordatorios());
+            putIfNotEmpty(eliminados, "IngresosExtra", changes.getEliminados().getIngresosExtra());
+
+            if (!eliminados.isEmpty()) {
+                result.put("eliminados", eliminados);
+            }
+        }
+
+        logDebug("Cambios preparados: " + result.keySet());
+
+        return result;
+    }
+
+    /**
+     * Elimina de la respuesta, y de sus eliminados, las secciones que no se solicitaron
+     */
+    private Map<String, Object> retainSections(Map<String, Object> result, Set<SyncSection> sections) {
+        for (SyncSection section : SyncSection.values()) {
+            if (!sections.contains(section)) {
+                result.remove(section.getClientKey());
+                if (result.get("eliminados") instanceof Map<?, ?> eliminados) {
+                    eliminados.remove(section.getClientKey());
+                }
+            }
+        }
+        return result;
+    }
+
+    private void putIfNotEmpty(Map<String, Object> target, String key, Map<String, ?> items) {
+        if (items != null && !items.isEmpty()) {
+            target.put(key, new java.util.ArrayList<>(items.values()));
+        }
+    }
+
+    private void putIfNotEmpty(Map<String, Object> target, String key, java.util.List<String> ids) {
+        if (ids != null && !ids.isEmpty()) {
+            target.put(key, ids);
+        }
+    }
+
     // Métodos de logging
     private void logInfo(String message) {
         logger.info(getTimestamp() + " " + message);
@@ -0,0 +1,146 @@
+package dev.yerid.mongodb.adapter.extraIncome;
+
+import dev.yerid.model.financeManager.extraincome.ExtraIncome;
+import dev.yerid.model.financeManager.extraincome.gateways.ExtraIncomeRepository;
+import dev.yerid.model.financeManager.finance.FinanceManager;
+import dev.yerid.model.financeManager.finance.SyncChanges;
+import dev.yerid.model.financeManager.finance.SyncSection;
+import dev.yerid.model.financeManager.finance.gateways.FinanceManagerRepository;
+import dev.yerid.mongodb.adapter.financeManegerAdapters.FinanceManagerDataConverter;
+import dev.yerid.mongodb.adapter.financeManegerAdapters.FinanceManagerQueryExecutor;
+import org.bson.Document;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.YearMonth;
+import java.time.ZoneOffset;
+import java.util.List;
+import java.util.UUID;
+import java.util.logging.Logger;
+
+/**
+ * Ingresos extra de los usuarios, que viven dentro del documento financiero (o en financeItems si sus
+ * elementos están separados). Las consultas y los totales se resuelven con pipelines de agregación,
+ * de modo que solo salen de la base de datos los ingresos pedidos o el total. Las escrituras pasan
+ * por FinanceManagerRepository para conservar versiones, caché y avisos de la sincronización
+ */
+@Component
+public class ExtraIncomeRepositoryAdapter implements ExtraIncomeRepository {
+    private static final Logger logger = Logger.getLogger(ExtraIncomeRepositoryAdapter.class.getName());
+
+    private final FinanceManagerQueryExecutor queryExecutor;
+    private final FinanceManagerDataConverter converter;
+    private final FinanceManagerRepository financeManagerRepository;
+
+    public ExtraIncomeRepositoryAdapter(FinanceManagerQueryExecutor queryExecutor,
+                                        FinanceManagerDataConverter converter,
+                                        FinanceManagerRepository financeManagerRepository) {
+        this.queryExecutor = queryExecutor;
+        this.converter = converter;
+        this.financeManagerRepository = financeManagerRepository;
+    }
+
+    /**
+     * Crea o actualiza el ingreso en el documento de su usuario; sin id recibe uno nuevo
+     */
+    @Override
+    public Mono<ExtraIncome> save(ExtraIncome extraIncome) {
+        if (extraIncome.getUserId() == null || extraIncome.getUserId().isEmpty()) {
+            return Mono.error(new IllegalArgumentException("El ingreso extra debe indicar el userId"));
+        }
+
+        String userId = extraIncome.getUserId();
+        // El id se asigna aquí para devolverlo, sin depender de la normalización al escribir
+        ExtraIncome ingreso = extraIncome.getId() == null || extraIncome.getId().isEmpty()
+                ? extraIncome.toBuilder().id(UUID.randomUUID().toString()).build()
+                : extraIncome.toBuilder().build();
+
+        return financeManagerRepository.batchUpdate(userId, SyncChanges.builder().ingresosExtra(List.of(ingreso)).build())
+                .flatMap(result -> {
+                    List<String> rejected = result.getRechazados() != null
+                            ? result.getRechazados().get(SyncSection.INGRESOS_EXTRA.getClientKey()) : null;
+                    if (rejected != null && rejected.contains(ingreso.getId())) {
+                        return Mono.error(new IllegalStateException("El ingreso extra " + ingreso.getId()
+                                + " tiene una versión anterior a la almacenada"));
+                    }
+                    return Mono.just(ingreso);
+                });
+    }
+
+    @Override
+    public Mono<ExtraIncome> findById(String id) {
+        return queryExecutor.findExtraIncomeOwner(id)
+                .flatMap(userId -> find(userId, new Document("id", id)).next());
+    }
+
+    @Override
+    public Flux<ExtraIncome> findByUserId(String userId) {
+        return find(userId, new Document());
+    }
+
+    /**
+     * Elimina el ingreso registrando su fecha de eliminación, para que los dispositivos lo reciban
+     */
+    @Override
+    public Mono<Void> deleteById(String id) {
+        return queryExecutor.findExtraIncomeOwner(id)
+                .flatMap(userId -> financeManagerRepository.batchUpdate(userId, SyncChanges.builder()
+                        .eliminados(FinanceManager.EliminadosInfo.builder()
+                                .ingresosExtra(List.of(id))
+                                .build())
+                        .build()))
+                .doOnNext(result -> logger.info("Ingreso extra " + id + " eliminado (versión " + result.getVersion() + ")"))
+                .then();
+    }
+
+    @Override
+    public Flux<ExtraIncome> findByUserIdAndUpdatedSince(String userId, long timestamp) {
+        return find(userId, new Document("fechaModificacion", new Document("$gt", timestamp)));
+    }
+
+    /**
+     * Ingresos con fecha entre startDate y endDate (ambos incluidos; null deja el extremo abierto)
+     */
+    @Override
+    public Flux<ExtraIncome> findByUserIdAndDateRange(String userId, Long startDate, Long endDate) {
+        return find(userId, fechaFilter(startDate, endDate));
+    }
+
+    @Override
+    public Mono<Double> getTotalExtraIncomeByUserId(String userId) {
+        return queryExecutor.sumExtraIncome(userId, new Document());
+    }
+
+    /**
+     * Total de los ingresos con fecha en el mes actual (UTC, igual que los meses de los gastos)
+     */
+    @Override
+    public Mono<Double> getCurrentMonthExtraIncomeByUserId(String userId) {
+        YearMonth month = YearMonth.now(ZoneOffset.UTC);
+        long start = month.atDay(1).atStartOfDay(ZoneOffset.UTC).toInstant().toEpochMilli();
+        long end = month.plusMonths(1).atDay(1).atStartOfDay(ZoneOffset.UTC).toInstant().toEpochMilli() - 1;
+
+        return queryExecutor.sumExtraIncome(userId, fechaFilter(start, end));
+    }
+
+    private Flux<ExtraIncome> find(String userId, Document filter) {
+        return queryExecutor.findExtraIncomes(userId, filter)
+                .map(ingreso -> converter.toEntity(ingreso, userId));
+    }
+
+    private Document fechaFilter(Long startDate, Long endDate) {
+        if (startDate == null && endDate == null) {
+            return new Document();
+        }
+
+        Document range = new Document();
+        if (startDate != null) {
+            range.append("$gte", startDate);
+        }
+        if (endDate != null) {
+            range.append("$lte", endDate);
+        }
+        return new Document("fecha", range);
+    }
+}
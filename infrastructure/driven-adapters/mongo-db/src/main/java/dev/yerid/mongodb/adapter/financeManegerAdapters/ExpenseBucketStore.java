@@ -0,0 +1,224 @@
+package dev.yerid.mongodb.adapter.financeManegerAdapters;
+
+import dev.yerid.mongodb.adapter.financeManegerAdapters.utils.VersionGuard;
+import dev.yerid.mongodb.data.financeManager.ExpenseBucketData;
+import dev.yerid.mongodb.data.financeManager.ExpensesData;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.FindAndReplaceOptions;
+import org.springframework.data.mongodb.core.ReactiveBulkOperations;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.Instant;
+import java.time.YearMonth;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.logging.Logger;
+
+/**
+ * Gastos de los usuarios con elementos separados, agrupados en un documento por usuario y mes
+ * (patrón bucket). Una escritura solo toca los meses de los gastos recibidos, y las lecturas
+ * incrementales o por rango de fechas solo leen los meses afectados
+ */
+@Component
+public class ExpenseBucketStore {
+    private static final Logger logger = Logger.getLogger(ExpenseBucketStore.class.getName());
+
+    // Meses leídos por lote al paginar: casi siempre basta con el mes actual y el anterior
+    private static final int PAGE_CURSOR_BATCH = 2;
+
+    private final ReactiveMongoTemplate mongoTemplate;
+
+    public ExpenseBucketStore(ReactiveMongoTemplate mongoTemplate) {
+        this.mongoTemplate = mongoTemplate;
+    }
+
+    /**
+     * Mes (yyyy-MM, UTC) de la fecha de un gasto; sin fecha se usa el mes actual
+     */
+    public static String monthOf(Long fecha) {
+        Instant instant = fecha != null ? Instant.ofEpochMilli(fecha) : Instant.now();
+        return YearMonth.from(instant.atOffset(ZoneOffset.UTC)).toString();
+    }
+
+    /**
+     * Agrega a gastos los gastos del usuario; con since solo los de meses modificados después
+     */
+    public Mono<Void> attach(String userId, Map<String, ExpensesData> gastos, Long since) {
+        Query query = new Query(Criteria.where("userId").is(userId));
+        if (since != null) {
+            query.addCriteria(Criteria.where("fechaModificacion").gt(since));
+        }
+
+        return mongoTemplate.find(query, ExpenseBucketData.class)
+                .doOnNext(bucket -> {
+                    if (bucket.getGastos() != null) {
+                        gastos.putAll(bucket.getGastos());
+                    }
+                })
+                .then();
+    }
+
+    /**
+     * Agrega a gastos la huella y versión de los gastos indicados, buscando sus meses por el índice de ids
+     */
+    public Mono<Void> attachDigests(String userId, Map<String, ExpensesData> gastos, Collection<String> ids) {
+        if (ids.isEmpty()) {
+            return Mono.empty();
+        }
+
+        Query query = new Query(Criteria.where("userId").is(userId).and("ids").in(ids));
+        for (String id : ids) {
+            query.fields().include("gastos." + id + ".hash", "gastos." + id + ".version");
+        }
+
+        return mongoTemplate.find(query, ExpenseBucketData.class)
+                .doOnNext(bucket -> {
+                    if (bucket.getGastos() != null) {
+                        gastos.putAll(bucket.getGastos());
+                    }
+                })
+                .then();
+    }
+
+    /**
+     * Escribe y elimina gastos en una sola operación bulk. Cada gasto se guarda en el mes de su
+     * fecha y se quita de cualquier otro mes en que estuviera (si cambió de fecha).
+     * Cada gasto se escribe con su propia operación, condicionada a que el guardado tenga una versión
+     * anterior, porque se aplica antes de la escritura condicional del documento; los descartados se ignoran
+     */
+    public Mono<Void> apply(String userId, Map<String, ExpensesData> writes, Collection<String> deletes, long now) {
+        if (writes.isEmpty() && deletes.isEmpty()) {
+            return Mono.empty();
+        }
+
+        ReactiveBulkOperations bulk = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, ExpenseBucketData.class);
+
+        writes.forEach((id, gasto) -> {
+            String mes = monthOf(gasto.getFecha());
+            String versionPath = "gastos." + id + ".version";
+
+            Update upsert = new Update()
+                    .setOnInsert("userId", userId)
+                    .setOnInsert("mes", mes)
+                    .max("fechaModificacion", now)
+                    .set("gastos." + id, gasto)
+                    .addToSet("ids", id);
+            bulk.upsert(VersionGuard.olderThan(new Query(Criteria.where("_id").is(ExpenseBucketData.idOf(userId, mes))),
+                    versionPath, gasto.getVersion()), upsert);
+
+            bulk.updateMulti(VersionGuard.olderThan(new Query(Criteria.where("userId").is(userId)
+                            .and("ids").is(id)
+                            .and("mes").ne(mes)), versionPath, gasto.getVersion()),
+                    removal(List.of(id), now));
+        });
+
+        if (!deletes.isEmpty()) {
+            bulk.updateMulti(new Query(Criteria.where("userId").is(userId).and("ids").in(deletes)), removal(deletes, now));
+        }
+
+        return bulk.execute()
+                .onErrorResume(VersionGuard::onlyStaleWrites, e -> {
+                    logger.fine("Gastos con versión anterior a la guardada descartados para usuario: " + userId);
+                    return Mono.empty();
+                })
+                .doOnError(e -> logger.severe("Error al escribir gastos por mes para usuario: " + userId + " - " + e.getMessage()))
+                .then();
+    }
+
+    /**
+     * Borra todos los meses del usuario
+     */
+    public Mono<Void> deleteAll(String userId) {
+        return mongoTemplate.remove(new Query(Criteria.where("userId").is(userId)), ExpenseBucketData.class).then();
+    }
+
+    /**
+     * Reemplaza los meses del usuario con los gastos indicados (migración desde el documento)
+     */
+    public Mono<Void> replaceAll(String userId, Map<String, ExpensesData> gastos, long now) {
+        if (gastos == null || gastos.isEmpty()) {
+            return Mono.empty();
+        }
+
+        ReactiveBulkOperations bulk = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, ExpenseBucketData.class);
+
+        Map<String, Map<String, ExpensesData>> byMonth = new TreeMap<>();
+        gastos.forEach((id, gasto) -> byMonth.computeIfAbsent(monthOf(gasto.getFecha()), mes -> new TreeMap<>()).put(id, gasto));
+
+        byMonth.forEach((mes, items) -> bulk.replaceOne(
+                new Query(Criteria.where("_id").is(ExpenseBucketData.idOf(userId, mes))),
+                ExpenseBucketData.builder()
+                        .id(ExpenseBucketData.idOf(userId, mes))
+                        .userId(userId)
+                        .mes(mes)
+                        .gastos(items)
+                        .ids(new ArrayList<>(items.keySet()))
+                        .fechaModificacion(now)
+                        .build(),
+                FindAndReplaceOptions.options().upsert()));
+
+        return bulk.execute().then();
+    }
+
+    /**
+     * Gastos posteriores a la posición indicada en orden de fecha descendente, dentro del rango
+     * [from, to] si se indica. Los meses se leen del más reciente al más antiguo y la lectura se
+     * detiene al completar el límite
+     */
+    public Flux<ExpenseRow> findExpensesPage(String userId, Long afterFecha, String afterKey, Long from, Long to, int limit) {
+        boolean hasPosition = afterFecha != null && afterKey != null;
+        Long upper = hasPosition && (to == null || afterFecha < to) ? afterFecha : to;
+
+        Criteria criteria = Criteria.where("userId").is(userId);
+        if (upper != null || from != null) {
+            Criteria mes = Criteria.where("mes");
+            if (upper != null) {
+                mes = mes.lte(monthOf(upper));
+            }
+            if (from != null) {
+                mes = mes.gte(monthOf(from));
+            }
+            criteria = new Criteria().andOperator(criteria, mes);
+        }
+
+        Query query = new Query(criteria).with(Sort.by(Sort.Direction.DESC, "mes"));
+        query.cursorBatchSize(PAGE_CURSOR_BATCH);
+
+        Comparator<ExpenseRow> order = Comparator.comparingLong(ExpenseRow::fecha)
+                .thenComparing(ExpenseRow::key)
+                .reversed();
+
+        return mongoTemplate.find(query, ExpenseBucketData.class)
+                .concatMapIterable(bucket -> {
+                    List<ExpenseRow> rows = new ArrayList<>();
+                    if (bucket.getGastos() != null) {
+                        bucket.getGastos().forEach((key, gasto) -> rows.add(ExpenseRow.of(key, gasto)));
+                    }
+                    rows.sort(order);
+                    return rows;
+                })
+                .filter(row -> !hasPosition || row.isAfter(afterFecha, afterKey))
+                .filter(row -> row.isWithin(from, to))
+                .take(limit)
+                .doOnError(e -> logger.severe("Error al paginar gastos por mes para usuario: " + userId + " - " + e.getMessage()));
+    }
+
+    private Update removal(Collection<String> ids, long now) {
+        Update update = new Update().max("fechaModificacion", now);
+        ids.forEach(id -> update.unset("gastos." + id));
+        update.pullAll("ids", ids.toArray());
+        return update;
+    }
+}
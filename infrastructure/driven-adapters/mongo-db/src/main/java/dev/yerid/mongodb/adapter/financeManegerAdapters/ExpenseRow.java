@@ -0,0 +1,24 @@
+package dev.yerid.mongodb.adapter.financeManegerAdapters;
+
+import dev.yerid.mongodb.data.financeManager.ExpensesData;
+
+/**
+ * Gasto leído para paginar: su clave en el mapa, la fecha usada para ordenar (0 si falta) y el gasto
+ */
+public record ExpenseRow(String key, long fecha, ExpensesData gasto) {
+
+    public static ExpenseRow of(String key, ExpensesData gasto) {
+        return new ExpenseRow(key, gasto.getFecha() != null ? gasto.getFecha() : 0L, gasto);
+    }
+
+    /**
+     * Orden de la paginación: fecha descendente y clave descendente para desempatar
+     */
+    public boolean isAfter(long afterFecha, String afterKey) {
+        return fecha < afterFecha || (fecha == afterFecha && key.compareTo(afterKey) < 0);
+    }
+
+    public boolean isWithin(Long from, Long to) {
+        return (from == null || fecha >= from) && (to == null || fecha <= to);
+    }
+}
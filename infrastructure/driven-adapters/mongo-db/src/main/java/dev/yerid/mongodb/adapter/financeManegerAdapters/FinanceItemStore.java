@@ -0,0 +1,371 @@
+package dev.yerid.mongodb.adapter.financeManegerAdapters;
+
+import dev.yerid.mongodb.adapter.financeManegerAdapters.utils.VersionGuard;
+import dev.yerid.mongodb.data.financeManager.ExpensesData;
+import dev.yerid.mongodb.data.financeManager.FinanceItemData;
+import dev.yerid.mongodb.data.financeManager.FinanceManagerData;
+import dev.yerid.mongodb.data.financeManager.SyncItemData;
+import org.bson.Document;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.FindAndReplaceOptions;
+import org.springframework.data.mongodb.core.ReactiveBulkOperations;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Logger;
+
+/**
+ * Almacenamiento de los elementos financieros en la colección financeItems, un documento por
+ * elemento, para los usuarios cuyo documento principal superó el tamaño configurado.
+ * En ese modo el documento principal conserva presupuesto, seguimiento, versión y fechas de
+ * eliminación, y sus mapas de elementos quedan vacíos. Las lecturas completan los mapas desde
+ * aquí, de modo que el resto del adaptador trabaja con el mismo FinanceManagerData.
+ * Los gastos, la sección que más crece, no van a financeItems sino a documentos por mes (ExpenseBucketStore)
+ */
+@Component
+public class FinanceItemStore {
+    private static final Logger logger = Logger.getLogger(FinanceItemStore.class.getName());
+
+    public static final List<String> ITEM_FIELDS = List.of("gastos", "categorias", "metasAhorro", "recordatorios", "ingresosExtra");
+
+    private static final String EXPENSES = "gastos";
+
+    // Reserva de la migración en el documento: marca de tiempo hasta la que la tiene una instancia
+    private static final String MIGRATION_LEASE = "migracionHasta";
+    private static final Duration MIGRATION_LEASE_DURATION = Duration.ofMinutes(2);
+
+    private final ReactiveMongoTemplate mongoTemplate;
+    private final ExpenseBucketStore bucketStore;
+    private final long splitThresholdBytes;
+
+    public FinanceItemStore(
+            ReactiveMongoTemplate mongoTemplate,
+            ExpenseBucketStore bucketStore,
+            @Value("${finance.storage.split-threshold-bytes:4194304}") long splitThresholdBytes) {
+        this.mongoTemplate = mongoTemplate;
+        this.bucketStore = bucketStore;
+        this.splitThresholdBytes = splitThresholdBytes;
+    }
+
+    /**
+     * Escritura separada en la parte del documento principal, la de los elementos y la de los gastos por mes
+     */
+    public record SplitUpdate(Update document,
+                              List<FinanceItemData> writes,
+                              List<String> deletes,
+                              Map<String, ExpensesData> expenseWrites,
+                              List<String> expenseDeletes) {
+    }
+
+    public static boolean isSplit(FinanceManagerData data) {
+        return data != null && Boolean.TRUE.equals(data.getItemsSeparados());
+    }
+
+    /**
+     * Completa los mapas de las secciones indicadas con los elementos guardados aparte.
+     * Con since solo se leen los modificados después de esa marca
+     */
+    public Mono<FinanceManagerData> attach(FinanceManagerData data, Collection<String> types, Long since) {
+        if (!isSplit(data) || types.isEmpty()) {
+            return Mono.just(data);
+        }
+
+        types.forEach(type -> resetItems(data, type));
+        List<String> itemTypes = types.stream().filter(type -> !EXPENSES.equals(type)).toList();
+
+        Mono<Void> expenses = types.contains(EXPENSES)
+                ? bucketStore.attach(data.getUserId(), data.getGastos(), since)
+                : Mono.empty();
+
+        Mono<Void> items = Mono.empty();
+        if (!itemTypes.isEmpty()) {
+            Query query = new Query(Criteria.where("userId").is(data.getUserId()).and("type").in(itemTypes));
+            if (since != null) {
+                query.addCriteria(Criteria.where("item.fechaModificacion").gt(since));
+            }
+            items = mongoTemplate.find(query, FinanceItemData.class)
+                    .doOnNext(row -> itemsOf(data, row.getType()).put(row.getItemId(), row.getItem()))
+                    .then();
+        }
+
+        // Los mapas son HashMap sin sincronizar: las dos lecturas se hacen una tras otra
+        return expenses.then(items)
+                .then(Mono.just(data))
+                .doOnError(e -> logger.severe("Error al leer elementos separados para usuario: " + data.getUserId() + " - " + e.getMessage()));
+    }
+
+    /**
+     * Completa la huella y versión de los elementos referenciados por los campos de digestFields
+     * ("gastos.<id>.hash", ...), para comparar antes de escribir
+     */
+    public Mono<FinanceManagerData> attachDigests(FinanceManagerData data, Collection<String> digestFields) {
+        if (!isSplit(data)) {
+            return Mono.just(data);
+        }
+
+        List<String> ids = new ArrayList<>();
+        List<String> expenseIds = new ArrayList<>();
+        for (String field : digestFields) {
+            String[] parts = field.split("\\.");
+            if (parts.length == 3 && "hash".equals(parts[2]) && ITEM_FIELDS.contains(parts[0])) {
+                if (EXPENSES.equals(parts[0])) {
+                    expenseIds.add(parts[1]);
+                } else {
+                    ids.add(FinanceItemData.idOf(data.getUserId(), parts[0], parts[1]));
+                }
+            }
+        }
+        ITEM_FIELDS.forEach(type -> resetItems(data, type));
+
+        Mono<Void> items = Mono.empty();
+        if (!ids.isEmpty()) {
+            Query query = new Query(Criteria.where("_id").in(ids));
+            query.fields().include("type", "itemId", "item.hash", "item.version", "item._class");
+            items = mongoTemplate.find(query, FinanceItemData.class)
+                    .doOnNext(row -> itemsOf(data, row.getType()).put(row.getItemId(), row.getItem()))
+                    .then();
+        }
+
+        return bucketStore.attachDigests(data.getUserId(), data.getGastos(), expenseIds)
+                .then(items)
+                .then(Mono.just(data));
+    }
+
+    /**
+     * Separa de un Update del documento las escrituras ($set) y eliminaciones ($unset) de
+     * elementos individuales ("gastos.<id>"); el resto queda para el documento principal
+     */
+    public SplitUpdate split(String userId, Update update) {
+        Document documentOps = new Document();
+        List<FinanceItemData> writes = new ArrayList<>();
+        List<String> deletes = new ArrayList<>();
+        Map<String, ExpensesData> expenseWrites = new LinkedHashMap<>();
+        List<String> expenseDeletes = new ArrayList<>();
+
+        for (Map.Entry<String, Object> operation : update.getUpdateObject().entrySet()) {
+            if (!(operation.getValue() instanceof Document fields)) {
+                documentOps.put(operation.getKey(), operation.getValue());
+                continue;
+            }
+
+            Document kept = new Document();
+            for (Map.Entry<String, Object> field : fields.entrySet()) {
+                String[] parts = field.getKey().split("\\.", 2);
+                boolean itemPath = parts.length == 2 && ITEM_FIELDS.contains(parts[0]) && !parts[1].contains(".");
+
+                if (itemPath && EXPENSES.equals(parts[0]) && "$set".equals(operation.getKey())
+                        && field.getValue() instanceof ExpensesData gasto) {
+                    expenseWrites.put(parts[1], gasto);
+                } else if (itemPath && EXPENSES.equals(parts[0]) && "$unset".equals(operation.getKey())) {
+                    expenseDeletes.add(parts[1]);
+                } else if (itemPath && "$set".equals(operation.getKey()) && field.getValue() instanceof SyncItemData item) {
+                    writes.add(FinanceItemData.builder()
+                            .id(FinanceItemData.idOf(userId, parts[0], parts[1]))
+                            .userId(userId)
+                            .type(parts[0])
+                            .itemId(parts[1])
+                            .item(item)
+                            .build());
+                } else if (itemPath && "$unset".equals(operation.getKey())) {
+                    deletes.add(FinanceItemData.idOf(userId, parts[0], parts[1]));
+                } else {
+                    kept.put(field.getKey(), field.getValue());
+                }
+            }
+            if (!kept.isEmpty()) {
+                documentOps.put(operation.getKey(), kept);
+            }
+        }
+
+        return new SplitUpdate(Update.fromDocument(documentOps), writes, deletes, expenseWrites, expenseDeletes);
+    }
+
+    /**
+     * Aplica las escrituras y eliminaciones de elementos y de gastos, cada colección en una operación bulk sin orden.
+     * Se ejecuta antes de la escritura condicional del documento, así que cada elemento solo reemplaza una
+     * versión anterior: quien pierda la condición del documento no pisa los elementos de quien la ganó
+     */
+    public Mono<Void> apply(String userId, SplitUpdate split) {
+        return Mono.when(
+                writeItems(split.writes(), split.deletes(), true),
+                bucketStore.apply(userId, split.expenseWrites(), split.expenseDeletes(), System.currentTimeMillis()));
+    }
+
+    /**
+     * Pasa los elementos del usuario a financeItems si su documento supera el tamaño configurado
+     */
+    public Mono<Boolean> migrateIfLarge(String userId) {
+        return documentSize(userId)
+                .filter(size -> size > splitThresholdBytes)
+                .flatMap(size -> {
+                    logger.info("Documento de " + size + " bytes para usuario " + userId + ", separando elementos");
+                    return migrate(userId);
+                })
+                .defaultIfEmpty(false);
+    }
+
+    /**
+     * Copia los elementos del documento a financeItems (y los gastos a sus meses) y, si el documento no cambió mientras tanto,
+     * vacía sus mapas y lo marca como separado. Si cambió, no se marca y se intentará en la próxima escritura.
+     * Antes de copiar se toma una reserva de la migración en el documento (sin cambiar su versión) y se borran las
+     * filas del usuario que hubiera dejado un intento anterior que perdió la condición: mientras el documento no está
+     * separado nadie las lee, y sin borrarlas un elemento eliminado después de ese intento volvería a aparecer
+     */
+    public Mono<Boolean> migrate(String userId) {
+        return claimMigration(userId)
+                .filter(Boolean::booleanValue)
+                .flatMap(claimed -> mongoTemplate.findOne(new Query(Criteria.where("userId").is(userId)), FinanceManagerData.class))
+                .filter(data -> !isSplit(data))
+                .flatMap(data -> {
+                    List<FinanceItemData> rows = new ArrayList<>();
+                    Update update = new Update().set("itemsSeparados", true).inc("version", 1).unset(MIGRATION_LEASE);
+
+                    for (String type : ITEM_FIELDS) {
+                        Map<String, SyncItemData> items = itemsOf(data, type);
+                        if (items != null && !EXPENSES.equals(type)) {
+                            items.forEach((id, item) -> rows.add(FinanceItemData.builder()
+                                    .id(FinanceItemData.idOf(userId, type, id))
+                                    .userId(userId)
+                                    .type(type)
+                                    .itemId(id)
+                                    .item(item)
+                                    .build()));
+                        }
+                        update.set(type, new HashMap<>());
+                    }
+
+                    // La versión cambia con la migración, así que una escritura concurrente que leyó el
+                    // documento antes no puede volver a escribir elementos en sus mapas
+                    Query query = new Query(Criteria.where("userId").is(userId));
+                    query.addCriteria(data.getVersion() != null
+                            ? Criteria.where("version").is(data.getVersion())
+                            : Criteria.where("version").exists(false));
+
+                    return deleteAll(userId)
+                            .then(bucketStore.deleteAll(userId))
+                            .then(writeItems(rows, List.of(), false))
+                            .then(bucketStore.replaceAll(userId, data.getGastos(), System.currentTimeMillis()))
+                            .then(mongoTemplate.updateFirst(query, update, FinanceManagerData.class))
+                            .map(result -> result.getModifiedCount() > 0)
+                            .doOnNext(migrated -> logger.info(migrated
+                                    ? "Elementos separados (" + rows.size() + ") para usuario: " + userId
+                                    : "Separación de elementos pospuesta por escritura concurrente para usuario: " + userId))
+                            .flatMap(migrated -> migrated ? Mono.just(true) : releaseMigration(userId).thenReturn(false))
+                            .onErrorResume(e -> releaseMigration(userId).then(Mono.error(e)));
+                })
+                .defaultIfEmpty(false)
+                .doOnError(e -> logger.severe("Error al separar elementos para usuario: " + userId + " - " + e.getMessage()));
+    }
+
+    /**
+     * Reserva la migración del usuario durante MIGRATION_LEASE_DURATION, para que dos instancias no borren
+     * y copien filas a la vez. No cambia la versión, así que no interfiere con las escrituras normales
+     */
+    private Mono<Boolean> claimMigration(String userId) {
+        long now = System.currentTimeMillis();
+        Query query = new Query(Criteria.where("userId").is(userId).and("itemsSeparados").ne(true)
+                .orOperator(Criteria.where(MIGRATION_LEASE).exists(false), Criteria.where(MIGRATION_LEASE).lt(now)));
+        Update update = new Update().set(MIGRATION_LEASE, now + MIGRATION_LEASE_DURATION.toMillis());
+
+        return mongoTemplate.updateFirst(query, update, FinanceManagerData.class)
+                .map(result -> result.getModifiedCount() > 0)
+                .doOnNext(claimed -> {
+                    if (!claimed) {
+                        logger.info("Separación de elementos ya en curso o hecha para usuario: " + userId);
+                    }
+                });
+    }
+
+    /**
+     * Libera la reserva tras un intento que no separó los elementos, para reintentar en la próxima escritura
+     */
+    private Mono<Void> releaseMigration(String userId) {
+        return mongoTemplate.updateFirst(new Query(Criteria.where("userId").is(userId)),
+                        new Update().unset(MIGRATION_LEASE), FinanceManagerData.class)
+                .onErrorResume(e -> Mono.empty())
+                .then();
+    }
+
+    /**
+     * Borra todas las filas de financeItems del usuario
+     */
+    private Mono<Void> deleteAll(String userId) {
+        return mongoTemplate.remove(new Query(Criteria.where("userId").is(userId)), FinanceItemData.class).then();
+    }
+
+    private Mono<Long> documentSize(String userId) {
+        Aggregation aggregation = Aggregation.newAggregation(
+                Aggregation.match(Criteria.where("userId").is(userId)),
+                context -> new Document("$project", new Document("_id", 0)
+                        .append("size", new Document("$bsonSize", "$$ROOT"))));
+
+        return mongoTemplate.aggregate(aggregation, mongoTemplate.getCollectionName(FinanceManagerData.class), Document.class)
+                .next()
+                .map(row -> ((Number) row.get("size")).longValue());
+    }
+
+    /**
+     * Escribe y elimina filas de financeItems. Con guarded cada fila solo reemplaza una con versión
+     * anterior; las descartadas por la condición se ignoran
+     */
+    private Mono<Void> writeItems(List<FinanceItemData> writes, List<String> deletes, boolean guarded) {
+        if (writes.isEmpty() && deletes.isEmpty()) {
+            return Mono.empty();
+        }
+
+        ReactiveBulkOperations bulk = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, FinanceItemData.class);
+        writes.forEach(row -> {
+            Query query = new Query(Criteria.where("_id").is(row.getId()));
+            if (guarded) {
+                VersionGuard.olderThan(query, "item.version", row.getItem().getVersion());
+            }
+            bulk.replaceOne(query, row, FindAndReplaceOptions.options().upsert());
+        });
+        if (!deletes.isEmpty()) {
+            bulk.remove(new Query(Criteria.where("_id").in(deletes)));
+        }
+        return bulk.execute()
+                .onErrorResume(VersionGuard::onlyStaleWrites, e -> {
+                    logger.fine("Elementos con versión anterior a la guardada descartados: " + e.getMessage());
+                    return Mono.empty();
+                })
+                .then();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, SyncItemData> itemsOf(FinanceManagerData data, String type) {
+        Map<String, ?> items = switch (type) {
+            case "gastos" -> data.getGastos();
+            case "categorias" -> data.getCategorias();
+            case "metasAhorro" -> data.getMetasAhorro();
+            case "recordatorios" -> data.getRecordatorios();
+            case "ingresosExtra" -> data.getIngresosExtra();
+            default -> throw new IllegalArgumentException("Tipo de elemento desconocido: " + type);
+        };
+        return (Map<String, SyncItemData>) items;
+    }
+
+    private static void resetItems(FinanceManagerData data, String type) {
+        switch (type) {
+            case "gastos" -> data.setGastos(new HashMap<>());
+            case "categorias" -> data.setCategorias(new HashMap<>());
+            case "metasAhorro" -> data.setMetasAhorro(new HashMap<>());
+            case "recordatorios" -> data.setRecordatorios(new HashMap<>());
+            case "ingresosExtra" -> data.setIngresosExtra(new HashMap<>());
+            default -> throw new IllegalArgumentException("Tipo de elemento desconocido: " + type);
+        }
+    }
+}
@@ -0,0 +1,208 @@
+package dev.yerid.mongodb.adapter.financeManegerAdapters;
+
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.bulk.BulkWriteError;
+import dev.yerid.mongodb.data.financeManager.FinanceManagerData;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.mongodb.BulkOperationException;
+import org.springframework.data.mongodb.UncategorizedMongoDbException;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.ReactiveBulkOperations;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Component;
+import reactor.core.Disposable;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Agrupa las escrituras de documentos financieros de distintos usuarios en una sola operación
+ * bulkWrite sin orden. Las escrituras se acumulan hasta completar max-batch-size o hasta que pasa
+ * la ventana configurada, y cada llamador recibe el resultado de su propia operación: vacío si se
+ * aplicó, DuplicateKeyException si el upsert chocó con un documento existente (la condición de
+ * versión no se cumplió) o el error de la operación en otro caso.
+ * Los lotes se arman con backpressure: mientras haya MAX_CONCURRENT_BATCHES en ejecución las
+ * escrituras esperan en la cola. Si la suscripción a la cola termina con error, las escrituras
+ * pendientes fallan y se crea una cola nueva; al cerrar la aplicación fallan las que no se ejecutaron
+ */
+@Component
+public class FinanceManagerBulkWriter implements InitializingBean, DisposableBean {
+    private static final Logger logger = Logger.getLogger(FinanceManagerBulkWriter.class.getName());
+    private static final int DUPLICATE_KEY = 11000;
+    private static final int MAX_CONCURRENT_BATCHES = 4;
+
+    private final ReactiveMongoTemplate mongoTemplate;
+    private final int maxBatchSize;
+    private final Duration window;
+    private final Counter batchesCounter;
+    private final DistributionSummary batchSize;
+    // Escrituras encoladas o en ejecución, para fallarlas si la cola se detiene
+    private final Set<PendingWrite> pending = ConcurrentHashMap.newKeySet();
+    private volatile Sinks.Many<PendingWrite> queue;
+    private volatile boolean closed;
+    private Disposable task;
+
+    public FinanceManagerBulkWriter(
+            ReactiveMongoTemplate mongoTemplate,
+            MeterRegistry meterRegistry,
+            @Value("${finance.bulk-write.max-batch-size:500}") int maxBatchSize,
+            @Value("${finance.bulk-write.window:2ms}") Duration window) {
+        this.mongoTemplate = mongoTemplate;
+        this.maxBatchSize = maxBatchSize;
+        this.window = window;
+        this.batchesCounter = meterRegistry.counter("sync.bulk.batches");
+        this.batchSize = DistributionSummary.builder("sync.bulk.size")
+                .description("Escrituras de documentos financieros por bulkWrite")
+                .register(meterRegistry);
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        start();
+    }
+
+    @Override
+    public synchronized void destroy() {
+        closed = true;
+        if (task != null) {
+            task.dispose();
+        }
+        failPending(new IllegalStateException("El escritor de documentos financieros se cerró"));
+    }
+
+    /**
+     * Crea la cola y su suscripción. Con backpressure justo bufferTimeout no emite un lote hasta que
+     * haya demanda, en lugar de terminar con Overflow cuando todos los lotes permitidos están en curso
+     */
+    private synchronized void start() {
+        if (closed) {
+            return;
+        }
+
+        Sinks.Many<PendingWrite> sink = Sinks.many().unicast().onBackpressureBuffer();
+        queue = sink;
+        task = sink.asFlux()
+                .bufferTimeout(maxBatchSize, window, true)
+                .flatMap(this::execute, MAX_CONCURRENT_BATCHES)
+                .subscribe(null, e -> {
+                    logger.log(Level.SEVERE, "Se detuvo la cola de escrituras agrupadas; se crea una nueva", e);
+                    failPending(e);
+                    start();
+                });
+    }
+
+    private void failPending(Throwable error) {
+        for (PendingWrite write : pending) {
+            write.result().tryEmitError(error);
+        }
+        pending.clear();
+    }
+
+    /**
+     * Encola un upsert del documento financiero y completa cuando se ejecuta su lote
+     */
+    public Mono<Void> upsert(Query query, Update update) {
+        return Mono.defer(() -> {
+            if (closed) {
+                return Mono.error(new IllegalStateException("El escritor de documentos financieros se cerró"));
+            }
+
+            PendingWrite write = new PendingWrite(query, update, Sinks.one());
+            pending.add(write);
+
+            Sinks.Many<PendingWrite> sink = queue;
+            Sinks.EmitResult result;
+            synchronized (sink) {
+                result = sink.tryEmitNext(write);
+            }
+            if (result.isFailure()) {
+                pending.remove(write);
+                return Mono.error(new IllegalStateException("No se pudo encolar la escritura: " + result));
+            }
+            return write.result().asMono()
+                    .doFinally(signal -> pending.remove(write));
+        });
+    }
+
+    private Mono<Void> execute(List<PendingWrite> batch) {
+        return Mono.defer(() -> {
+                    batchesCounter.increment();
+                    batchSize.record(batch.size());
+
+                    ReactiveBulkOperations bulk = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, FinanceManagerData.class);
+                    batch.forEach(write -> bulk.upsert(write.query(), write.update()));
+                    return bulk.execute();
+                })
+                .doOnNext(result -> batch.forEach(write -> write.result().tryEmitEmpty()))
+                .onErrorResume(e -> {
+                    complete(batch, e);
+                    return Mono.empty();
+                })
+                .then();
+    }
+
+    /**
+     * Completa cada escritura de un lote con error: las operaciones sin error propio se aplicaron
+     */
+    private void complete(List<PendingWrite> batch, Throwable error) {
+        Map<Integer, BulkWriteError> errors = writeErrors(error);
+        if (errors == null) {
+            logger.severe("Error al ejecutar lote de " + batch.size() + " escrituras: " + error.getMessage());
+            batch.forEach(write -> write.result().tryEmitError(error));
+            return;
+        }
+
+        for (int i = 0; i < batch.size(); i++) {
+            BulkWriteError writeError = errors.get(i);
+            Sinks.One<Void> result = batch.get(i).result();
+            if (writeError == null) {
+                result.tryEmitEmpty();
+            } else if (writeError.getCode() == DUPLICATE_KEY) {
+                result.tryEmitError(new DuplicateKeyException(writeError.getMessage()));
+            } else {
+                result.tryEmitError(new UncategorizedMongoDbException(writeError.getMessage(), error));
+            }
+        }
+    }
+
+    /**
+     * Errores por índice de operación, o null si el fallo no es de operaciones individuales
+     * (por ejemplo, de red o de write concern) y afecta a todo el lote
+     */
+    private Map<Integer, BulkWriteError> writeErrors(Throwable error) {
+        for (Throwable cause = error; cause != null; cause = cause.getCause()) {
+            List<BulkWriteError> errors = null;
+            if (cause instanceof MongoBulkWriteException bulkException && bulkException.getWriteConcernError() == null) {
+                errors = bulkException.getWriteErrors();
+            } else if (cause instanceof BulkOperationException bulkException) {
+                errors = bulkException.getErrors();
+            }
+
+            if (errors != null) {
+                Map<Integer, BulkWriteError> byIndex = new HashMap<>();
+                errors.forEach(writeError -> byIndex.put(writeError.getIndex(), writeError));
+                return byIndex;
+            }
+        }
+        return null;
+    }
+
+    private record PendingWrite(Query query, Update update, Sinks.One<Void> result) {
+    }
+}
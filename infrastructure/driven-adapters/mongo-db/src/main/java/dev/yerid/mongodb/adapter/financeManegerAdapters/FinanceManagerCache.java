@@ -0,0 +1,138 @@
+package dev.yerid.mongodb.adapter.financeManegerAdapters;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import dev.yerid.model.financeManager.finance.FinanceManager;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.Supplier;
+import java.util.logging.Logger;
+
+/**
+ * Caché en memoria de los documentos financieros completos ya convertidos, por usuario.
+ * Usa la política W-TinyLFU de Caffeine acotada por peso (número de elementos del documento),
+ * de modo que unos pocos usuarios con muchos gastos no desplazan al resto.
+ * Las entradas se invalidan al escribir y caducan tras un tiempo para acotar el desfase
+ * con escrituras hechas desde otras instancias.
+ * Cada invalidación avanza un contador de generación (repartido en franjas por usuario); una carga
+ * solo se guarda si su franja no cambió mientras leía, así una lectura que empezó antes de una
+ * escritura no vuelve a dejar en caché el documento anterior. Quien ya conoce la versión actual
+ * (por ejemplo, tras una escritura en otra instancia) la indica al leer y una entrada anterior se recarga
+ */
+@Component
+public class FinanceManagerCache {
+    private static final Logger logger = Logger.getLogger(FinanceManagerCache.class.getName());
+
+    private static final int GENERATION_STRIPES = 1024;
+
+    private final Cache<String, FinanceManager> cache;
+    private final AtomicLongArray generations = new AtomicLongArray(GENERATION_STRIPES);
+
+    public FinanceManagerCache(
+            MeterRegistry meterRegistry,
+            @Value("${finance.cache.max-weight:200000}") long maxWeight,
+            @Value("${finance.cache.expire-after-write:60s}") Duration expireAfterWrite) {
+        this.cache = Caffeine.newBuilder()
+                .maximumWeight(maxWeight)
+                .weigher((String userId, FinanceManager financeManager) -> weigh(financeManager))
+                .expireAfterWrite(expireAfterWrite)
+                .recordStats()
+                .build();
+
+        // Expone aciertos, fallos y desalojos en /actuator/prometheus (cache_gets, cache_evictions, ...)
+        CaffeineCacheMetrics.monitor(meterRegistry, cache, "financeManager");
+    }
+
+    /**
+     * Devuelve el documento en caché o lo carga y lo guarda si no está
+     */
+    public Mono<FinanceManager> get(String userId, Supplier<Mono<FinanceManager>> loader) {
+        return get(userId, 0L, loader);
+    }
+
+    /**
+     * Igual que get, pero una entrada con versión menor que minVersion cuenta como fallo y se recarga
+     */
+    public Mono<FinanceManager> get(String userId, long minVersion, Supplier<Mono<FinanceManager>> loader) {
+        return Mono.defer(() -> {
+            FinanceManager cached = cache.getIfPresent(userId);
+            if (cached != null && version(cached) >= minVersion) {
+                return Mono.just(cached);
+            }
+
+            int stripe = stripe(userId);
+            long generation = generations.get(stripe);
+            return loader.get()
+                    .doOnNext(financeManager -> store(userId, financeManager, stripe, generation));
+        });
+    }
+
+    /**
+     * Elimina el documento del usuario tras una escritura
+     */
+    public void invalidate(String userId) {
+        generations.incrementAndGet(stripe(userId));
+        cache.invalidate(userId);
+        logger.fine("Caché de documento financiero invalidada para usuario: " + userId);
+    }
+
+    /**
+     * Vacía la caché tras una operación que modifica muchos documentos
+     */
+    public void invalidateAll() {
+        for (int i = 0; i < GENERATION_STRIPES; i++) {
+            generations.incrementAndGet(i);
+        }
+        cache.invalidateAll();
+    }
+
+    /**
+     * Guarda la carga solo si no hubo invalidaciones en su franja desde que empezó y si no hay ya
+     * en caché una versión más reciente. La comprobación se repite dentro del compute para que una
+     * invalidación concurrente no quede pisada
+     */
+    private void store(String userId, FinanceManager loaded, int stripe, long generation) {
+        if (generations.get(stripe) != generation) {
+            return;
+        }
+
+        cache.asMap().compute(userId, (key, current) -> {
+            if (generations.get(stripe) != generation) {
+                return current;
+            }
+            if (current != null && version(current) > version(loaded)) {
+                return current;
+            }
+            return loaded;
+        });
+    }
+
+    private static int stripe(String userId) {
+        return Math.floorMod(userId.hashCode(), GENERATION_STRIPES);
+    }
+
+    private static long version(FinanceManager financeManager) {
+        return financeManager.getVersion() != null ? financeManager.getVersion() : 0L;
+    }
+
+    private static int weigh(FinanceManager financeManager) {
+        long items = 1L
+                + size(financeManager.getGastos())
+                + size(financeManager.getCategorias())
+                + size(financeManager.getMetasAhorro())
+                + size(financeManager.getRecordatorios())
+                + size(financeManager.getIngresosExtra());
+        return (int) Math.min(items, Integer.MAX_VALUE);
+    }
+
+    private static int size(Map<String, ?> items) {
+        return items != null ? items.size() : 0;
+    }
+}
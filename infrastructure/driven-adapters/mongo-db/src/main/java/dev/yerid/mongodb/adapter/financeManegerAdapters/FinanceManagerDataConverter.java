@@ -10,8 +10,12 @@ import dev.yerid.model.financeManager.savingsgoal.SavingsGoal;
 import dev.yerid.mongodb.data.financeManager.*;
 import org.springframework.stereotype.Component;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 /**
  * Clase utilitaria para convertir entre objetos de dominio y objetos de datos
@@ -23,38 +27,56 @@ public class FinanceManagerDataConverter {
      * Convierte un objeto FinanceManagerData a FinanceManager
      */
     public FinanceManager toEntity(FinanceManagerData data) {
+        return toEntity(data, 0L);
+    }
+
+    /**
+     * Convierte un objeto FinanceManagerData a FinanceManager conservando solo los
+     * elementos y eliminaciones posteriores a since. Con since 0 se convierte todo.
+     * Las secciones ausentes en el documento (por ejemplo, excluidas por una proyección) quedan en null.
+     * Si since es anterior a la última compactación de eliminados se convierte todo
+     */
+    public FinanceManager toEntity(FinanceManagerData data, long since) {
         if (data == null) {
             return null;
         }
 
+        if (data.getEliminadosDesde() != null && since < data.getEliminadosDesde()) {
+            since = 0L;
+        }
+
         // Convertir el presupuesto
-        Budget presupuesto = convertToBudget(data.getPresupuesto(), data.getUserId());
+        Budget presupuesto = convertToBudget(data.getPresupuesto(), data.getUserId(), since);
 
         // Convertir los gastos
-        Map<String, Expenses> gastos = convertToExpensesMap(data.getGastos(), data.getUserId());
+        Map<String, Expenses> gastos = convertToExpensesMap(data.getGastos(), data.getUserId(), since);
 
         // Convertir las categorías
-        Map<String, Categories> categorias = convertToCategoriesMap(data.getCategorias(), data.getUserId());
+        Map<String, Categories> categorias = convertToCategoriesMap(data.getCategorias(), data.getUserId(), since);
 
         // Convertir las metas de ahorro
-        Map<String, SavingsGoal> metasAhorro = convertToSavingsGoalMap(data.getMetasAhorro(), data.getUserId());
+        Map<String, SavingsGoal> metasAhorro = convertToSavingsGoalMap(data.getMetasAhorro(), data.getUserId(), since);
 
         // Convertir los recordatorios
-        Map<String, Reminder> recordatorios = convertToReminderMap(data.getRecordatorios(), data.getUserId());
+        Map<String, Reminder> recordatorios = convertToReminderMap(data.getRecordatorios(), data.getUserId(), since);
 
         // Convertir los ingresos extra
-        Map<String, ExtraIncome> ingresosExtra = convertToExtraIncomeMap(data.getIngresosExtra(), data.getUserId());
+        Map<String, ExtraIncome> ingresosExtra = convertToExtraIncomeMap(data.getIngresosExtra(), data.getUserId(), since);
 
         // Convertir los elementos eliminados
-        FinanceManager.EliminadosInfo eliminadosEntity = convertToEliminadosInfo(data.getEliminados());
+        FinanceManager.EliminadosInfo eliminadosEntity = since > 0
+                ? convertToEliminadosInfo(data.getFechasEliminacion(), since)
+                : convertToEliminadosInfo(data.getEliminados(), data.getFechasEliminacion());
 
         return FinanceManager.builder()
                 .id(data.getId())
                 .userId(data.getUserId())
+                .version(data.getVersion())
                 .lastSyncTimestamp(data.getLastSyncTimestamp())
                 .lastVisitedRoute(data.getLastVisitedRoute())
                 .sessionId(data.getSessionId())
                 .dataImportTimestamp(data.getDataImportTimestamp())
+                .eliminadosDesde(data.getEliminadosDesde())
                 .presupuesto(presupuesto)
                 .gastos(gastos)
                 .categorias(categorias)
@@ -65,11 +87,103 @@ public class FinanceManagerDataConverter {
                 .build();
     }
 
+    /**
+     * Convierte un gasto del dominio a su forma almacenada
+     */
+    public ExpensesData toData(Expenses gasto) {
+        return ExpensesData.builder()
+                .id(gasto.getId())
+                .nombreG(gasto.getNombreG())
+                .gasto(gasto.getGasto())
+                .categoria(gasto.getCategoria())
+                .fecha(gasto.getFecha())
+                .origen(gasto.getOrigen())
+                .recordatorioId(gasto.getRecordatorioId())
+                .build();
+    }
+
+    /**
+     * Convierte una categoría del dominio a su forma almacenada (el id es la clave del mapa)
+     */
+    public CategoriesData toData(Categories categoria) {
+        return CategoriesData.builder()
+                .nombre(categoria.getNombre())
+                .icono(categoria.getIcono())
+                .color(categoria.getColor())
+                .build();
+    }
+
+    /**
+     * Convierte una meta de ahorro del dominio a su forma almacenada
+     */
+    public SavingsGoalData toData(SavingsGoal meta) {
+        return SavingsGoalData.builder()
+                .id(meta.getId())
+                .nombre(meta.getNombre())
+                .monto(meta.getMonto())
+                .fechaObjetivo(meta.getFechaObjetivo())
+                .descripcion(meta.getDescripcion())
+                .creada(meta.getCreada())
+                .ahorroAcumulado(meta.getAhorroAcumulado())
+                .ahorroSemanal(meta.getAhorroSemanal())
+                .ahorroMensual(meta.getAhorroMensual())
+                .ahorroAnual(meta.getAhorroAnual())
+                .diasRestantes(meta.getDiasRestantes())
+                .completada(meta.isCompletada())
+                .build();
+    }
+
+    /**
+     * Convierte un recordatorio del dominio a su forma almacenada
+     */
+    public ReminderData toData(Reminder recordatorio) {
+        return ReminderData.builder()
+                .id(recordatorio.getId())
+                .titulo(recordatorio.getTitulo())
+                .descripcion(recordatorio.getDescripcion())
+                .monto(recordatorio.getMonto())
+                .fechaVencimiento(recordatorio.getFechaVencimiento())
+                .categoria(recordatorio.getCategoria())
+                .esRecurrente(recordatorio.isEsRecurrente())
+                .frecuencia(recordatorio.getFrecuencia())
+                .diasAnticipacion(recordatorio.getDiasAnticipacion())
+                .fechaCreacion(recordatorio.getFechaCreacion())
+                .estado(recordatorio.getEstado())
+                .build();
+    }
+
+    /**
+     * Convierte un ingreso extra del dominio a su forma almacenada
+     */
+    public ExtraIncomeData toData(ExtraIncome ingreso) {
+        return ExtraIncomeData.builder()
+                .id(ingreso.getId())
+                .monto(ingreso.getMonto())
+                .descripcion(ingreso.getDescripcion())
+                .fecha(ingreso.getFecha())
+                .build();
+    }
+
+    /**
+     * Convierte un ingreso extra almacenado al dominio
+     */
+    public ExtraIncome toEntity(ExtraIncomeData ingreso, String userId) {
+        return ExtraIncome.builder()
+                .id(ingreso.getId())
+                .monto(ingreso.getMonto())
+                .descripcion(ingreso.getDescripcion())
+                .fecha(ingreso.getFecha())
+                .userId(userId)
+                .fechaModificacion(ingreso.getFechaModificacion())
+                .version(ingreso.getVersion())
+                .build();
+    }
+
     /**
      * Convierte presupuesto
      */
-    private Budget convertToBudget(BudgetData data, String userId) {
-        if (data == null) return null;
+    private Budget convertToBudget(BudgetData data, String userId, long since) {
+        if (data == null || !isModifiedSince(data.getFechaActualizacion(), since)) return null;
 
         return Budget.builder()
                 .id(data.getId())
@@ -82,47 +196,67 @@ public class FinanceManagerDataConverter {
     /**
      * Convierte gastos
      */
-    private Map<String, Expenses> convertToExpensesMap(Map<String, ExpensesData> gastos, String userId) {
+    private Map<String, Expenses> convertToExpensesMap(Map<String, ExpensesData> gastos, String userId, long since) {
+        if (gastos == null) {
+            return null;
+        }
+
         Map<String, Expenses> result = new HashMap<>();
 
-        if (gastos != null) {
-            for (Map.Entry<String, ExpensesData> entry : gastos.entrySet()) {
-                ExpensesData gastoData = entry.getValue();
-                Expenses gasto = Expenses.builder()
-                        .id(gastoData.getId())
-                        .nombreG(gastoData.getNombreG())
-                        .gasto(gastoData.getGasto())
-                        .categoria(gastoData.getCategoria())
-                        .fecha(gastoData.getFecha())
-                        .userId(userId)
-                        .origen(gastoData.getOrigen())
-                        .recordatorioId(gastoData.getRecordatorioId())
-                        .build();
-                result.put(entry.getKey(), gasto);
+        for (Map.Entry<String, ExpensesData> entry : gastos.entrySet()) {
+            ExpensesData gastoData = entry.getValue();
+            if (!isModifiedSince(gastoData.getFechaModificacion(), since)) {
+                continue;
             }
+            result.put(entry.getKey(), toExpenses(gastoData, userId));
         }
 
         return result;
     }
 
+    /**
+     * Convierte un gasto
+     */
+    public Expenses toExpenses(ExpensesData gastoData, String userId) {
+        return Expenses.builder()
+                .id(gastoData.getId())
+                .nombreG(gastoData.getNombreG())
+                .gasto(gastoData.getGasto())
+                .categoria(gastoData.getCategoria())
+                .fecha(gastoData.getFecha())
+                .userId(userId)
+                .origen(gastoData.getOrigen())
+                .recordatorioId(gastoData.getRecordatorioId())
+                .fechaModificacion(gastoData.getFechaModificacion())
+                .version(gastoData.getVersion())
+                .build();
+    }
+
     /**
      * Convierte categorías
      */
-    private Map<String, Categories> convertToCategoriesMap(Map<String, CategoriesData> categorias, String userId) {
+    private Map<String, Categories> convertToCategoriesMap(Map<String, CategoriesData> categorias, String userId, long since) {
+        if (categorias == null) {
+            return null;
+        }
+
         Map<String, Categories> result = new HashMap<>();
 
-        if (categorias != null) {
-            for (Map.Entry<String, CategoriesData> entry : categorias.entrySet()) {
-                CategoriesData categoriaData = entry.getValue();
-                Categories categoria = Categories.builder()
-                        .id(entry.getKey())
-                        .nombre(categoriaData.getNombre())
-                        .icono(categoriaData.getIcono())
-                        .color(categoriaData.getColor())
-                        .userId(userId)
-                        .build();
-                result.put(entry.getKey(), categoria);
+        for (Map.Entry<String, CategoriesData> entry : categorias.entrySet()) {
+            CategoriesData categoriaData = entry.getValue();
+            if (!isModifiedSince(categoriaData.getFechaModificacion(), since)) {
+                continue;
             }
+            Categories categoria = Categories.builder()
+                    .id(entry.getKey())
+                    .nombre(categoriaData.getNombre())
+                    .icono(categoriaData.getIcono())
+                    .color(categoriaData.getColor())
+                    .userId(userId)
+                    .fechaModificacion(categoriaData.getFechaModificacion())
+                    .version(categoriaData.getVersion())
+                    .build();
+            result.put(entry.getKey(), categoria);
         }
 
         return result;
@@ -131,29 +265,36 @@ public class FinanceManagerDataConverter {
     /**
      * Convierte metas de ahorro
      */
-    private Map<String, SavingsGoal> convertToSavingsGoalMap(Map<String, SavingsGoalData> metas, String userId) {
+    private Map<String, SavingsGoal> convertToSavingsGoalMap(Map<String, SavingsGoalData> metas, String userId, long since) {
+        if (metas == null) {
+            return null;
+        }
+
         Map<String, SavingsGoal> result = new HashMap<>();
 
-        if (metas != null) {
-            for (Map.Entry<String, SavingsGoalData> entry : metas.entrySet()) {
-                SavingsGoalData metaData = entry.getValue();
-                SavingsGoal meta = SavingsGoal.builder()
-                        .id(metaData.getId())
-                        .nombre(metaData.getNombre())
-                        .monto(metaData.getMonto())
-                        .fechaObjetivo(metaData.getFechaObjetivo())
-                        .descripcion(metaData.getDescripcion())
-                        .creada(metaData.getCreada())
-                        .ahorroAcumulado(metaData.getAhorroAcumulado())
-                        .ahorroSemanal(metaData.getAhorroSemanal())
-                        .ahorroMensual(metaData.getAhorroMensual())
-                        .ahorroAnual(metaData.getAhorroAnual())
-                        .diasRestantes(metaData.getDiasRestantes())
-                        .completada(metaData.isCompletada())
-                        .userId(userId)
-                        .build();
-                result.put(entry.getKey(), meta);
+        for (Map.Entry<String, SavingsGoalData> entry : metas.entrySet()) {
+            SavingsGoalData metaData = entry.getValue();
+            if (!isModifiedSince(metaData.getFechaModificacion(), since)) {
+                continue;
             }
+            SavingsGoal meta = SavingsGoal.builder()
+                    .id(metaData.getId())
+                    .nombre(metaData.getNombre())
+                    .monto(metaData.getMonto())
+                    .fechaObjetivo(metaData.getFechaObjetivo())
+                    .descripcion(metaData.getDescripcion())
+                    .creada(metaData.getCreada())
+                    .ahorroAcumulado(metaData.getAhorroAcumulado())
+                    .ahorroSemanal(metaData.getAhorroSemanal())
+                    .ahorroMensual(metaData.getAhorroMensual())
+                    .ahorroAnual(metaData.getAhorroAnual())
+                    .diasRestantes(metaData.getDiasRestantes())
+                    .completada(metaData.isCompletada())
+                    .userId(userId)
+                    .fechaModificacion(metaData.getFechaModificacion())
+                    .version(metaData.getVersion())
+                    .build();
+            result.put(entry.getKey(), meta);
         }
 
         return result;
@@ -162,28 +303,35 @@ public class FinanceManagerDataConverter {
     /**
      * Convierte recordatorios
      */
-    private Map<String, Reminder> convertToReminderMap(Map<String, ReminderData> recordatorios, String userId) {
+    private Map<String, Reminder> convertToReminderMap(Map<String, ReminderData> recordatorios, String userId, long since) {
+        if (recordatorios == null) {
+            return null;
+        }
+
         Map<String, Reminder> result = new HashMap<>();
 
-        if (recordatorios != null) {
-            for (Map.Entry<String, ReminderData> entry : recordatorios.entrySet()) {
-                ReminderData reminderData = entry.getValue();
-                Reminder reminder = Reminder.builder()
-                        .id(reminderData.getId())
-                        .titulo(reminderData.getTitulo())
-                        .descripcion(reminderData.getDescripcion())
-                        .monto(reminderData.getMonto())
-                        .fechaVencimiento(reminderData.getFechaVencimiento())
-                        .categoria(reminderData.getCategoria())
-                        .esRecurrente(reminderData.isEsRecurrente())
-                        .frecuencia(reminderData.getFrecuencia())
-                        .diasAnticipacion(reminderData.getDiasAnticipacion())
-                        .fechaCreacion(reminderData.getFechaCreacion())
-                        .estado(reminderData.getEstado())
-                        .userId(userId)
-                        .build();
-                result.put(entry.getKey(), reminder);
+        for (Map.Entry<String, ReminderData> entry : recordatorios.entrySet()) {
+            ReminderData reminderData = entry.getValue();
+            if (!isModifiedSince(reminderData.getFechaModificacion(), since)) {
+                continue;
             }
+            Reminder reminder = Reminder.builder()
+                    .id(reminderData.getId())
+                    .titulo(reminderData.getTitulo())
+                    .descripcion(reminderData.getDescripcion())
+                    .monto(reminderData.getMonto())
+                    .fechaVencimiento(reminderData.getFechaVencimiento())
+                    .categoria(reminderData.getCategoria())
+                    .esRecurrente(reminderData.isEsRecurrente())
+                    .frecuencia(reminderData.getFrecuencia())
+                    .diasAnticipacion(reminderData.getDiasAnticipacion())
+                    .fechaCreacion(reminderData.getFechaCreacion())
+                    .estado(reminderData.getEstado())
+                    .userId(userId)
+                    .fechaModificacion(reminderData.getFechaModificacion())
+                    .version(reminderData.getVersion())
+                    .build();
+            result.put(entry.getKey(), reminder);
         }
 
         return result;
@@ -192,20 +340,47 @@ public class FinanceManagerDataConverter {
     /**
      * Convierte ingresos extra
      */
-    private Map<String, ExtraIncome> convertToExtraIncomeMap(Map<String, ExtraIncomeData> ingresos, String userId) {
+    private Map<String, ExtraIncome> convertToExtraIncomeMap(Map<String, ExtraIncomeData> ingresos, String userId, long since) {
+        if (ingresos == null) {
+            return null;
+        }
+
         Map<String, ExtraIncome> result = new HashMap<>();
 
-        if (ingresos != null) {
-            for (Map.Entry<String, ExtraIncomeData> entry : ingresos.entrySet()) {
-                ExtraIncomeData incomeData = entry.getValue();
-                ExtraIncome income = ExtraIncome.builder()
-                        .id(incomeData.getId())
-                        .monto(incomeData.getMonto())
-                        .descripcion(incomeData.getDescripcion())
-                        .fecha(incomeData.getFecha())
-                        .userId(userId)
-                        .build();
-                result.put(entry.getKey(), income);
+        for (Map.Entry<String, ExtraIncomeData> entry : ingresos.entrySet()) {
+            ExtraIncomeData incomeData = entry.getValue();
+            if (!isModifiedSince(incomeData.getFechaModificacion(), since)) {
+                continue;
+            }
+            result.put(entry.getKey(), toEntity(incomeData, userId));
+        }
+
+        return result;
+    }
+
+    /**
+     * Convierte las fechas de eliminación en listas con los ids eliminados después de since
+     */
+    private FinanceManager.EliminadosInfo convertToEliminadosInfo(FinanceManagerData.FechasEliminacionInfo fechas, long since) {
+        if (fechas == null) return null;
+
+        return FinanceManager.EliminadosInfo.builder()
+                .gastos(idsDeletedSince(fechas.getGastos(), since))
+                .categorias(idsDeletedSince(fechas.getCategorias(), since))
+                .metasAhorro(idsDeletedSince(fechas.getMetasAhorro(), since))
+                .recordatorios(idsDeletedSince(fechas.getRecordatorios(), since))
+                .ingresosExtra(idsDeletedSince(fechas.getIngresosExtra(), since))
+                .build();
+    }
+
+    private List<String> idsDeletedSince(Map<String, Long> fechas, long since) {
+        List<String> result = new ArrayList<>();
+
+        if (fechas != null) {
+            for (Map.Entry<String, Long> entry : fechas.entrySet()) {
+                if (isModifiedSince(entry.getValue(), since)) {
+                    result.add(entry.getKey());
+                }
             }
         }
 
@@ -213,17 +388,40 @@ public class FinanceManagerDataConverter {
     }
 
     /**
-     * Convierte elementos eliminados
+     * Indica si una marca de tiempo es posterior a since. Con since 0 todo se considera modificado
+     * y los elementos sin marca (anteriores a la sincronización incremental) solo viajan completos.
+     */
+    private boolean isModifiedSince(Long timestamp, long since) {
+        return since <= 0 || (timestamp != null && timestamp > since);
+    }
+
+    /**
+     * Convierte todos los elementos eliminados: los del formato anterior más los que tienen fecha
      */
-    private FinanceManager.EliminadosInfo convertToEliminadosInfo(FinanceManagerData.EliminadosInfo eliminados) {
-        if (eliminados == null) return null;
+    private FinanceManager.EliminadosInfo convertToEliminadosInfo(FinanceManagerData.EliminadosInfo eliminados,
+                                                                  FinanceManagerData.FechasEliminacionInfo fechas) {
+        if (eliminados == null && fechas == null) return null;
+
+        FinanceManagerData.EliminadosInfo legacy = eliminados != null ? eliminados : new FinanceManagerData.EliminadosInfo();
+        FinanceManagerData.FechasEliminacionInfo dated = fechas != null ? fechas : new FinanceManagerData.FechasEliminacionInfo();
 
         return FinanceManager.EliminadosInfo.builder()
-                .gastos(eliminados.getGastos())
-                .categorias(eliminados.getCategorias())
-                .metasAhorro(eliminados.getMetasAhorro())
-                .recordatorios(eliminados.getRecordatorios())
-                .ingresosExtra(eliminados.getIngresosExtra())
+                .gastos(mergeDeletedIds(legacy.getGastos(), dated.getGastos()))
+                .categorias(mergeDeletedIds(legacy.getCategorias(), dated.getCategorias()))
+                .metasAhorro(mergeDeletedIds(legacy.getMetasAhorro(), dated.getMetasAhorro()))
+                .recordatorios(mergeDeletedIds(legacy.getRecordatorios(), dated.getRecordatorios()))
+                .ingresosExtra(mergeDeletedIds(legacy.getIngresosExtra(), dated.getIngresosExtra()))
                 .build();
     }
+
+    private List<String> mergeDeletedIds(List<String> legacy, Map<String, Long> fechas) {
+        Set<String> result = new LinkedHashSet<>();
+        if (legacy != null) {
+            result.addAll(legacy);
+        }
+        if (fechas != null) {
+            result.addAll(fechas.keySet());
+        }
+        return new ArrayList<>(result);
+    }
 }
\ No newline at end of file
@@ -1,11 +1,25 @@
 package dev.yerid.mongodb.adapter.financeManegerAdapters;
 
+import dev.yerid.model.financeManager.categories.Categories;
+import dev.yerid.model.financeManager.expenses.Expenses;
+import dev.yerid.model.financeManager.extraincome.ExtraIncome;
+import dev.yerid.model.financeManager.finance.FinanceManager;
+import dev.yerid.model.financeManager.finance.SyncChanges;
+import dev.yerid.model.financeManager.finance.SyncSection;
+import dev.yerid.model.financeManager.reminder.Reminder;
+import dev.yerid.model.financeManager.savingsgoal.SavingsGoal;
 import dev.yerid.mongodb.adapter.financeManegerAdapters.utils.DataUtils;
+import dev.yerid.mongodb.adapter.financeManegerAdapters.utils.ItemDigest;
 import dev.yerid.mongodb.data.financeManager.*;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.bson.Document;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.data.mongodb.core.query.Update;
 import org.springframework.stereotype.Component;
 
 import java.util.*;
+import java.util.function.Consumer;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 
 /**
@@ -14,180 +28,515 @@ import java.util.stream.Collectors;
 @Component
 public class FinanceManagerDataExtractor {
 
+    private final MeterRegistry meterRegistry;
+    private final FinanceManagerDataConverter converter;
+    private final double replaceRatio;
+    private final int replaceMinItems;
+
+    public FinanceManagerDataExtractor(MeterRegistry meterRegistry, FinanceManagerDataConverter converter,
+                                       @Value("${finance.update.replace-ratio:0.5}") double replaceRatio,
+                                       @Value("${finance.update.replace-min-items:200}") int replaceMinItems) {
+        this.meterRegistry = meterRegistry;
+        this.converter = converter;
+        this.replaceRatio = replaceRatio;
+        this.replaceMinItems = replaceMinItems;
+    }
+
     /**
-     * Prepara un documento completo a partir de los datos
+     * Convierte los mapas recibidos del frontend en cambios tipados
      */
-    public FinanceManagerData prepareDocument(String userId, Map<String, Object> data, Map<String, Object> eliminados) {
-        FinanceManagerData document = FinanceManagerData.createEmpty(userId);
-        document.setLastSyncTimestamp(System.currentTimeMillis());
+    public SyncChanges toChanges(Map<String, Object> data, Map<String, Object> eliminados) {
+        SyncChanges changes = new SyncChanges();
 
         // Presupuesto
         if (data.containsKey("PresupuestoLS")) {
-            Object presupuestoObj = data.get("PresupuestoLS");
-            double monto = DataUtils.parseToDouble(presupuestoObj, 0.0);
-            document.setPresupuesto(new BudgetData(userId, monto, System.currentTimeMillis()));
+            changes.setPresupuesto(DataUtils.parseToDouble(data.get("PresupuestoLS"), 0.0));
         }
 
         // Campos de seguimiento
-        if (data.containsKey("lastVisitedRoute")) {
-            document.setLastVisitedRoute(DataUtils.toString(data.get("lastVisitedRoute")));
-        }
-        if (data.containsKey("sessionId")) {
-            document.setSessionId(DataUtils.toString(data.get("sessionId")));
+        changes.setLastVisitedRoute(DataUtils.toString(data.get("lastVisitedRoute")));
+        changes.setSessionId(DataUtils.toString(data.get("sessionId")));
+        changes.setDataImportTimestamp(DataUtils.parseToLong(data.get("dataImportTimestamp"), null));
+
+        // Colecciones
+        if (data.containsKey("ObjetosGastos")) changes.setGastos(extractExpenses(data, "ObjetosGastos"));
+        if (data.containsKey("categorias")) changes.setCategorias(extractCategories(data, "categorias"));
+        if (data.containsKey("MetasAhorro")) changes.setMetasAhorro(extractSavingsGoals(data, "MetasAhorro"));
+        if (data.containsKey("recordatorios")) changes.setRecordatorios(extractReminders(data, "recordatorios"));
+        if (data.containsKey("IngresosExtra")) changes.setIngresosExtra(extractExtraIncomes(data, "IngresosExtra"));
+
+        // Elementos eliminados
+        if (eliminados != null && !eliminados.isEmpty()) {
+            changes.setEliminados(FinanceManager.EliminadosInfo.builder()
+                    .gastos(extractIds(eliminados, "ObjetosGastos"))
+                    .categorias(extractIds(eliminados, "categorias"))
+                    .metasAhorro(extractIds(eliminados, "MetasAhorro"))
+                    .recordatorios(extractIds(eliminados, "recordatorios"))
+                    .ingresosExtra(extractIds(eliminados, "IngresosExtra"))
+                    .build());
         }
-        if (data.containsKey("dataImportTimestamp")) {
-            document.setDataImportTimestamp(DataUtils.parseToLong(data.get("dataImportTimestamp"), null));
+
+        return changes;
+    }
+
+    /**
+     * Asigna id a los elementos que no lo tienen y completa las fechas por defecto
+     */
+    public SyncChanges normalize(SyncChanges changes) {
+        long now = System.currentTimeMillis();
+
+        forEach(changes.getGastos(), gasto -> {
+            if (isBlank(gasto.getId())) gasto.setId(UUID.randomUUID().toString());
+            if (gasto.getFecha() == null) gasto.setFecha(now);
+        });
+        forEach(changes.getCategorias(), categoria -> {
+            if (isBlank(categoria.getId())) categoria.setId(DataUtils.generateCategoryId(categoria.getNombre()));
+        });
+        forEach(changes.getMetasAhorro(), meta -> {
+            if (isBlank(meta.getId())) meta.setId(UUID.randomUUID().toString());
+            if (meta.getCreada() == null) meta.setCreada(now);
+        });
+        forEach(changes.getRecordatorios(), recordatorio -> {
+            if (isBlank(recordatorio.getId())) recordatorio.setId(UUID.randomUUID().toString());
+            if (recordatorio.getFechaCreacion() == null) recordatorio.setFechaCreacion(now);
+        });
+        forEach(changes.getIngresosExtra(), ingreso -> {
+            if (isBlank(ingreso.getId())) ingreso.setId(UUID.randomUUID().toString());
+            if (ingreso.getFecha() == null) ingreso.setFecha(now);
+        });
+
+        return changes;
+    }
+
+    /**
+     * Prepara un objeto Update para actualización parcial
+     */
+    public Update prepareUpdate(Map<String, Object> data, Map<String, Object> eliminados) {
+        return prepareUpdate(normalize(toChanges(data, eliminados)), null);
+    }
+
+    /**
+     * Prepara un objeto Update para actualización parcial comparando con el estado actual del documento
+     * (proyectado con digestFields). Solo se escriben los valores y elementos que cambiaron; si nada
+     * cambió no se modifican ni la versión ni lastSyncTimestamp. Los cambios deben estar normalizados
+     */
+    public Update prepareUpdate(SyncChanges changes, FinanceManagerData current) {
+        return prepareUpdate(changes, current, new HashMap<>());
+    }
+
+    /**
+     * Igual que prepareUpdate, pero descarta los elementos cuya versión no es mayor que la almacenada
+     * y agrega sus ids a rejected (por clave del cliente).
+     * Las secciones de replacedSections se escriben completas con un solo $set; para ellas current
+     * debe traer la sección entera y no solo las huellas
+     */
+    public Update prepareUpdate(SyncChanges changes, FinanceManagerData current, Map<String, List<String>> rejected) {
+        Update update = new Update();
+        long now = System.currentTimeMillis();
+        boolean changed = false;
+        Set<SyncSection> replaced = replacedSections(changes, current);
+        FinanceManager.EliminadosInfo eliminados = changes.getEliminados() != null
+                ? changes.getEliminados() : FinanceManager.EliminadosInfo.builder().build();
+        Tombstones tombstones = new Tombstones(current);
+
+        // Presupuesto
+        if (changes.getPresupuesto() != null) {
+            double monto = changes.getPresupuesto();
+            if (current == null || current.getPresupuesto() == null || current.getPresupuesto().getMonto() != monto) {
+                update.set("presupuesto.monto", monto);
+                update.set("presupuesto.fechaActualizacion", now);
+                changed = true;
+            }
         }
 
+        // Campos de seguimiento
+        changed |= setIfChanged(update, "lastVisitedRoute", changes.getLastVisitedRoute(),
+                current != null ? current.getLastVisitedRoute() : null);
+        changed |= setIfChanged(update, "sessionId", changes.getSessionId(),
+                current != null ? current.getSessionId() : null);
+        changed |= setIfChanged(update, "dataImportTimestamp", changes.getDataImportTimestamp(),
+                current != null ? current.getDataImportTimestamp() : null);
+
+        // Actualizar colecciones
+        // Para cada colección: convertir cada elemento y actualizar solo los que cambiaron y no
+        // llegan con una versión obsoleta, marcándolos con la fecha de modificación para la descarga incremental
+
         // Gastos
-        if (data.containsKey("ObjetosGastos")) {
-            document.setGastos(extractMapOfExpenses(data, "ObjetosGastos"));
-        }
+        changed |= setChangedItems(update, SyncSection.GASTOS, changes.getGastos(), Expenses::getId, Expenses::getVersion,
+                converter::toData, current != null ? current.getGastos() : null, now, rejected,
+                replaced.contains(SyncSection.GASTOS), eliminados.getGastos(), tombstones.forField("gastos"));
 
         // Categorías
-        if (data.containsKey("categorias")) {
-            document.setCategorias(extractMapOfCategories(data, "categorias"));
-        }
+        changed |= setChangedItems(update, SyncSection.CATEGORIAS, changes.getCategorias(), Categories::getId, Categories::getVersion,
+                converter::toData, current != null ? current.getCategorias() : null, now, rejected,
+                replaced.contains(SyncSection.CATEGORIAS), eliminados.getCategorias(), tombstones.forField("categorias"));
 
         // Metas de ahorro
-        if (data.containsKey("MetasAhorro")) {
-            document.setMetasAhorro(extractMapOfSavingsGoals(data, "MetasAhorro"));
-        }
+        changed |= setChangedItems(update, SyncSection.METAS_AHORRO, changes.getMetasAhorro(), SavingsGoal::getId, SavingsGoal::getVersion,
+                converter::toData, current != null ? current.getMetasAhorro() : null, now, rejected,
+                replaced.contains(SyncSection.METAS_AHORRO), eliminados.getMetasAhorro(), tombstones.forField("metasAhorro"));
 
         // Recordatorios
-        if (data.containsKey("recordatorios")) {
-            document.setRecordatorios(extractMapOfReminders(data, "recordatorios"));
-        }
+        changed |= setChangedItems(update, SyncSection.RECORDATORIOS, changes.getRecordatorios(), Reminder::getId, Reminder::getVersion,
+                converter::toData, current != null ? current.getRecordatorios() : null, now, rejected,
+                replaced.contains(SyncSection.RECORDATORIOS), eliminados.getRecordatorios(), tombstones.forField("recordatorios"));
 
         // Ingresos extra
-        if (data.containsKey("IngresosExtra")) {
-            document.setIngresosExtra(extractMapOfExtraIncomes(data, "IngresosExtra"));
+        changed |= setChangedItems(update, SyncSection.INGRESOS_EXTRA, changes.getIngresosExtra(), ExtraIncome::getId, ExtraIncome::getVersion,
+                converter::toData, current != null ? current.getIngresosExtra() : null, now, rejected,
+                replaced.contains(SyncSection.INGRESOS_EXTRA), eliminados.getIngresosExtra(), tombstones.forField("ingresosExtra"));
+
+        // Procesar elementos eliminados: se quitan del mapa y se registra su fecha de eliminación.
+        // En las secciones reescritas completas ya se quitaron al armar la sección
+        changed |= unsetDeleted(update, "gastos", eliminados.getGastos(), now, replaced.contains(SyncSection.GASTOS),
+                current != null ? current.getGastos() : null, tombstones.forField("gastos"));
+        changed |= unsetDeleted(update, "categorias", eliminados.getCategorias(), now, replaced.contains(SyncSection.CATEGORIAS),
+                current != null ? current.getCategorias() : null, tombstones.forField("categorias"));
+        changed |= unsetDeleted(update, "metasAhorro", eliminados.getMetasAhorro(), now, replaced.contains(SyncSection.METAS_AHORRO),
+                current != null ? current.getMetasAhorro() : null, tombstones.forField("metasAhorro"));
+        changed |= unsetDeleted(update, "recordatorios", eliminados.getRecordatorios(), now, replaced.contains(SyncSection.RECORDATORIOS),
+                current != null ? current.getRecordatorios() : null, tombstones.forField("recordatorios"));
+        changed |= unsetDeleted(update, "ingresosExtra", eliminados.getIngresosExtra(), now, replaced.contains(SyncSection.INGRESOS_EXTRA),
+                current != null ? current.getIngresosExtra() : null, tombstones.forField("ingresosExtra"));
+
+        if (changed) {
+            update.set("lastSyncTimestamp", now);
+            update.inc("version", 1);
         }
 
-        // Elementos eliminados
-        if (eliminados != null && !eliminados.isEmpty()) {
-            FinanceManagerData.EliminadosInfo eliminadosInfo = new FinanceManagerData.EliminadosInfo();
-
-            eliminadosInfo.setGastos(extractStringList(eliminados, "ObjetosGastos"));
-            eliminadosInfo.setCategorias(extractStringList(eliminados, "categorias"));
-            eliminadosInfo.setMetasAhorro(extractStringList(eliminados, "MetasAhorro"));
-            eliminadosInfo.setRecordatorios(extractStringList(eliminados, "recordatorios"));
-            eliminadosInfo.setIngresosExtra(extractStringList(eliminados, "IngresosExtra"));
+        return update;
+    }
 
-            document.setEliminados(eliminadosInfo);
+    /**
+     * Campos a proyectar del documento actual para que prepareUpdate pueda comparar: la versión del
+     * documento, el presupuesto, los campos de seguimiento, la huella, versión y marcas de eliminación de
+     * cada elemento recibido (para no revivir uno eliminado con una versión anterior) y, para cada id
+     * eliminado, su huella, versión y marcas de eliminación (para no volver a registrarla).
+     * Los cambios deben estar normalizados
+     */
+    public List<String> digestFields(SyncChanges changes) {
+        List<String> fields = new ArrayList<>(List.of("version", "presupuesto.monto", "lastVisitedRoute", "sessionId", "dataImportTimestamp"));
+
+        forEach(changes.getGastos(), gasto -> addItemFields(fields, "gastos", gasto.getId()));
+        forEach(changes.getCategorias(), categoria -> addItemFields(fields, "categorias", categoria.getId()));
+        forEach(changes.getMetasAhorro(), meta -> addItemFields(fields, "metasAhorro", meta.getId()));
+        forEach(changes.getRecordatorios(), recordatorio -> addItemFields(fields, "recordatorios", recordatorio.getId()));
+        forEach(changes.getIngresosExtra(), ingreso -> addItemFields(fields, "ingresosExtra", ingreso.getId()));
+
+        FinanceManager.EliminadosInfo eliminados = changes.getEliminados();
+        if (eliminados != null) {
+            addDeletedFields(fields, "gastos", eliminados.getGastos());
+            addDeletedFields(fields, "categorias", eliminados.getCategorias());
+            addDeletedFields(fields, "metasAhorro", eliminados.getMetasAhorro());
+            addDeletedFields(fields, "recordatorios", eliminados.getRecordatorios());
+            addDeletedFields(fields, "ingresosExtra", eliminados.getIngresosExtra());
         }
 
-        return document;
+        return fields;
     }
 
     /**
-     * Prepara un objeto Update para actualización parcial
+     * Expresión que cuenta los elementos guardados de cada sección recibida con suficientes elementos
+     * para poder reescribirse completa, o null si ninguna alcanza replace-min-items. Se proyecta como
+     * tamanosSecciones en la misma lectura de las huellas
      */
-    public Update prepareUpdate(Map<String, Object> data, Map<String, Object> eliminados) {
-        Update update = new Update();
-        update.set("lastSyncTimestamp", System.currentTimeMillis());
-
-        // Presupuesto
-        if (data.containsKey("PresupuestoLS")) {
-            Object presupuestoObj = data.get("PresupuestoLS");
-            double monto = DataUtils.parseToDouble(presupuestoObj, 0.0);
-            update.set("presupuesto.monto", monto);
-            update.set("presupuesto.fechaActualizacion", System.currentTimeMillis());
+    public Document sectionSizes(SyncChanges changes) {
+        Document sizes = new Document();
+        for (SyncSection section : SyncSection.values()) {
+            if (section.hasItems() && receivedCount(changes, section) >= replaceMinItems) {
+                sizes.append(section.getField(), new Document("$size", new Document("$objectToArray",
+                        new Document("$ifNull", List.of("$" + section.getField(), new Document())))));
+            }
         }
+        return sizes.isEmpty() ? null : sizes;
+    }
 
-        // Campos de seguimiento
-        if (data.containsKey("lastVisitedRoute")) {
-            update.set("lastVisitedRoute", DataUtils.toString(data.get("lastVisitedRoute")));
-        }
-        if (data.containsKey("sessionId")) {
-            update.set("sessionId", DataUtils.toString(data.get("sessionId")));
+    /**
+     * Secciones que conviene reescribir completas en lugar de un $set por elemento: las que reciben al
+     * menos replace-min-items elementos y al menos replace-ratio veces los guardados. Solo aplica a
+     * documentos existentes sin elementos separados y con tamanosSecciones leído
+     */
+    public Set<SyncSection> replacedSections(SyncChanges changes, FinanceManagerData current) {
+        Set<SyncSection> replaced = EnumSet.noneOf(SyncSection.class);
+        if (current == null || current.getTamanosSecciones() == null || FinanceItemStore.isSplit(current)) {
+            return replaced;
         }
-        if (data.containsKey("dataImportTimestamp")) {
-            update.set("dataImportTimestamp", DataUtils.parseToLong(data.get("dataImportTimestamp"), null));
+
+        for (SyncSection section : SyncSection.values()) {
+            Integer stored = current.getTamanosSecciones().get(section.getField());
+            int received = receivedCount(changes, section);
+            if (stored != null && received >= replaceMinItems && received >= replaceRatio * stored) {
+                replaced.add(section);
+            }
         }
+        return replaced;
+    }
 
-        // Actualizar colecciones
-        // Para cada colección: extraer del mapa y actualizar cada elemento individual
+    private int receivedCount(SyncChanges changes, SyncSection section) {
+        List<?> items = switch (section) {
+            case GASTOS -> changes.getGastos();
+            case CATEGORIAS -> changes.getCategorias();
+            case METAS_AHORRO -> changes.getMetasAhorro();
+            case RECORDATORIOS -> changes.getRecordatorios();
+            case INGRESOS_EXTRA -> changes.getIngresosExtra();
+            case PRESUPUESTO -> null;
+        };
+        return items != null ? items.size() : 0;
+    }
 
-        // Gastos
-        Map<String, ExpensesData> gastos = extractMapOfExpenses(data, "ObjetosGastos");
-        for (Map.Entry<String, ExpensesData> entry : gastos.entrySet()) {
-            update.set("gastos." + entry.getKey(), entry.getValue());
+    private void addItemFields(List<String> fields, String field, String id) {
+        fields.add(field + "." + id + ".hash");
+        fields.add(field + "." + id + ".version");
+        fields.add("fechasEliminacion." + field + "." + id);
+        fields.add("versionesEliminacion." + field + "." + id);
+    }
+
+    private void addDeletedFields(List<String> fields, String field, List<String> ids) {
+        forEach(ids, id -> {
+            if (!fields.contains(field + "." + id + ".hash")) {
+                addItemFields(fields, field, id);
+            }
+        });
+    }
+
+    /**
+     * Prepara un Update que crea el documento si no existe o lo actualiza si existe, en una sola operación.
+     * Los valores por defecto del documento nuevo van en $setOnInsert solo para los campos que el
+     * Update no modifica, ya que Mongo rechaza dos operadores sobre la misma ruta.
+     * current es el estado proyectado del documento (null si no existe); los elementos con versión
+     * obsoleta se agregan a rejected
+     */
+    public Update prepareUpsert(String userId, SyncChanges changes, FinanceManagerData current,
+                                Map<String, List<String>> rejected) {
+        Update update = prepareUpdate(changes, current, rejected);
+        Set<String> touched = touchedFields(update);
+
+        update.setOnInsert("_id", userId);
+        if (!touched.contains("version")) {
+            update.setOnInsert("version", 0L);
+        }
+        if (!touched.contains("lastSyncTimestamp")) {
+            update.setOnInsert("lastSyncTimestamp", System.currentTimeMillis());
+        }
+        if (touched.contains("presupuesto")) {
+            update.setOnInsert("presupuesto.id", userId);
+        } else {
+            update.setOnInsert("presupuesto", new BudgetData(userId, 0, System.currentTimeMillis()));
         }
 
-        // Categorías
-        Map<String, CategoriesData> categorias = extractMapOfCategories(data, "categorias");
-        for (Map.Entry<String, CategoriesData> entry : categorias.entrySet()) {
-            update.set("categorias." + entry.getKey(), entry.getValue());
+        for (String field : List.of("gastos", "categorias", "metasAhorro", "recordatorios", "ingresosExtra")) {
+            if (!touched.contains(field)) {
+                update.setOnInsert(field, new HashMap<>());
+            }
+            if (!touched.contains("fechasEliminacion." + field)) {
+                update.setOnInsert("fechasEliminacion." + field, new HashMap<>());
+            }
         }
 
-        // Metas de ahorro
-        Map<String, SavingsGoalData> metas = extractMapOfSavingsGoals(data, "MetasAhorro");
-        for (Map.Entry<String, SavingsGoalData> entry : metas.entrySet()) {
-            update.set("metasAhorro." + entry.getKey(), entry.getValue());
+        return update;
+    }
+
+    /**
+     * Rutas de primer nivel (y de segundo nivel en fechasEliminacion) modificadas por el Update
+     */
+    private Set<String> touchedFields(Update update) {
+        Set<String> touched = new HashSet<>();
+        for (Object operation : update.getUpdateObject().values()) {
+            if (operation instanceof Document fields) {
+                for (String key : fields.keySet()) {
+                    String[] parts = key.split("\\.");
+                    touched.add(parts[0]);
+                    if (parts.length > 1) {
+                        touched.add(parts[0] + "." + parts[1]);
+                    }
+                }
+            }
         }
+        return touched;
+    }
 
-        // Recordatorios
-        Map<String, ReminderData> recordatorios = extractMapOfReminders(data, "recordatorios");
-        for (Map.Entry<String, ReminderData> entry : recordatorios.entrySet()) {
-            update.set("recordatorios." + entry.getKey(), entry.getValue());
+    private boolean setIfChanged(Update update, String key, Object value, Object currentValue) {
+        if (value == null || Objects.equals(value, currentValue)) {
+            return false;
         }
+        update.set(key, value);
+        return true;
+    }
 
-        // Ingresos extra
-        Map<String, ExtraIncomeData> ingresos = extractMapOfExtraIncomes(data, "IngresosExtra");
-        for (Map.Entry<String, ExtraIncomeData> entry : ingresos.entrySet()) {
-            update.set("ingresosExtra." + entry.getKey(), entry.getValue());
+    /**
+     * Agrega al Update los elementos cuya huella difiere de la almacenada, y cuenta los omitidos.
+     * Un elemento enviado con versión que no supera la almacenada se rechaza; sin versión (clientes
+     * anteriores) se acepta y recibe la siguiente a la almacenada.
+     * Un elemento eliminado cuenta como una versión más nueva: editarlo solo se acepta con una versión
+     * mayor que la registrada al eliminarlo (y entonces se quita su marca de eliminación); si no, se rechaza.
+     * Con replace los elementos se combinan con la sección guardada (stored completa), se quitan los
+     * eliminados y la sección se escribe con un solo $set; si no, se escribe un $set por elemento
+     */
+    private <E, T extends SyncItemData> boolean setChangedItems(Update update, SyncSection section, List<E> items,
+                                                                Function<E, String> idOf, Function<E, Long> versionOf,
+                                                                Function<E, T> toData, Map<String, T> stored, long now,
+                                                                Map<String, List<String>> rejected,
+                                                                boolean replace, List<String> deleted,
+                                                                SectionTombstones tombstones) {
+        if (items == null || items.isEmpty()) {
+            return false;
         }
 
-        // Procesar elementos eliminados
-        if (eliminados != null && !eliminados.isEmpty()) {
-            // Gastos eliminados
-            List<String> gastosEliminados = extractStringList(eliminados, "ObjetosGastos");
-            if (!gastosEliminados.isEmpty()) {
-                update.addToSet("eliminados.gastos").each(gastosEliminados.toArray());
-                for (String id : gastosEliminados) {
-                    update.unset("gastos." + id);
-                }
+        String field = section.getField();
+        Map<String, T> merged = replace ? new LinkedHashMap<>(stored != null ? stored : Map.of()) : null;
+        int skipped = 0;
+        int written = 0;
+        for (E entity : items) {
+            String id = idOf.apply(entity);
+            T item = toData.apply(entity);
+            item.setHash(ItemDigest.of(item));
+
+            T previous = stored != null ? stored.get(id) : null;
+            if (previous != null && item.getHash().equals(previous.getHash())) {
+                skipped++;
+                continue;
             }
 
-            // Categorías eliminadas
-            List<String> categoriasEliminadas = extractStringList(eliminados, "categorias");
-            if (!categoriasEliminadas.isEmpty()) {
-                update.addToSet("eliminados.categorias").each(categoriasEliminadas.toArray());
-                for (String id : categoriasEliminadas) {
-                    update.unset("categorias." + id);
-                }
+            Long version = versionOf.apply(entity);
+            long storedVersion = previous != null && previous.getVersion() != null ? previous.getVersion() : 0L;
+            if (version != null && previous != null && version <= storedVersion) {
+                rejected.computeIfAbsent(section.getClientKey(), key -> new ArrayList<>()).add(id);
+                continue;
             }
 
-            // Metas eliminadas
-            List<String> metasEliminadas = extractStringList(eliminados, "MetasAhorro");
-            if (!metasEliminadas.isEmpty()) {
-                update.addToSet("eliminados.metasAhorro").each(metasEliminadas.toArray());
-                for (String id : metasEliminadas) {
-                    update.unset("metasAhorro." + id);
+            boolean deletedBefore = previous == null && tombstones.isDeleted(id);
+            if (deletedBefore) {
+                // Sin versión registrada (eliminaciones anteriores) la eliminación siempre gana
+                Long deletedVersion = tombstones.deletedVersion(id);
+                if (version == null || deletedVersion == null || version <= deletedVersion) {
+                    rejected.computeIfAbsent(section.getClientKey(), key -> new ArrayList<>()).add(id);
+                    continue;
+                }
+                if (deleted == null || !deleted.contains(id)) {
+                    update.unset("fechasEliminacion." + field + "." + id);
+                    update.unset("versionesEliminacion." + field + "." + id);
                 }
             }
 
-            // Recordatorios eliminados
-            List<String> recordatoriosEliminados = extractStringList(eliminados, "recordatorios");
-            if (!recordatoriosEliminados.isEmpty()) {
-                update.addToSet("eliminados.recordatorios").each(recordatoriosEliminados.toArray());
-                for (String id : recordatoriosEliminados) {
-                    update.unset("recordatorios." + id);
-                }
+            item.setVersion(version != null ? version : storedVersion + 1);
+            item.setFechaModificacion(now);
+            if (replace) {
+                merged.put(id, item);
+            } else {
+                update.set(field + "." + id, item);
             }
+            written++;
+        }
 
-            // Ingresos extra eliminados
-            List<String> ingresosEliminados = extractStringList(eliminados, "IngresosExtra");
-            if (!ingresosEliminados.isEmpty()) {
-                update.addToSet("eliminados.ingresosExtra").each(ingresosEliminados.toArray());
-                for (String id : ingresosEliminados) {
-                    update.unset("ingresosExtra." + id);
+        int removed = 0;
+        if (replace && deleted != null) {
+            for (String id : deleted) {
+                if (merged.remove(id) != null) {
+                    removed++;
                 }
             }
         }
+        if (replace && (written > 0 || removed > 0)) {
+            update.set(field, merged);
+        }
+        if (written > 0 || removed > 0) {
+            meterRegistry.counter("sync.update.strategy", "section", field, "strategy", replace ? "replace" : "patch").increment();
+        }
 
-        return update;
+        if (skipped > 0) {
+            meterRegistry.counter("sync.items.skipped", "section", field).increment(skipped);
+        }
+        if (written > 0) {
+            meterRegistry.counter("sync.items.written", "section", field).increment(written);
+        }
+        if (rejected.containsKey(section.getClientKey())) {
+            meterRegistry.counter("sync.items.rejected", "section", field).increment(rejected.get(section.getClientKey()).size());
+        }
+        return written > 0;
+    }
+
+    /**
+     * Quita los elementos eliminados y registra su fecha de eliminación y la versión que representa la
+     * eliminación (la guardada más uno). stored y tombstones son el estado proyectado con digestFields
+     * (vacíos si no se leyó): un id que ya tiene fecha de eliminación y no está guardado se omite, para
+     * que reenviar la misma eliminación no cambie la fecha ni la versión
+     */
+    private boolean unsetDeleted(Update update, String field, List<String> ids, long now, boolean replaced,
+                                 Map<String, ? extends SyncItemData> stored, SectionTombstones tombstones) {
+        if (ids == null || ids.isEmpty()) {
+            return false;
+        }
+        boolean changed = false;
+        for (String id : ids) {
+            SyncItemData previous = stored != null ? stored.get(id) : null;
+            if (previous == null && tombstones.isDeleted(id)) {
+                continue;
+            }
+            // Mongo rechaza $unset sobre una ruta dentro de una sección que se reescribe completa
+            if (!replaced) {
+                update.unset(field + "." + id);
+            }
+            long storedVersion = previous != null && previous.getVersion() != null ? previous.getVersion() : 0L;
+            update.set("fechasEliminacion." + field + "." + id, now);
+            update.set("versionesEliminacion." + field + "." + id, storedVersion + 1);
+            changed = true;
+        }
+        return changed;
+    }
+
+    /**
+     * Marcas de eliminación proyectadas del documento actual (fechas y versiones por sección)
+     */
+    private record Tombstones(FinanceManagerData.FechasEliminacionInfo fechas,
+                              FinanceManagerData.FechasEliminacionInfo versiones) {
+
+        Tombstones(FinanceManagerData current) {
+            this(current != null ? current.getFechasEliminacion() : null,
+                    current != null ? current.getVersionesEliminacion() : null);
+        }
+
+        SectionTombstones forField(String field) {
+            return new SectionTombstones(section(fechas, field), section(versiones, field));
+        }
+
+        private static Map<String, Long> section(FinanceManagerData.FechasEliminacionInfo info, String field) {
+            if (info == null) {
+                return null;
+            }
+            return switch (field) {
+                case "gastos" -> info.getGastos();
+                case "categorias" -> info.getCategorias();
+                case "metasAhorro" -> info.getMetasAhorro();
+                case "recordatorios" -> info.getRecordatorios();
+                case "ingresosExtra" -> info.getIngresosExtra();
+                default -> null;
+            };
+        }
+    }
+
+    private record SectionTombstones(Map<String, Long> fechas, Map<String, Long> versiones) {
+
+        boolean isDeleted(String id) {
+            return fechas != null && fechas.containsKey(id);
+        }
+
+        Long deletedVersion(String id) {
+            return versiones != null ? versiones.get(id) : null;
+        }
+    }
+
+    private List<String> extractIds(Map<String, Object> eliminados, String key) {
+        return eliminados.containsKey(key) ? extractStringList(eliminados, key) : null;
+    }
+
+    private <E> void forEach(List<E> items, Consumer<E> action) {
+        if (items != null) {
+            items.forEach(action);
+        }
+    }
+
+    private boolean isBlank(String value) {
+        return value == null || value.isEmpty();
     }
 
     @SuppressWarnings("unchecked")
@@ -212,97 +561,72 @@ public class FinanceManagerDataExtractor {
         return new ArrayList<>();
     }
 
-    public Map<String, ExpensesData> extractMapOfExpenses(Map<String, Object> data, String key) {
-        Map<String, ExpensesData> result = new HashMap<>();
-        List<Map<String, Object>> list = extractList(data, key);
-
-        for (Map<String, Object> item : list) {
-            String id = DataUtils.toString(item.get("id"));
-            if (id == null || id.isEmpty()) {
-                id = UUID.randomUUID().toString();
-            }
+    public List<Expenses> extractExpenses(Map<String, Object> data, String key) {
+        List<Expenses> result = new ArrayList<>();
 
-            ExpensesData expenseData = ExpensesData.builder()
-                    .id(id)
+        for (Map<String, Object> item : extractList(data, key)) {
+            result.add(Expenses.builder()
+                    .id(DataUtils.toString(item.get("id")))
+                    .version(DataUtils.parseToLong(item.get("version"), null))
                     .nombreG(DataUtils.toString(item.get("nombreG")))
                     .gasto(DataUtils.parseToDouble(item.get("gasto"), 0.0))
                     .categoria(DataUtils.toString(item.get("categoria")))
                     .fecha(DataUtils.parseFecha(item.get("fecha")))
                     .origen(DataUtils.toString(item.get("origen")))
                     .recordatorioId(DataUtils.toString(item.get("recordatorioId")))
-                    .build();
-
-            result.put(id, expenseData);
+                    .build());
         }
 
         return result;
     }
 
-    public Map<String, CategoriesData> extractMapOfCategories(Map<String, Object> data, String key) {
-        Map<String, CategoriesData> result = new HashMap<>();
-        List<Map<String, Object>> list = extractList(data, key);
-
-        for (Map<String, Object> item : list) {
-            String id = DataUtils.toString(item.get("id"));
-            if (id == null || id.isEmpty()) {
-                id = DataUtils.generateCategoryId(DataUtils.toString(item.get("nombre")));
-            }
+    public List<Categories> extractCategories(Map<String, Object> data, String key) {
+        List<Categories> result = new ArrayList<>();
 
-            CategoriesData categoryData = CategoriesData.builder()
+        for (Map<String, Object> item : extractList(data, key)) {
+            result.add(Categories.builder()
+                    .id(DataUtils.toString(item.get("id")))
+                    .version(DataUtils.parseToLong(item.get("version"), null))
                     .nombre(DataUtils.toString(item.get("nombre")))
                     .icono(DataUtils.toString(item.get("icono")))
                     .color(DataUtils.toString(item.get("color")))
-                    .build();
-
-            result.put(id, categoryData);
+                    .build());
         }
 
         return result;
     }
 
-    public Map<String, SavingsGoalData> extractMapOfSavingsGoals(Map<String, Object> data, String key) {
-        Map<String, SavingsGoalData> result = new HashMap<>();
-        List<Map<String, Object>> list = extractList(data, key);
+    public List<SavingsGoal> extractSavingsGoals(Map<String, Object> data, String key) {
+        List<SavingsGoal> result = new ArrayList<>();
 
-        for (Map<String, Object> item : list) {
-            String id = DataUtils.toString(item.get("id"));
-            if (id == null || id.isEmpty()) {
-                id = UUID.randomUUID().toString();
-            }
-
-            SavingsGoalData goalData = SavingsGoalData.builder()
-                    .id(id)
+        for (Map<String, Object> item : extractList(data, key)) {
+            result.add(SavingsGoal.builder()
+                    .id(DataUtils.toString(item.get("id")))
+                    .version(DataUtils.parseToLong(item.get("version"), null))
                     .nombre(DataUtils.toString(item.get("nombre")))
                     .monto(DataUtils.parseToDouble(item.get("monto"), 0.0))
                     .fechaObjetivo(DataUtils.toString(item.get("fechaObjetivo")))
                     .descripcion(DataUtils.toString(item.get("descripcion")))
-                    .creada(DataUtils.parseToLong(item.get("creada"), System.currentTimeMillis()))
+                    .creada(DataUtils.parseToLong(item.get("creada"), null))
                     .ahorroAcumulado(DataUtils.parseToDouble(item.get("ahorroAcumulado"), 0.0))
                     .ahorroSemanal(DataUtils.parseToDouble(item.get("ahorroSemanal"), 0.0))
                     .ahorroMensual(DataUtils.parseToDouble(item.get("ahorroMensual"), 0.0))
                     .ahorroAnual(DataUtils.parseToDouble(item.get("ahorroAnual"), 0.0))
                     .diasRestantes(DataUtils.parseToInt(item.get("diasRestantes"), 0))
                     .completada(DataUtils.parseToBoolean(item.get("completada"), false))
-                    .build();
-
-            result.put(id, goalData);
+                    .build());
         }
 
         return result;
     }
 
-    public Map<String, ReminderData> extractMapOfReminders(Map<String, Object> data, String key) {
-        Map<String, ReminderData> result = new HashMap<>();
-        List<Map<String, Object>> list = extractList(data, key);
-
-        for (Map<String, Object> item : list) {
-            String id = DataUtils.toString(item.get("id"));
-            if (id == null || id.isEmpty()) {
-                id = UUID.randomUUID().toString();
-            }
+    public List<Reminder> extractReminders(Map<String, Object> data, String key) {
+        List<Reminder> result = new ArrayList<>();
 
-            ReminderData reminderData = ReminderData.builder()
-                    .id(id)
+        for (Map<String, Object> item : extractList(data, key)) {
+            result.add(Reminder.builder()
+                    .id(DataUtils.toString(item.get("id")))
+                    .version(DataUtils.parseToLong(item.get("version"), null))
                     .titulo(DataUtils.toString(item.get("titulo")))
                     .descripcion(DataUtils.toString(item.get("descripcion")))
                     .monto(DataUtils.parseToDouble(item.get("monto"), 0.0))
@@ -311,36 +635,27 @@ public class FinanceManagerDataExtractor {
                     .esRecurrente(DataUtils.parseToBoolean(item.get("esRecurrente"), false))
                     .frecuencia(DataUtils.toString(item.get("frecuencia")))
                     .diasAnticipacion(DataUtils.parseToInt(item.get("diasAnticipacion"), 0))
-                    .fechaCreacion(DataUtils.parseToLong(item.get("fechaCreacion"), System.currentTimeMillis()))
+                    .fechaCreacion(DataUtils.parseToLong(item.get("fechaCreacion"), null))
                     .estado(DataUtils.toString(item.get("estado")))
-                    .build();
-
-            result.put(id, reminderData);
+                    .build());
         }
 
         return result;
     }
 
-    public Map<String, ExtraIncomeData> extractMapOfExtraIncomes(Map<String, Object> data, String key) {
-        Map<String, ExtraIncomeData> result = new HashMap<>();
-        List<Map<String, Object>> list = extractList(data, key);
-
-        for (Map<String, Object> item : list) {
-            String id = DataUtils.toString(item.get("id"));
-            if (id == null || id.isEmpty()) {
-                id = UUID.randomUUID().toString();
-            }
+    public List<ExtraIncome> extractExtraIncomes(Map<String, Object> data, String key) {
+        List<ExtraIncome> result = new ArrayList<>();
 
-            ExtraIncomeData incomeData = ExtraIncomeData.builder()
-                    .id(id)
+        for (Map<String, Object> item : extractList(data, key)) {
+            result.add(ExtraIncome.builder()
+                    .id(DataUtils.toString(item.get("id")))
+                    .version(DataUtils.parseToLong(item.get("version"), null))
                     .monto(DataUtils.parseToDouble(item.get("monto"), 0.0))
                     .descripcion(DataUtils.toString(item.get("descripcion")))
-                    .fecha(DataUtils.parseToLong(item.get("fecha"), System.currentTimeMillis()))
-                    .build();
-
-            result.put(id, incomeData);
+                    .fecha(DataUtils.parseToLong(item.get("fecha"), null))
+                    .build());
         }
 
         return result;
     }
-}
\ No newline at end of file
+}
@@ -1,15 +1,35 @@
 package dev.yerid.mongodb.adapter.financeManegerAdapters;
 
 import com.mongodb.client.result.UpdateResult;
+import dev.yerid.model.financeManager.finance.SyncChanges;
+import dev.yerid.model.financeManager.finance.SyncResult;
+import dev.yerid.model.financeManager.finance.SyncSection;
+import dev.yerid.mongodb.data.financeManager.ExpensesData;
+import dev.yerid.mongodb.data.financeManager.ExtraIncomeData;
+import dev.yerid.mongodb.data.financeManager.FinanceItemData;
 import dev.yerid.mongodb.data.financeManager.FinanceManagerData;
+import org.bson.Document;
+import org.springframework.dao.DuplicateKeyException;
 import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
+import org.springframework.data.mongodb.core.aggregation.AggregationExpression;
+import org.springframework.data.mongodb.core.aggregation.AggregationOperation;
 import org.springframework.data.mongodb.core.query.Criteria;
 import org.springframework.data.mongodb.core.query.Query;
 import org.springframework.data.mongodb.core.query.Update;
 import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
+import reactor.util.retry.Retry;
 
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
 import java.util.logging.Logger;
 
 /**
@@ -18,13 +38,21 @@ import java.util.logging.Logger;
 @Component
 public class FinanceManagerQueryExecutor {
     private static final Logger logger = Logger.getLogger(FinanceManagerQueryExecutor.class.getName());
+    private static final int MAX_WRITE_ATTEMPTS = 5;
+    private static final Duration WRITE_RETRY_BACKOFF = Duration.ofMillis(10);
+    private static final String EXTRA_INCOME = "ingresosExtra";
 
     private final ReactiveMongoTemplate mongoTemplate;
     private final FinanceManagerDataExtractor extractor;
+    private final FinanceItemStore itemStore;
+    private final FinanceManagerBulkWriter bulkWriter;
 
-    public FinanceManagerQueryExecutor(ReactiveMongoTemplate mongoTemplate, FinanceManagerDataExtractor extractor) {
+    public FinanceManagerQueryExecutor(ReactiveMongoTemplate mongoTemplate, FinanceManagerDataExtractor extractor,
+                                       FinanceItemStore itemStore, FinanceManagerBulkWriter bulkWriter) {
         this.mongoTemplate = mongoTemplate;
         this.extractor = extractor;
+        this.itemStore = itemStore;
+        this.bulkWriter = bulkWriter;
     }
 
     /**
@@ -49,11 +77,135 @@ public class FinanceManagerQueryExecutor {
                 .doOnError(e -> logger.severe("Error al actualizar documento para usuario: " + userId + " - " + e.getMessage()));
     }
 
+    /**
+     * Crea o actualiza el documento del usuario en una sola escritura (upsert) y devuelve la
+     * versión resultante con los elementos rechazados por versión obsoleta. Antes se leen solo la
+     * versión del documento y la huella y versión de los elementos recibidos; la escritura es
+     * condicional a que la versión del documento no haya cambiado desde esa lectura. Si cambió (u otra
+     * primera sincronización creó el documento), el upsert choca con el _id existente y se repite la
+     * lectura y la comparación, sin bloqueos. Si los elementos del usuario están separados, las
+     * huellas se leen de financeItems y los elementos se escriben allí antes que el documento, cada uno
+     * solo sobre una versión anterior; si la condición del documento falla, la repetición los vuelve a comparar.
+     * La escritura del documento se envía en un bulkWrite junto con las de otros usuarios; como es
+     * condicional a la versión leída, la versión resultante se calcula sin volver a leer el documento.
+     * Con muchos elementos en una sección se lee además su tamaño, y si el extractor decide reescribirla
+     * completa se lee la sección entera antes de preparar la escritura
+     */
+    public Mono<SyncResult> upsertDocument(String userId, SyncChanges changes) {
+        extractor.normalize(changes);
+        List<String> digestFields = extractor.digestFields(changes);
+        List<String> projection = new ArrayList<>(digestFields);
+        projection.add("itemsSeparados");
+        Document sectionSizes = extractor.sectionSizes(changes);
+
+        return Mono.defer(() -> {
+                    Map<String, List<String>> rejected = new LinkedHashMap<>();
+
+                    return findProjected(userId, projection, null, sectionSizes)
+                            .flatMap(data -> itemStore.attachDigests(data, digestFields))
+                            .flatMap(data -> attachReplacedSections(userId, changes, data))
+                            .map(Optional::of)
+                            .defaultIfEmpty(Optional.empty())
+                            .flatMap(current -> {
+                                Query query = createUserIdQuery(userId);
+                                Long readVersion = current.map(FinanceManagerData::getVersion).orElse(null);
+                                query.addCriteria(readVersion != null
+                                        ? Criteria.where("version").is(readVersion)
+                                        : Criteria.where("version").exists(false));
+
+                                Update update = extractor.prepareUpsert(userId, changes, current.orElse(null), rejected);
+
+                                if (!FinanceItemStore.isSplit(current.orElse(null))) {
+                                    return bulkWriter.upsert(query, update)
+                                            .then(Mono.defer(() -> checkSize(userId, update)))
+                                            .thenReturn(versionAfter(readVersion, update));
+                                }
+
+                                // Elementos separados: primero los elementos (cada uno condicionado a su versión)
+                                // y al final la escritura condicional del documento, para que quien vea la nueva
+                                // versión o lastSyncTimestamp ya encuentre los elementos escritos
+                                FinanceItemStore.SplitUpdate split = itemStore.split(userId, update);
+                                return itemStore.apply(userId, split)
+                                        .then(Mono.defer(() -> bulkWriter.upsert(query, split.document())))
+                                        .thenReturn(versionAfter(readVersion, split.document()));
+                            })
+                            .map(version -> SyncResult.builder()
+                                    .version(version)
+                                    .rechazados(rejected)
+                                    .build());
+                })
+                .retryWhen(Retry.backoff(MAX_WRITE_ATTEMPTS, WRITE_RETRY_BACKOFF)
+                        .filter(DuplicateKeyException.class::isInstance))
+                .doOnSuccess(result -> logger.info("Documento guardado (versión " + result.getVersion() + ", rechazados: "
+                        + result.getRechazados() + ") para usuario: " + userId))
+                .doOnError(e -> logger.severe("Error al guardar documento para usuario: " + userId + " - " + e.getMessage()));
+    }
+
+    /**
+     * Completa las secciones que se reescribirán enteras con todos sus elementos guardados, en lugar
+     * de solo las huellas de los recibidos. Si el documento cambió desde la primera lectura se
+     * repite la lectura completa, como cuando falla la escritura condicional
+     */
+    private Mono<FinanceManagerData> attachReplacedSections(String userId, SyncChanges changes, FinanceManagerData current) {
+        List<String> fields = extractor.replacedSections(changes, current).stream()
+                .map(SyncSection::getField)
+                .filter(field -> current.getTamanosSecciones().getOrDefault(field, 0) > 0)
+                .toList();
+        if (fields.isEmpty()) {
+            return Mono.just(current);
+        }
+
+        List<String> projection = new ArrayList<>(fields);
+        projection.add("version");
+        return findProjected(userId, projection, null)
+                .filter(full -> Objects.equals(full.getVersion(), current.getVersion()))
+                .switchIfEmpty(Mono.error(() -> new DuplicateKeyException("El documento cambió al leer las secciones para usuario: " + userId)))
+                .map(full -> {
+                    fields.forEach(field -> {
+                        switch (field) {
+                            case "gastos" -> current.setGastos(full.getGastos());
+                            case "categorias" -> current.setCategorias(full.getCategorias());
+                            case "metasAhorro" -> current.setMetasAhorro(full.getMetasAhorro());
+                            case "recordatorios" -> current.setRecordatorios(full.getRecordatorios());
+                            case "ingresosExtra" -> current.setIngresosExtra(full.getIngresosExtra());
+                            default -> throw new IllegalStateException("Sección desconocida: " + field);
+                        }
+                    });
+                    return current;
+                });
+    }
+
+    /**
+     * Versión del documento tras aplicar una escritura condicional a readVersion: la incrementa en
+     * uno si la escritura cambió algo; un documento nuevo empieza en 0
+     */
+    private long versionAfter(Long readVersion, Update update) {
+        long base = readVersion != null ? readVersion : 0L;
+        boolean incremented = update.getUpdateObject().get("$inc") instanceof Document inc && inc.containsKey("version");
+        return incremented ? base + 1 : base;
+    }
+
+    /**
+     * Tras escribir elementos en un documento sin separar, comprueba su tamaño y separa los
+     * elementos si superó el umbral. Un fallo aquí no afecta a la escritura ya hecha
+     */
+    private Mono<Boolean> checkSize(String userId, Update update) {
+        boolean wroteItems = update.getUpdateObject().get("$set") instanceof Document set
+                && set.keySet().stream().anyMatch(key -> FinanceItemStore.ITEM_FIELDS.contains(key.split("\\.")[0]));
+        if (!wroteItems) {
+            return Mono.just(false);
+        }
+
+        return itemStore.migrateIfLarge(userId)
+                .onErrorResume(e -> Mono.just(false));
+    }
+
     /**
      * Encuentra un documento por userId y lo actualiza parcialmente
      */
     public Mono<FinanceManagerData> findAndUpdate(String userId, Update update) {
         Query query = createUserIdQuery(userId);
+        update.inc("version", 1);
         return mongoTemplate.findAndModify(query, update, FinanceManagerData.class)
                 .doOnSuccess(result -> {
                     if (result != null) {
@@ -65,6 +217,236 @@ public class FinanceManagerQueryExecutor {
                 .doOnError(e -> logger.severe("Error al buscar y actualizar documento: " + e.getMessage()));
     }
 
+    /**
+     * Busca el documento del usuario leyendo solo los campos indicados.
+     * Con since se limita a documentos sincronizados después de esa marca
+     */
+    public Mono<FinanceManagerData> findProjected(String userId, Collection<String> fields, Long since) {
+        return findProjected(userId, fields, since, null);
+    }
+
+    /**
+     * Igual que findProjected, calculando además en la base de datos el número de elementos de las
+     * secciones indicadas en sectionSizes (proyectado como tamanosSecciones)
+     */
+    private Mono<FinanceManagerData> findProjected(String userId, Collection<String> fields, Long since, Document sectionSizes) {
+        Query query = createUserIdQuery(userId);
+        if (since != null) {
+            query.addCriteria(Criteria.where("lastSyncTimestamp").gt(since));
+        }
+        fields.forEach(field -> query.fields().include(field));
+        if (sectionSizes != null) {
+            query.fields().project((AggregationExpression) context -> sectionSizes).as("tamanosSecciones");
+        }
+
+        return mongoTemplate.findOne(query, FinanceManagerData.class)
+                .doOnError(e -> logger.severe("Error al leer campos " + fields + " para usuario: " + userId + " - " + e.getMessage()));
+    }
+
+    /**
+     * Lee una página de gastos ordenados por fecha descendente (y por id para desempatar)
+     * convirtiendo el mapa de gastos en filas con $objectToArray. Con afterFecha y afterKey se
+     * devuelven solo los gastos posteriores a esa posición, y con from/to solo los de ese rango de fechas.
+     * Cada página desenrolla y ordena todo el mapa, así que recorrer N gastos cuesta O(N²/limit); solo se
+     * usa para documentos sin elementos separados, que finance.storage.split-threshold-bytes mantiene
+     * acotados (por encima se migran a financeItems y las páginas se leen por mes desde ExpenseBucketStore)
+     */
+    public Flux<ExpenseRow> findExpensesPage(String userId, Long afterFecha, String afterKey, Long from, Long to, int limit) {
+        List<AggregationOperation> stages = new ArrayList<>();
+        stages.add(Aggregation.match(Criteria.where("userId").is(userId)));
+        stages.add(context -> new Document("$project", new Document("_id", 0)
+                .append("gasto", new Document("$objectToArray", new Document("$ifNull", List.of("$gastos", new Document()))))));
+        stages.add(context -> new Document("$unwind", "$gasto"));
+        stages.add(context -> new Document("$replaceWith", new Document("$mergeObjects", List.of(
+                "$gasto.v",
+                new Document("_key", "$gasto.k")
+                        .append("_fecha", new Document("$ifNull", List.of("$gasto.v.fecha", 0L)))))));
+
+        if (afterFecha != null && afterKey != null) {
+            stages.add(context -> new Document("$match", new Document("$or", List.of(
+                    new Document("_fecha", new Document("$lt", afterFecha)),
+                    new Document("_fecha", afterFecha).append("_key", new Document("$lt", afterKey))))));
+        }
+        if (from != null || to != null) {
+            Document range = new Document();
+            if (from != null) {
+                range.append("$gte", from);
+            }
+            if (to != null) {
+                range.append("$lte", to);
+            }
+            stages.add(context -> new Document("$match", new Document("_fecha", range)));
+        }
+
+        stages.add(context -> new Document("$sort", new Document("_fecha", -1).append("_key", -1)));
+        stages.add(Aggregation.limit(limit));
+
+        Aggregation aggregation = Aggregation.newAggregation(stages)
+                .withOptions(Aggregation.newAggregationOptions().allowDiskUse(true).build());
+
+        return mongoTemplate.aggregate(aggregation, mongoTemplate.getCollectionName(FinanceManagerData.class), Document.class)
+                .map(row -> ExpenseRow.of(row.getString("_key"), mongoTemplate.getConverter().read(ExpensesData.class, row)))
+                .doOnError(e -> logger.severe("Error al paginar gastos para usuario: " + userId + " - " + e.getMessage()));
+    }
+
+    /**
+     * Ingresos extra del usuario que cumplen filter (sobre los campos del ingreso, por ejemplo fecha),
+     * ordenados por fecha descendente. El mapa se convierte en filas con $objectToArray y el filtro se
+     * aplica en la base de datos; para usuarios con elementos separados se leen de financeItems
+     */
+    public Flux<ExtraIncomeData> findExtraIncomes(String userId, Document filter) {
+        List<AggregationOperation> embedded = extraIncomeRows(userId, filter);
+        embedded.add(context -> new Document("$sort", new Document("fecha", -1)));
+
+        List<AggregationOperation> separated = separatedExtraIncomeRows(userId, filter);
+        separated.add(context -> new Document("$replaceWith", new Document("$mergeObjects", List.of("$item", new Document("id", "$itemId")))));
+        separated.add(context -> new Document("$sort", new Document("fecha", -1)));
+
+        return Flux.concat(
+                        aggregateRows(embedded, FinanceManagerData.class),
+                        aggregateRows(separated, FinanceItemData.class))
+                .map(row -> mongoTemplate.getConverter().read(ExtraIncomeData.class, row))
+                .doOnError(e -> logger.severe("Error al leer ingresos extra para usuario: " + userId + " - " + e.getMessage()));
+    }
+
+    /**
+     * Suma de los montos de los ingresos extra del usuario que cumplen filter, calculada con $group en
+     * la base de datos: solo sale el total. 0 si no hay ingresos
+     */
+    public Mono<Double> sumExtraIncome(String userId, Document filter) {
+        Document group = new Document("$group", new Document("_id", null).append("total", new Document("$sum", "$monto")));
+
+        List<AggregationOperation> embedded = extraIncomeRows(userId, filter);
+        embedded.add(context -> group);
+
+        List<AggregationOperation> separated = separatedExtraIncomeRows(userId, filter);
+        separated.add(context -> new Document("$group", new Document("_id", null).append("total", new Document("$sum", "$item.monto"))));
+
+        return Flux.concat(
+                        aggregateRows(embedded, FinanceManagerData.class),
+                        aggregateRows(separated, FinanceItemData.class))
+                .map(row -> row.get("total") instanceof Number total ? total.doubleValue() : 0.0)
+                .reduce(0.0, Double::sum)
+                .doOnError(e -> logger.severe("Error al sumar ingresos extra para usuario: " + userId + " - " + e.getMessage()));
+    }
+
+    /**
+     * Usuario dueño de un ingreso extra, buscado por id primero en financeItems (índice type_item) y
+     * luego en los documentos. Las claves de los mapas no se pueden indexar, así que la segunda búsqueda
+     * recorre la colección; se registra cada vez que se usa para ver si aún hay ingresos sin migrar
+     */
+    public Mono<String> findExtraIncomeOwner(String id) {
+        Query embedded = new Query(Criteria.where(EXTRA_INCOME + "." + id).exists(true));
+        embedded.fields().include("userId");
+
+        Query separated = new Query(Criteria.where("type").is(EXTRA_INCOME).and("itemId").is(id));
+        separated.fields().include("userId");
+
+        return mongoTemplate.findOne(separated, FinanceItemData.class)
+                .map(FinanceItemData::getUserId)
+                .switchIfEmpty(Mono.defer(() -> {
+                    logger.warning("Ingreso extra " + id + " no encontrado en financeItems; se recorren los documentos por "
+                            + EXTRA_INCOME + "." + id + " sin índice");
+                    return mongoTemplate.findOne(embedded, FinanceManagerData.class)
+                            .map(FinanceManagerData::getUserId);
+                }));
+    }
+
+    /**
+     * Ingresos extra del documento del usuario como filas (el id es la clave del mapa), filtradas por filter
+     */
+    private List<AggregationOperation> extraIncomeRows(String userId, Document filter) {
+        List<AggregationOperation> stages = new ArrayList<>();
+        stages.add(Aggregation.match(Criteria.where("userId").is(userId)));
+        stages.add(context -> new Document("$project", new Document("_id", 0)
+                .append("ingreso", new Document("$objectToArray", new Document("$ifNull", List.of("$" + EXTRA_INCOME, new Document()))))));
+        stages.add(context -> new Document("$unwind", "$ingreso"));
+        stages.add(context -> new Document("$replaceWith", new Document("$mergeObjects", List.of(
+                "$ingreso.v", new Document("id", "$ingreso.k")))));
+        if (!filter.isEmpty()) {
+            stages.add(context -> new Document("$match", filter));
+        }
+        return stages;
+    }
+
+    /**
+     * Ingresos extra del usuario guardados en financeItems, con filter aplicado a los campos de item
+     */
+    private List<AggregationOperation> separatedExtraIncomeRows(String userId, Document filter) {
+        Document match = new Document("userId", userId).append("type", EXTRA_INCOME);
+        filter.forEach((field, condition) -> match.append("item." + field, condition));
+
+        List<AggregationOperation> stages = new ArrayList<>();
+        stages.add(context -> new Document("$match", match));
+        return stages;
+    }
+
+    private Flux<Document> aggregateRows(List<AggregationOperation> stages, Class<?> collection) {
+        return mongoTemplate.aggregate(Aggregation.newAggregation(stages), mongoTemplate.getCollectionName(collection), Document.class);
+    }
+
+    /**
+     * Compacta los elementos eliminados de los documentos que lo necesitan: los que aún tienen ids del
+     * formato anterior (sin fecha), que pasan a fechasEliminacion con fecha now, y los que tienen
+     * fechas anteriores a cutoff, que se descartan. Solo estos últimos registran cutoff en
+     * eliminadosDesde, porque solo ellos pierden eliminaciones que un delta debería incluir.
+     * El filtro deja fuera los documentos sin nada que compactar, así que la versión solo sube
+     * (e invalida las descargas en caché) cuando el documento cambia. Las versiones de eliminación de
+     * los ids descartados se descartan con ellas.
+     * Se ejecuta en el servidor como un update con pipeline, sin leer los documentos
+     */
+    public Mono<UpdateResult> compactDeletions(long cutoff, long now) {
+        List<String> sections = List.of("gastos", "categorias", "metasAhorro", "recordatorios", "ingresosExtra");
+
+        List<Document> expired = new ArrayList<>();
+        Document compacted = new Document();
+        Document prunedVersions = new Document();
+        for (String field : sections) {
+            expired.add(new Document("$anyElementTrue", List.of(new Document("$map", new Document()
+                    .append("input", new Document("$objectToArray", new Document("$ifNull", List.of("$fechasEliminacion." + field, new Document()))))
+                    .append("in", new Document("$lt", List.of("$$this.v", cutoff)))))));
+
+            Document legacy = new Document("$arrayToObject", List.of(new Document("$map", new Document()
+                    .append("input", new Document("$ifNull", List.of("$eliminados." + field, List.of())))
+                    .append("as", "id")
+                    .append("in", new Document("k", "$$id").append("v", now)))));
+            Document merged = new Document("$mergeObjects", List.of(
+                    legacy, new Document("$ifNull", List.of("$fechasEliminacion." + field, new Document()))));
+
+            compacted.append("fechasEliminacion." + field, new Document("$arrayToObject", List.of(
+                    new Document("$filter", new Document()
+                            .append("input", new Document("$objectToArray", merged))
+                            .append("cond", new Document("$gte", List.of("$$this.v", cutoff)))))));
+
+            // Las versiones de eliminación se conservan solo para los ids que siguen con fecha
+            prunedVersions.append("versionesEliminacion." + field, new Document("$arrayToObject", List.of(
+                    new Document("$filter", new Document()
+                            .append("input", new Document("$objectToArray", new Document("$ifNull", List.of("$versionesEliminacion." + field, new Document()))))
+                            .append("cond", new Document("$in", List.of("$$this.k", new Document("$map", new Document()
+                                    .append("input", new Document("$objectToArray", "$fechasEliminacion." + field))
+                                    .append("as", "fecha")
+                                    .append("in", "$$fecha.k")))))))));
+        }
+        Document hasExpired = new Document("$or", expired);
+
+        Document filter = new Document("$or", List.of(
+                new Document("eliminados", new Document("$exists", true)),
+                new Document("$expr", hasExpired)));
+
+        // Todas las expresiones del $set ven el documento original, antes de descartar las fechas
+        compacted.append("eliminadosDesde", new Document("$cond", List.of(hasExpired, cutoff, "$eliminadosDesde")));
+        compacted.append("version", new Document("$add", List.of(new Document("$ifNull", List.of("$version", 0L)), 1L)));
+
+        List<Document> pipeline = List.of(
+                new Document("$set", compacted),
+                new Document("$set", prunedVersions),
+                new Document("$unset", "eliminados"));
+
+        return mongoTemplate.getCollection(mongoTemplate.getCollectionName(FinanceManagerData.class))
+                .flatMap(collection -> Mono.from(collection.updateMany(filter, pipeline)))
+                .doOnError(e -> logger.severe("Error al compactar elementos eliminados: " + e.getMessage()));
+    }
+
     /**
      * Elimina un elemento específico de una colección
      */
@@ -74,9 +456,10 @@ public class FinanceManagerQueryExecutor {
 
         // Eliminar el elemento de la colección
         update.unset(collection + "." + itemId);
+        update.inc("version", 1);
 
-        // Agregar el ID a la lista de eliminados
-        update.addToSet("eliminados." + collection, itemId);
+        // Registrar la fecha de eliminación del ID
+        update.set("fechasEliminacion." + collection + "." + itemId, System.currentTimeMillis());
 
         return mongoTemplate.updateFirst(query, update, FinanceManagerData.class)
                 .doOnSuccess(result -> {
@@ -98,6 +481,7 @@ public class FinanceManagerQueryExecutor {
 
         // Agregar el elemento a la colección
         update.set(collection + "." + itemId, item);
+        update.inc("version", 1);
 
         return mongoTemplate.updateFirst(query, update, FinanceManagerData.class)
                 .doOnSuccess(result -> {
@@ -119,6 +503,7 @@ public class FinanceManagerQueryExecutor {
 
         update.set("presupuesto.monto", amount);
         update.set("presupuesto.fechaActualizacion", System.currentTimeMillis());
+        update.inc("version", 1);
 
         return mongoTemplate.updateFirst(query, update, FinanceManagerData.class)
                 .doOnSuccess(result -> {
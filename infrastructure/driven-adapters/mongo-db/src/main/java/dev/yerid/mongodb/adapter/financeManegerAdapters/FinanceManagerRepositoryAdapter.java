@@ -1,41 +1,75 @@
 package dev.yerid.mongodb.adapter.financeManegerAdapters;
 
+import dev.yerid.model.financeManager.expenses.Expenses;
+import dev.yerid.model.financeManager.expenses.ExpensesPage;
 import dev.yerid.model.financeManager.finance.FinanceManager;
+import dev.yerid.model.financeManager.finance.SyncChanges;
+import dev.yerid.model.financeManager.finance.SyncResult;
+import dev.yerid.model.financeManager.finance.SyncSection;
 import dev.yerid.model.financeManager.finance.gateways.FinanceManagerRepository;
 import dev.yerid.mongodb.data.financeManager.*;
 import dev.yerid.mongodb.repository.financeManeger.FinanceManagerAdapterRepository;
 import org.springframework.stereotype.Component;
 import reactor.core.publisher.Mono;
 
+import java.nio.charset.StandardCharsets;
 import java.util.*;
 import java.util.logging.Logger;
 
 @Component
 public class FinanceManagerRepositoryAdapter implements FinanceManagerRepository {
     private static final Logger logger = Logger.getLogger(FinanceManagerRepositoryAdapter.class.getName());
+    private static final List<String> TRACKING_FIELDS = List.of(
+            "userId", "version", "lastSyncTimestamp", "lastVisitedRoute", "sessionId", "dataImportTimestamp",
+            "eliminadosDesde", "itemsSeparados");
 
     private final FinanceManagerAdapterRepository repository;
     private final FinanceManagerDataConverter converter;
-    private final FinanceManagerDataExtractor extractor;
     private final FinanceManagerQueryExecutor queryExecutor;
+    private final FinanceManagerDataExtractor extractor;
+    private final FinanceManagerCache cache;
+    private final FinanceManagerWriteCoalescer writeCoalescer;
+    private final FinanceItemStore itemStore;
+    private final ExpenseBucketStore bucketStore;
 
     public FinanceManagerRepositoryAdapter(
             FinanceManagerAdapterRepository repository,
             FinanceManagerDataConverter converter,
+            FinanceManagerQueryExecutor queryExecutor,
             FinanceManagerDataExtractor extractor,
-            FinanceManagerQueryExecutor queryExecutor) {
+            FinanceManagerCache cache,
+            FinanceManagerWriteCoalescer writeCoalescer,
+            FinanceItemStore itemStore,
+            ExpenseBucketStore bucketStore) {
         this.repository = repository;
         this.converter = converter;
-        this.extractor = extractor;
         this.queryExecutor = queryExecutor;
+        this.extractor = extractor;
+        this.cache = cache;
+        this.writeCoalescer = writeCoalescer;
+        this.itemStore = itemStore;
+        this.bucketStore = bucketStore;
     }
 
     /**
-     * Obtiene el documento financiero del usuario
+     * Obtiene el documento financiero del usuario, desde la caché si está disponible
      */
     @Override
     public Mono<FinanceManager> findByUserId(String userId) {
+        return cache.get(userId, () -> loadByUserId(userId));
+    }
+
+    /**
+     * Igual que findByUserId, pero si la copia en caché es anterior a minVersion se vuelve a leer
+     */
+    @Override
+    public Mono<FinanceManager> findByUserId(String userId, long minVersion) {
+        return cache.get(userId, minVersion, () -> loadByUserId(userId));
+    }
+
+    private Mono<FinanceManager> loadByUserId(String userId) {
         return repository.findByUserId(userId)
+                .flatMap(data -> itemStore.attach(data, FinanceItemStore.ITEM_FIELDS, null))
                 .map(converter::toEntity)
                 .switchIfEmpty(Mono.defer(() -> {
                     // Si no existe, crear un documento vacío
@@ -46,41 +80,177 @@ public class FinanceManagerRepositoryAdapter implements FinanceManagerRepository
     }
 
     /**
-     * Actualiza o crea el documento completo
+     * Obtiene solo la versión del documento, sin leer sus datos. 0 si el usuario aún no tiene documento
+     */
+    @Override
+    public Mono<Long> findVersionByUserId(String userId) {
+        return queryExecutor.findProjected(userId, List.of("version"), null)
+                .map(data -> data.getVersion() != null ? data.getVersion() : 0L)
+                .defaultIfEmpty(0L);
+    }
+
+    /**
+     * Obtiene solo las secciones indicadas, proyectando en Mongo los campos necesarios
+     */
+    @Override
+    public Mono<FinanceManager> findByUserId(String userId, Set<SyncSection> sections) {
+        if (sections.containsAll(SyncSection.ALL)) {
+            return findByUserId(userId);
+        }
+
+        return queryExecutor.findProjected(userId, projectedFields(sections), null)
+                .flatMap(data -> itemStore.attach(data, itemFields(sections), null))
+                .map(converter::toEntity)
+                .defaultIfEmpty(FinanceManager.builder().userId(userId).build());
+    }
+
+    /**
+     * Obtiene solo los elementos modificados o eliminados después de since.
+     * Si el documento no cambió desde entonces, devuelve un FinanceManager sin elementos
+     */
+    @Override
+    public Mono<FinanceManager> findChangesSince(String userId, long since) {
+        return repository.findByUserIdAndUpdatedSince(userId, since)
+                .flatMap(data -> itemStore.attach(data, FinanceItemStore.ITEM_FIELDS, since))
+                .map(data -> converter.toEntity(data, since))
+                .defaultIfEmpty(FinanceManager.builder()
+                        .userId(userId)
+                        .lastSyncTimestamp(since)
+                        .build());
+    }
+
+    /**
+     * Obtiene los cambios posteriores a since limitados a las secciones indicadas
      */
     @Override
-    public Mono<Void> batchUpdate(String userId, Map<String, Object> data, Map<String, Object> eliminados) {
-        return repository.existsByUserId(userId)
-                .flatMap(exists -> {
-                    if (exists) {
-                        // Si existe, hacer un update parcial
-                        return updateDocumentPartially(userId, data, eliminados);
-                    } else {
-                        // Si no existe, crear nuevo documento
-                        return createNewDocument(userId, data, eliminados);
-                    }
-                });
+    public Mono<FinanceManager> findChangesSince(String userId, long since, Set<SyncSection> sections) {
+        if (sections.containsAll(SyncSection.ALL)) {
+            return findChangesSince(userId, since);
+        }
+
+        return queryExecutor.findProjected(userId, projectedFields(sections), since)
+                .flatMap(data -> itemStore.attach(data, itemFields(sections), since))
+                .map(data -> converter.toEntity(data, since))
+                .defaultIfEmpty(FinanceManager.builder()
+                        .userId(userId)
+                        .lastSyncTimestamp(since)
+                        .build());
+    }
+
+    /**
+     * Obtiene una página de gastos ordenada por fecha descendente, opcionalmente limitada al rango
+     * [desde, hasta]. El cursor codifica la posición del último gasto entregado y la marca del
+     * documento al leer la primera página. Con elementos separados solo se leen los meses del rango
+     */
+    @Override
+    public Mono<ExpensesPage> findExpensesPage(String userId, String cursor, Long desde, Long hasta, int limit) {
+        PageCursor after;
+        try {
+            after = cursor != null && !cursor.isBlank() ? PageCursor.decode(cursor) : null;
+        } catch (IllegalArgumentException e) {
+            return Mono.error(e);
+        }
+
+        Long afterFecha = after != null ? after.fecha() : null;
+        String afterKey = after != null ? after.key() : null;
+
+        // Se pide un gasto más para saber si hay otra página
+        return queryExecutor.findProjected(userId, List.of("itemsSeparados", "lastSyncTimestamp"), null)
+                .flatMap(data -> (FinanceItemStore.isSplit(data)
+                        ? bucketStore.findExpensesPage(userId, afterFecha, afterKey, desde, hasta, limit + 1)
+                        : queryExecutor.findExpensesPage(userId, afterFecha, afterKey, desde, hasta, limit + 1))
+                        .collectList()
+                        .map(rows -> toPage(userId, rows, after != null ? after.lastSync() : data.getLastSyncTimestamp(), limit)))
+                .defaultIfEmpty(ExpensesPage.builder().gastos(List.of()).build());
+    }
+
+    private ExpensesPage toPage(String userId, List<ExpenseRow> rows, Long lastSync, int limit) {
+        List<Expenses> gastos = new ArrayList<>();
+        ExpenseRow last = null;
+
+        for (ExpenseRow row : rows) {
+            if (gastos.size() == limit) {
+                break;
+            }
+            gastos.add(converter.toExpenses(row.gasto(), userId));
+            last = row;
+        }
+
+        String next = rows.size() > limit && last != null
+                ? new PageCursor(lastSync, last.fecha(), last.key()).encode()
+                : null;
+
+        return ExpensesPage.builder()
+                .gastos(gastos)
+                .cursor(next)
+                .lastSyncTimestamp(lastSync)
+                .build();
+    }
+
+    /**
+     * Posición de paginación: marca del documento en la primera página, fecha e id del último gasto
+     */
+    private record PageCursor(Long lastSync, long fecha, String key) {
+
+        String encode() {
+            String raw = (lastSync != null ? lastSync : 0L) + ":" + fecha + ":" + key;
+            return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+        }
+
+        static PageCursor decode(String cursor) {
+            try {
+                String raw = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+                String[] parts = raw.split(":", 3);
+                return new PageCursor(Long.parseLong(parts[0]), Long.parseLong(parts[1]), parts[2]);
+            } catch (IllegalArgumentException | ArrayIndexOutOfBoundsException e) {
+                throw new IllegalArgumentException("Cursor de paginación inválido");
+            }
+        }
+    }
+
+    /**
+     * Campos de elementos de las secciones indicadas
+     */
+    private List<String> itemFields(Set<SyncSection> sections) {
+        return sections.stream()
+                .filter(SyncSection::hasItems)
+                .map(SyncSection::getField)
+                .toList();
     }
 
     /**
-     * Crea un nuevo documento para el usuario
+     * Campos del documento necesarios para las secciones: los datos de seguimiento,
+     * el mapa de cada sección y sus eliminados
      */
-    private Mono<Void> createNewDocument(String userId, Map<String, Object> data, Map<String, Object> eliminados) {
-        FinanceManagerData document = extractor.prepareDocument(userId, data, eliminados);
+    private List<String> projectedFields(Set<SyncSection> sections) {
+        List<String> fields = new ArrayList<>(TRACKING_FIELDS);
+        for (SyncSection section : sections) {
+            fields.add(section.getField());
+            if (section.hasItems()) {
+                fields.add("eliminados." + section.getField());
+                fields.add("fechasEliminacion." + section.getField());
+            }
+        }
+        return fields;
+    }
 
-        return repository.save(document)
-                .doOnSuccess(savedDoc -> logger.info("Documento creado exitosamente para usuario: " + userId))
-                .doOnError(e -> logger.severe("Error al crear documento para usuario: " + userId + " - " + e.getMessage()))
-                .then();
+    /**
+     * Actualiza o crea el documento en una sola operación y devuelve la nueva versión y los rechazados
+     */
+    @Override
+    public Mono<SyncResult> batchUpdate(String userId, Map<String, Object> data, Map<String, Object> eliminados) {
+        return batchUpdate(userId, extractor.toChanges(data, eliminados));
     }
 
     /**
-     * Actualiza partes específicas del documento sin reemplazar todo
+     * Actualiza o crea el documento a partir de cambios ya tipados y devuelve la nueva versión y los rechazados.
+     * Las subidas concurrentes del mismo usuario se combinan en una sola escritura
      */
-    private Mono<Void> updateDocumentPartially(String userId, Map<String, Object> data, Map<String, Object> eliminados) {
-        return queryExecutor.updateDocument(userId, data, eliminados)
-                .doOnSuccess(result -> logger.info("Documento actualizado parcialmente para usuario: " + userId))
-                .doOnError(e -> logger.severe("Error al actualizar documento para usuario: " + userId + " - " + e.getMessage()))
-                .then();
+    @Override
+    public Mono<SyncResult> batchUpdate(String userId, SyncChanges changes) {
+        return writeCoalescer.submit(userId, extractor.normalize(changes), merged ->
+                queryExecutor.upsertDocument(userId, merged)
+                        // También ante error: una escritura parcial deja la copia en caché desactualizada
+                        .doFinally(signal -> cache.invalidate(userId)));
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,71 @@
+package dev.yerid.mongodb.adapter.financeManegerAdapters;
+
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.logging.Logger;
+
+/**
+ * Tarea en segundo plano que descarta las fechas de eliminación más antiguas que el horizonte
+ * configurado. Los clientes que descargan con un since anterior al horizonte reciben la descarga
+ * completa, por lo que no pierden eliminaciones ya compactadas
+ */
+@Component
+public class FinanceManagerTombstoneCompactor implements InitializingBean, DisposableBean {
+    private static final Logger logger = Logger.getLogger(FinanceManagerTombstoneCompactor.class.getName());
+
+    private final FinanceManagerQueryExecutor queryExecutor;
+    private final FinanceManagerCache cache;
+    private final Duration horizon;
+    private final Duration interval;
+    private Disposable task;
+
+    public FinanceManagerTombstoneCompactor(
+            FinanceManagerQueryExecutor queryExecutor,
+            FinanceManagerCache cache,
+            @Value("${finance.tombstones.horizon:90d}") Duration horizon,
+            @Value("${finance.tombstones.compaction-interval:1d}") Duration interval) {
+        this.queryExecutor = queryExecutor;
+        this.cache = cache;
+        this.horizon = horizon;
+        this.interval = interval;
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        task = Flux.interval(Duration.ofMinutes(1), interval)
+                .concatMap(tick -> compact()
+                        .onErrorResume(e -> Mono.empty()))
+                .subscribe();
+    }
+
+    @Override
+    public void destroy() {
+        if (task != null) {
+            task.dispose();
+        }
+    }
+
+    /**
+     * Compacta los documentos con fechas de eliminación anteriores al horizonte o en el formato anterior
+     */
+    public Mono<Long> compact() {
+        long now = System.currentTimeMillis();
+        long cutoff = now - horizon.toMillis();
+
+        return queryExecutor.compactDeletions(cutoff, now)
+                .map(result -> result.getModifiedCount())
+                .doOnNext(modified -> {
+                    if (modified > 0) {
+                        cache.invalidateAll();
+                        logger.info("Elementos eliminados compactados en " + modified + " documentos (horizonte: " + horizon + ")");
+                    }
+                });
+    }
+}
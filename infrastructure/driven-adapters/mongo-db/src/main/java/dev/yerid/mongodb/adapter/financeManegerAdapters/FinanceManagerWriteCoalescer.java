@@ -0,0 +1,300 @@
+package dev.yerid.mongodb.adapter.financeManegerAdapters;
+
+import dev.yerid.model.financeManager.categories.Categories;
+import dev.yerid.model.financeManager.expenses.Expenses;
+import dev.yerid.model.financeManager.extraincome.ExtraIncome;
+import dev.yerid.model.financeManager.finance.FinanceManager;
+import dev.yerid.model.financeManager.finance.SyncChanges;
+import dev.yerid.model.financeManager.finance.SyncResult;
+import dev.yerid.model.financeManager.finance.SyncSection;
+import dev.yerid.model.financeManager.reminder.Reminder;
+import dev.yerid.model.financeManager.savingsgoal.SavingsGoal;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+import java.util.logging.Logger;
+
+/**
+ * Cola de escritura por usuario delante del upsert del documento financiero.
+ * Solo hay una escritura en curso por usuario en esta instancia; las subidas que llegan mientras
+ * tanto se combinan en un único SyncChanges (el último valor gana salvo que el pendiente tenga una
+ * versión mayor; en ese caso el elemento más viejo se rechaza para quien lo envió).
+ * Una subida que elimina un elemento editado en el lote pendiente, o edita uno eliminado en él, no se
+ * combina: abre un lote nuevo detrás, para que el extractor decida entre ambos con la versión y las
+ * marcas de eliminación guardadas. Cada subida recibe el resultado de su escritura con solo sus
+ * propios rechazados. Los cambios deben llegar normalizados (con id)
+ */
+@Component
+public class FinanceManagerWriteCoalescer {
+    private static final Logger logger = Logger.getLogger(FinanceManagerWriteCoalescer.class.getName());
+
+    private final Map<String, UserQueue> queues = new ConcurrentHashMap<>();
+    private final Counter coalescedCounter;
+    private final Counter writesCounter;
+
+    public FinanceManagerWriteCoalescer(MeterRegistry meterRegistry) {
+        this.coalescedCounter = meterRegistry.counter("sync.writes.coalesced");
+        this.writesCounter = meterRegistry.counter("sync.writes.executed");
+    }
+
+    /**
+     * Encola los cambios del usuario y devuelve el resultado de la escritura que los incluye
+     */
+    public Mono<SyncResult> submit(String userId, SyncChanges changes, Function<SyncChanges, Mono<SyncResult>> writer) {
+        return Mono.defer(() -> {
+            while (true) {
+                UserQueue queue = queues.computeIfAbsent(userId, key -> new UserQueue());
+                Sinks.One<SyncResult> result;
+                boolean start;
+
+                synchronized (queue) {
+                    // La cola ya se vació y se retiró del mapa: tomar una nueva
+                    if (queue.closed) {
+                        continue;
+                    }
+
+                    PendingChanges batch = queue.pending.peekLast();
+                    if (batch == null || batch.conflicts(changes)) {
+                        batch = new PendingChanges();
+                        queue.pending.addLast(batch);
+                    } else {
+                        coalescedCounter.increment();
+                    }
+                    result = batch.add(changes);
+
+                    start = !queue.writing;
+                    queue.writing = true;
+                }
+
+                if (start) {
+                    drain(userId, queue, writer);
+                }
+                return result.asMono();
+            }
+        });
+    }
+
+    /**
+     * Ejecuta la escritura pendiente del usuario y, al terminar, la siguiente si se acumuló otra
+     */
+    private void drain(String userId, UserQueue queue, Function<SyncChanges, Mono<SyncResult>> writer) {
+        PendingChanges batch;
+
+        synchronized (queue) {
+            batch = queue.pending.pollFirst();
+            if (batch == null) {
+                queue.writing = false;
+                queue.closed = true;
+                queues.remove(userId, queue);
+                return;
+            }
+        }
+
+        if (batch.waiters.size() > 1) {
+            logger.fine("Escritura combinada de " + batch.waiters.size() + " subidas para usuario: " + userId);
+        }
+        writesCounter.increment();
+
+        Mono.defer(() -> writer.apply(batch.toChanges()))
+                .doFinally(signal -> drain(userId, queue, writer))
+                .subscribe(
+                        written -> batch.waiters.forEach(waiter -> waiter.result.tryEmitValue(waiter.resultOf(written))),
+                        error -> batch.waiters.forEach(waiter -> waiter.result.tryEmitError(error)),
+                        () -> batch.waiters.forEach(waiter -> waiter.result.tryEmitEmpty()));
+    }
+
+    private static final class UserQueue {
+        // Lotes en orden: solo el último acepta subidas nuevas
+        private final Deque<PendingChanges> pending = new ArrayDeque<>();
+        private boolean writing;
+        private boolean closed;
+    }
+
+    /**
+     * Una subida dentro de un lote: los ids que envió y los que se descartaron por llegar con una
+     * versión menor que la pendiente, ambos por clave del cliente
+     */
+    private static final class Waiter {
+        private final Sinks.One<SyncResult> result = Sinks.one();
+        private final Map<String, Set<String>> sent = new HashMap<>();
+        private final Map<String, Set<String>> dropped = new LinkedHashMap<>();
+
+        /**
+         * Resultado de la escritura con solo los rechazos de los elementos de esta subida
+         */
+        SyncResult resultOf(SyncResult written) {
+            if (written.getRechazados() == null && dropped.isEmpty()) {
+                return written;
+            }
+
+            Map<String, List<String>> own = new LinkedHashMap<>();
+            if (written.getRechazados() != null) {
+                written.getRechazados().forEach((key, ids) -> {
+                    Set<String> mine = sent.getOrDefault(key, Set.of());
+                    ids.stream().filter(mine::contains)
+                            .forEach(id -> own.computeIfAbsent(key, k -> new ArrayList<>()).add(id));
+                });
+            }
+            dropped.forEach((key, ids) -> {
+                List<String> list = own.computeIfAbsent(key, k -> new ArrayList<>());
+                ids.stream().filter(id -> !list.contains(id)).forEach(list::add);
+            });
+            return written.toBuilder().rechazados(own).build();
+        }
+    }
+
+    /**
+     * Cambios acumulados de varias subidas, en orden de llegada
+     */
+    private static final class PendingChanges {
+        private final SyncChanges scalars = new SyncChanges();
+        private final Section<Expenses> gastos = new Section<>(SyncSection.GASTOS, Expenses::getId, Expenses::getVersion);
+        private final Section<Categories> categorias = new Section<>(SyncSection.CATEGORIAS, Categories::getId, Categories::getVersion);
+        private final Section<SavingsGoal> metasAhorro = new Section<>(SyncSection.METAS_AHORRO, SavingsGoal::getId, SavingsGoal::getVersion);
+        private final Section<Reminder> recordatorios = new Section<>(SyncSection.RECORDATORIOS, Reminder::getId, Reminder::getVersion);
+        private final Section<ExtraIncome> ingresosExtra = new Section<>(SyncSection.INGRESOS_EXTRA, ExtraIncome::getId, ExtraIncome::getVersion);
+        private final List<Waiter> waiters = new ArrayList<>();
+
+        /**
+         * Indica si la subida elimina un elemento editado en el lote o edita uno eliminado en él
+         */
+        boolean conflicts(SyncChanges changes) {
+            FinanceManager.EliminadosInfo eliminados = changes.getEliminados();
+            boolean hasEliminados = eliminados != null;
+            return gastos.conflicts(changes.getGastos(), hasEliminados ? eliminados.getGastos() : null)
+                    || categorias.conflicts(changes.getCategorias(), hasEliminados ? eliminados.getCategorias() : null)
+                    || metasAhorro.conflicts(changes.getMetasAhorro(), hasEliminados ? eliminados.getMetasAhorro() : null)
+                    || recordatorios.conflicts(changes.getRecordatorios(), hasEliminados ? eliminados.getRecordatorios() : null)
+                    || ingresosExtra.conflicts(changes.getIngresosExtra(), hasEliminados ? eliminados.getIngresosExtra() : null);
+        }
+
+        Sinks.One<SyncResult> add(SyncChanges changes) {
+            Waiter waiter = new Waiter();
+            waiters.add(waiter);
+
+            if (changes.getPresupuesto() != null) scalars.setPresupuesto(changes.getPresupuesto());
+            if (changes.getLastVisitedRoute() != null) scalars.setLastVisitedRoute(changes.getLastVisitedRoute());
+            if (changes.getSessionId() != null) scalars.setSessionId(changes.getSessionId());
+            if (changes.getDataImportTimestamp() != null) scalars.setDataImportTimestamp(changes.getDataImportTimestamp());
+
+            FinanceManager.EliminadosInfo eliminados = changes.getEliminados();
+            boolean hasEliminados = eliminados != null;
+            gastos.add(changes.getGastos(), hasEliminados ? eliminados.getGastos() : null, waiter);
+            categorias.add(changes.getCategorias(), hasEliminados ? eliminados.getCategorias() : null, waiter);
+            metasAhorro.add(changes.getMetasAhorro(), hasEliminados ? eliminados.getMetasAhorro() : null, waiter);
+            recordatorios.add(changes.getRecordatorios(), hasEliminados ? eliminados.getRecordatorios() : null, waiter);
+            ingresosExtra.add(changes.getIngresosExtra(), hasEliminados ? eliminados.getIngresosExtra() : null, waiter);
+            return waiter.result;
+        }
+
+        SyncChanges toChanges() {
+            SyncChanges merged = scalars.toBuilder()
+                    .gastos(gastos.items())
+                    .categorias(categorias.items())
+                    .metasAhorro(metasAhorro.items())
+                    .recordatorios(recordatorios.items())
+                    .ingresosExtra(ingresosExtra.items())
+                    .build();
+
+            if (gastos.deletedSent || categorias.deletedSent || metasAhorro.deletedSent
+                    || recordatorios.deletedSent || ingresosExtra.deletedSent) {
+                merged.setEliminados(FinanceManager.EliminadosInfo.builder()
+                        .gastos(gastos.deleted())
+                        .categorias(categorias.deleted())
+                        .metasAhorro(metasAhorro.deleted())
+                        .recordatorios(recordatorios.deleted())
+                        .ingresosExtra(ingresosExtra.deleted())
+                        .build());
+            }
+            return merged;
+        }
+    }
+
+    /**
+     * Elementos y eliminaciones acumulados de una sección, por id. Un id solo aparece en ambos si la
+     * misma subida lo edita y lo elimina; el extractor resuelve ese caso
+     */
+    private static final class Section<T> {
+        private final SyncSection section;
+        private final Function<T, String> idOf;
+        private final Function<T, Long> versionOf;
+        private final Map<String, T> items = new LinkedHashMap<>();
+        private final Set<String> deleted = new LinkedHashSet<>();
+        private boolean itemsSent;
+        private boolean deletedSent;
+
+        Section(SyncSection section, Function<T, String> idOf, Function<T, Long> versionOf) {
+            this.section = section;
+            this.idOf = idOf;
+            this.versionOf = versionOf;
+        }
+
+        boolean conflicts(List<T> nextItems, List<String> nextDeleted) {
+            if (nextItems != null) {
+                for (T item : nextItems) {
+                    if (deleted.contains(idOf.apply(item))) {
+                        return true;
+                    }
+                }
+            }
+            if (nextDeleted != null) {
+                for (String id : nextDeleted) {
+                    if (items.containsKey(id)) {
+                        return true;
+                    }
+                }
+            }
+            return false;
+        }
+
+        void add(List<T> nextItems, List<String> nextDeleted, Waiter waiter) {
+            String key = section.getClientKey();
+            if (nextItems != null) {
+                itemsSent = true;
+                for (T item : nextItems) {
+                    String id = idOf.apply(item);
+                    waiter.sent.computeIfAbsent(key, k -> new HashSet<>()).add(id);
+                    T pending = items.get(id);
+                    if (pending != null && isOlder(item, pending)) {
+                        waiter.dropped.computeIfAbsent(key, k -> new LinkedHashSet<>()).add(id);
+                        continue;
+                    }
+                    items.put(id, item);
+                }
+            }
+            if (nextDeleted != null) {
+                deletedSent = true;
+                deleted.addAll(nextDeleted);
+            }
+        }
+
+        private boolean isOlder(T item, T pending) {
+            Long version = versionOf.apply(item);
+            Long pendingVersion = versionOf.apply(pending);
+            return version != null && pendingVersion != null && version < pendingVersion;
+        }
+
+        List<T> items() {
+            return itemsSent ? new ArrayList<>(items.values()) : null;
+        }
+
+        List<String> deleted() {
+            return deletedSent ? new ArrayList<>(deleted) : null;
+        }
+    }
+}
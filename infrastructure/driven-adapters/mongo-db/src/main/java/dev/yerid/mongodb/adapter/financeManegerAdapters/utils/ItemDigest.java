@@ -0,0 +1,38 @@
+package dev.yerid.mongodb.adapter.financeManegerAdapters.utils;
+
+import dev.yerid.mongodb.data.financeManager.SyncItemData;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Huella de 64 bits (FNV-1a) del contenido de un elemento financiero.
+ * Se calcula sobre los campos de contenido en orden, con un separador entre campos y una marca
+ * distinta para null, de modo que ("a", "bc") y ("ab", "c") o null y "null" no coincidan
+ */
+public final class ItemDigest {
+    private static final long OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long PRIME = 0x100000001b3L;
+
+    private ItemDigest() {
+    }
+
+    public static long of(SyncItemData item) {
+        long hash = OFFSET_BASIS;
+        for (Object field : item.contentFields()) {
+            if (field == null) {
+                hash = mix(hash, (byte) 0x00);
+            } else {
+                hash = mix(hash, (byte) 0x01);
+                for (byte b : field.toString().getBytes(StandardCharsets.UTF_8)) {
+                    hash = mix(hash, b);
+                }
+            }
+            hash = mix(hash, (byte) 0x1f);
+        }
+        return hash;
+    }
+
+    private static long mix(long hash, byte b) {
+        return (hash ^ (b & 0xff)) * PRIME;
+    }
+}
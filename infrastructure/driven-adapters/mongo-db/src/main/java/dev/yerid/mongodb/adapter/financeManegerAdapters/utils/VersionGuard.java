@@ -0,0 +1,54 @@
+package dev.yerid.mongodb.adapter.financeManegerAdapters.utils;
+
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.bulk.BulkWriteError;
+import org.springframework.data.mongodb.BulkOperationException;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+
+import java.util.List;
+
+/**
+ * Condición de versión para escribir elementos con upsert: solo se reemplaza un elemento guardado
+ * con versión menor o sin versión. Si hay uno más nuevo el filtro no coincide y el upsert intenta
+ * insertar un _id existente, por lo que la operación falla con clave duplicada y el elemento no cambia
+ */
+public final class VersionGuard {
+    private static final int DUPLICATE_KEY = 11000;
+
+    private VersionGuard() {
+    }
+
+    /**
+     * Agrega a query la condición sobre la ruta de la versión del elemento (por ejemplo "item.version");
+     * sin versión se deja la consulta como está
+     */
+    public static Query olderThan(Query query, String versionPath, Long version) {
+        if (version != null) {
+            query.addCriteria(new Criteria().orOperator(
+                    Criteria.where(versionPath).lt(version),
+                    Criteria.where(versionPath).exists(false)));
+        }
+        return query;
+    }
+
+    /**
+     * Indica si el error de un bulkWrite sin orden se debe solo a escrituras descartadas por la condición
+     * de versión; las demás operaciones del lote se aplicaron
+     */
+    public static boolean onlyStaleWrites(Throwable error) {
+        for (Throwable cause = error; cause != null; cause = cause.getCause()) {
+            List<BulkWriteError> errors = null;
+            if (cause instanceof MongoBulkWriteException bulkException && bulkException.getWriteConcernError() == null) {
+                errors = bulkException.getWriteErrors();
+            } else if (cause instanceof BulkOperationException bulkException) {
+                errors = bulkException.getErrors();
+            }
+
+            if (errors != null) {
+                return !errors.isEmpty() && errors.stream().allMatch(writeError -> writeError.getCode() == DUPLICATE_KEY);
+            }
+        }
+        return false;
+    }
+}
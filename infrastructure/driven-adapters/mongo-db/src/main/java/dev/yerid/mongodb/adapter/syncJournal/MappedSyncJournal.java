@@ -0,0 +1,554 @@
+package dev.yerid.mongodb.adapter.syncJournal;
+
+import dev.yerid.model.financeManager.categories.Categories;
+import dev.yerid.model.financeManager.expenses.Expenses;
+import dev.yerid.model.financeManager.extraincome.ExtraIncome;
+import dev.yerid.model.financeManager.finance.FinanceManager;
+import dev.yerid.model.financeManager.finance.SyncChanges;
+import dev.yerid.model.financeManager.finance.SyncJournalEntry;
+import dev.yerid.model.financeManager.finance.gateways.SyncJournal;
+import dev.yerid.model.financeManager.reminder.Reminder;
+import dev.yerid.model.financeManager.savingsgoal.SavingsGoal;
+import dev.yerid.mongodb.adapter.financeManegerAdapters.FinanceManagerDataConverter;
+import dev.yerid.mongodb.adapter.financeManegerAdapters.FinanceManagerDataExtractor;
+import dev.yerid.mongodb.data.financeManager.FinanceManagerData;
+import dev.yerid.mongodb.data.syncJournal.SyncJournalRecordData;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.bson.ByteBuf;
+import org.bson.Document;
+import org.bson.RawBsonDocument;
+import org.bson.codecs.DocumentCodec;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.core.convert.MongoConverter;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.logging.Logger;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+
+/**
+ * Diario local de sincronización en archivos mapeados en memoria, de solo anexado.
+ * Cada subida se guarda como un registro [longitud][CRC32C][secuencia][BSON] y se fuerza a disco
+ * antes de confirmarla; el force se hace fuera del lock de escritura y cubre todo lo escrito hasta
+ * ese momento, así que las subidas concurrentes comparten una sola sincronización con el disco.
+ * Solo se leen para aplicar los registros ya forzados. Los registros se reparten en segmentos de tamaño
+ * fijo; un segmento se borra cuando todas sus subidas quedaron aplicadas en la base de datos, y la
+ * última secuencia aplicada se guarda en el archivo checkpoint.
+ * Al arrancar se recorren los segmentos y se descarta lo que siga al primer registro incompleto o
+ * con CRC inválido (una escritura interrumpida por una caída). Las subidas que no se pueden aplicar
+ * se apartan en el archivo dead-letter.log, con el mismo formato de registro
+ */
+@Component
+public class MappedSyncJournal implements SyncJournal, InitializingBean, DisposableBean {
+    private static final Logger logger = Logger.getLogger(MappedSyncJournal.class.getName());
+
+    // Longitud del BSON (int), CRC32C de secuencia y BSON (int) y secuencia (long)
+    private static final int HEADER_BYTES = 16;
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final String CHECKPOINT_FILE = "checkpoint";
+    private static final String DEAD_LETTER_FILE = "dead-letter.log";
+    private static final DocumentCodec CODEC = new DocumentCodec();
+
+    private final MongoConverter mongoConverter;
+    private final FinanceManagerDataExtractor extractor;
+    private final FinanceManagerDataConverter converter;
+    private final boolean enabled;
+    private final Path directory;
+    private final int segmentSize;
+    private final Counter appendedCounter;
+
+    // Estado protegido por lock: segmentos en orden de secuencia y posición de la última lectura
+    private final Object lock = new Object();
+    private final List<Segment> segments = new ArrayList<>();
+    private ReadPosition readPosition;
+    private long nextSequence = 1;
+    private FileChannel checkpointChannel;
+    private volatile long applied;
+
+    // Confirmación en grupo: quien toma forceLock fuerza todo lo escrito y avanza durableSequence
+    private final Object forceLock = new Object();
+    private volatile long durableSequence;
+    private final Object deadLetterLock = new Object();
+
+    public MappedSyncJournal(
+            ReactiveMongoTemplate mongoTemplate,
+            FinanceManagerDataExtractor extractor,
+            FinanceManagerDataConverter converter,
+            MeterRegistry meterRegistry,
+            @Value("${sync.journal.enabled:false}") boolean enabled,
+            @Value("${sync.journal.directory:./data/sync-journal}") String directory,
+            @Value("${sync.journal.segment-size:67108864}") int segmentSize) {
+        this.mongoConverter = mongoTemplate.getConverter();
+        this.extractor = extractor;
+        this.converter = converter;
+        this.enabled = enabled;
+        this.directory = Path.of(directory);
+        this.segmentSize = segmentSize;
+        this.appendedCounter = meterRegistry.counter("sync.journal.appended");
+        meterRegistry.gauge("sync.journal.pending", this, journal -> Math.max(0, journal.nextSequence - 1 - journal.applied));
+    }
+
+    @Override
+    public void afterPropertiesSet() throws IOException {
+        if (!enabled) {
+            return;
+        }
+
+        Files.createDirectories(directory);
+        checkpointChannel = FileChannel.open(directory.resolve(CHECKPOINT_FILE),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        applied = readCheckpoint();
+
+        long last = applied;
+        try (Stream<Path> files = Files.list(directory)) {
+            List<Path> paths = files
+                    .filter(path -> path.getFileName().toString().startsWith(SEGMENT_PREFIX))
+                    .sorted(Comparator.comparingLong(MappedSyncJournal::firstSequenceOf))
+                    .toList();
+            for (Path path : paths) {
+                Segment segment = open(path, firstSequenceOf(path));
+                recover(segment);
+                segments.add(segment);
+                last = Math.max(last, segment.lastSequence);
+            }
+        }
+
+        nextSequence = last + 1;
+        durableSequence = last;
+        if (segments.isEmpty()) {
+            segments.add(open(segmentPath(nextSequence), nextSequence));
+        }
+        logger.info("Diario de sincronización en " + directory.toAbsolutePath() + ": "
+                + (nextSequence - 1 - applied) + " subidas pendientes de aplicar");
+    }
+
+    @Override
+    public void destroy() throws IOException {
+        synchronized (lock) {
+            for (Segment segment : segments) {
+                segment.channel.close();
+            }
+            segments.clear();
+            if (checkpointChannel != null) {
+                checkpointChannel.close();
+            }
+        }
+    }
+
+    @Override
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    @Override
+    public Mono<Long> append(String userId, SyncChanges changes, long timestamp) {
+        if (!enabled) {
+            return Mono.error(new IllegalStateException("El diario de sincronización no está activo"));
+        }
+
+        // Los ids se asignan aquí para que reaplicar una subida no duplique elementos
+        return Mono.fromCallable(() -> write(encode(toRecord(userId, extractor.normalize(changes), timestamp))))
+                .subscribeOn(Schedulers.boundedElastic())
+                .doOnNext(sequence -> appendedCounter.increment());
+    }
+
+    @Override
+    public Mono<Long> append(String userId, Map<String, Object> data, Map<String, Object> eliminados, long timestamp) {
+        return Mono.defer(() -> append(userId, extractor.toChanges(data, eliminados), timestamp));
+    }
+
+    @Override
+    public Mono<List<SyncJournalEntry>> readAfter(long sequence, int max) {
+        if (!enabled) {
+            return Mono.just(List.of());
+        }
+
+        return Mono.fromCallable(() -> read(sequence, max))
+                .subscribeOn(Schedulers.boundedElastic())
+                .map(records -> records.stream().map(this::toEntry).toList());
+    }
+
+    @Override
+    public Mono<Long> lastApplied() {
+        return Mono.just(applied);
+    }
+
+    /**
+     * Aparta una subida que no se pudo aplicar, para revisarla o reaplicarla a mano
+     */
+    @Override
+    public Mono<Void> deadLetter(SyncJournalEntry entry, String reason) {
+        if (!enabled) {
+            return Mono.empty();
+        }
+
+        return Mono.fromRunnable(() -> writeDeadLetter(entry, reason))
+                .subscribeOn(Schedulers.boundedElastic())
+                .then();
+    }
+
+    @Override
+    public Mono<Void> markApplied(long sequence) {
+        if (!enabled) {
+            return Mono.empty();
+        }
+
+        return Mono.fromRunnable(() -> checkpoint(sequence))
+                .subscribeOn(Schedulers.boundedElastic())
+                .then();
+    }
+
+    private long write(byte[] payload) throws IOException {
+        int size = HEADER_BYTES + payload.length;
+        if (size > segmentSize) {
+            throw new IllegalArgumentException("La subida (" + size + " bytes) supera el tamaño de segmento del diario");
+        }
+
+        long sequence;
+        synchronized (lock) {
+            sequence = nextSequence;
+            Segment segment = segments.get(segments.size() - 1);
+            if (segment.writePosition + size > segmentSize) {
+                segment = open(segmentPath(sequence), sequence);
+                segments.add(segment);
+            }
+
+            // La longitud se escribe al final: un registro sin longitud o con CRC inválido se descarta al recuperar
+            int position = segment.writePosition;
+            MappedByteBuffer buffer = segment.buffer;
+            buffer.putLong(position + 8, sequence);
+            buffer.put(position + HEADER_BYTES, payload);
+            buffer.putInt(position + 4, crc(buffer, position + 8, payload.length + 8));
+            buffer.putInt(position, payload.length);
+
+            segment.writePosition = position + size;
+            segment.lastSequence = sequence;
+            nextSequence = sequence + 1;
+        }
+
+        awaitDurable(sequence);
+        return sequence;
+    }
+
+    /**
+     * Espera a que la secuencia quede en disco. Si otra escritura ya la cubrió no hace nada; si no,
+     * fuerza los rangos escritos de todos los segmentos hasta la última secuencia asignada
+     */
+    private void awaitDurable(long sequence) {
+        synchronized (forceLock) {
+            if (durableSequence >= sequence) {
+                return;
+            }
+
+            long target;
+            List<PendingRange> pending = new ArrayList<>();
+            synchronized (lock) {
+                target = nextSequence - 1;
+                for (Segment segment : segments) {
+                    if (segment.writePosition > segment.durablePosition) {
+                        pending.add(new PendingRange(segment, segment.durablePosition, segment.writePosition));
+                    }
+                }
+            }
+
+            for (PendingRange range : pending) {
+                range.segment().buffer.force(range.from(), range.to() - range.from());
+                range.segment().durablePosition = range.to();
+            }
+            durableSequence = target;
+        }
+    }
+
+    private void writeDeadLetter(SyncJournalEntry entry, String reason) {
+        byte[] payload = encode(toRecord(entry.getUserId(), entry.getChanges(), entry.getTimestamp()));
+        ByteBuffer record = ByteBuffer.allocate(HEADER_BYTES + payload.length);
+        record.putInt(0, payload.length);
+        record.putLong(8, entry.getSequence());
+        record.put(HEADER_BYTES, payload);
+        record.putInt(4, crc(record, 8, payload.length + 8));
+
+        synchronized (deadLetterLock) {
+            try (FileChannel channel = FileChannel.open(directory.resolve(DEAD_LETTER_FILE),
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+                while (record.hasRemaining()) {
+                    channel.write(record);
+                }
+                channel.force(false);
+            } catch (IOException e) {
+                throw new IllegalStateException("No se pudo apartar la subida " + entry.getSequence() + " del diario", e);
+            }
+        }
+        logger.warning("Subida apartada en " + DEAD_LETTER_FILE + " (secuencia " + entry.getSequence()
+                + ", usuario " + entry.getUserId() + "): " + reason);
+    }
+
+    private List<StoredRecord> read(long sequence, int max) {
+        List<StoredRecord> records = new ArrayList<>();
+
+        synchronized (lock) {
+            int index = 0;
+            int position = 0;
+            if (readPosition != null && readPosition.sequence == sequence && segments.contains(readPosition.segment)) {
+                index = segments.indexOf(readPosition.segment);
+                position = readPosition.offset;
+            } else {
+                for (int i = 0; i < segments.size(); i++) {
+                    if (segments.get(i).firstSequence <= sequence + 1) {
+                        index = i;
+                    }
+                }
+            }
+
+            long last = sequence;
+            Segment segment = null;
+            for (; index < segments.size() && records.size() < max; index++, position = 0) {
+                segment = segments.get(index);
+                while (position < segment.durablePosition && records.size() < max) {
+                    int length = segment.buffer.getInt(position);
+                    long recordSequence = segment.buffer.getLong(position + 8);
+                    if (recordSequence > sequence) {
+                        byte[] payload = new byte[length];
+                        segment.buffer.get(position + HEADER_BYTES, payload);
+                        records.add(new StoredRecord(recordSequence, payload));
+                        last = recordSequence;
+                    }
+                    position += HEADER_BYTES + length;
+                }
+                if (records.size() == max) {
+                    break;
+                }
+            }
+
+            if (segment != null && !records.isEmpty()) {
+                readPosition = new ReadPosition(last, segment, position);
+            }
+        }
+
+        return records;
+    }
+
+    private void checkpoint(long sequence) {
+        synchronized (lock) {
+            if (sequence <= applied) {
+                return;
+            }
+
+            try {
+                checkpointChannel.write(ByteBuffer.allocate(Long.BYTES).putLong(0, sequence), 0);
+                checkpointChannel.force(false);
+                applied = sequence;
+
+                // Se borran los segmentos anteriores al actual cuyas subidas ya se aplicaron todas
+                while (segments.size() > 1 && segments.get(1).firstSequence - 1 <= sequence) {
+                    Segment old = segments.remove(0);
+                    old.channel.close();
+                    Files.deleteIfExists(old.path);
+                }
+            } catch (IOException e) {
+                throw new IllegalStateException("No se pudo registrar el avance del diario de sincronización", e);
+            }
+        }
+    }
+
+    private long readCheckpoint() throws IOException {
+        if (checkpointChannel.size() < Long.BYTES) {
+            return 0L;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(Long.BYTES);
+        checkpointChannel.read(buffer, 0);
+        return buffer.getLong(0);
+    }
+
+    /**
+     * Ubica la posición de escritura del segmento tras el último registro válido y limpia lo que siga
+     */
+    private void recover(Segment segment) {
+        MappedByteBuffer buffer = segment.buffer;
+        int position = 0;
+        long last = segment.firstSequence - 1;
+
+        while (position + HEADER_BYTES <= segmentSize) {
+            int length = buffer.getInt(position);
+            if (length <= 0 || position + HEADER_BYTES + length > segmentSize) {
+                break;
+            }
+            long sequence = buffer.getLong(position + 8);
+            if (sequence != last + 1 || buffer.getInt(position + 4) != crc(buffer, position + 8, length + 8)) {
+                break;
+            }
+            last = sequence;
+            position += HEADER_BYTES + length;
+        }
+
+        if (position + Integer.BYTES <= segmentSize && buffer.getInt(position) != 0) {
+            logger.warning("Registro incompleto descartado en " + segment.path.getFileName() + " tras la secuencia " + last);
+            for (int i = position; i < segmentSize; i++) {
+                buffer.put(i, (byte) 0);
+            }
+            buffer.force();
+        }
+
+        segment.writePosition = position;
+        segment.durablePosition = position;
+        segment.lastSequence = last;
+    }
+
+    private Segment open(Path path, long firstSequence) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+        return new Segment(firstSequence, path, channel, buffer);
+    }
+
+    private Path segmentPath(long firstSequence) {
+        return directory.resolve(String.format("%s%020d%s", SEGMENT_PREFIX, firstSequence, SEGMENT_SUFFIX));
+    }
+
+    private static long firstSequenceOf(Path path) {
+        String name = path.getFileName().toString();
+        return Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+    }
+
+    private static int crc(ByteBuffer buffer, int offset, int length) {
+        CRC32C crc = new CRC32C();
+        crc.update(buffer.slice(offset, length));
+        return (int) crc.getValue();
+    }
+
+    private byte[] encode(SyncJournalRecordData record) {
+        Document document = new Document();
+        mongoConverter.write(record, document);
+
+        ByteBuf bson = new RawBsonDocument(document, CODEC).getByteBuffer();
+        byte[] bytes = new byte[bson.remaining()];
+        bson.get(bytes);
+        return bytes;
+    }
+
+    private SyncJournalEntry toEntry(StoredRecord stored) {
+        Document document = new RawBsonDocument(stored.payload()).decode(CODEC);
+        SyncJournalRecordData record = mongoConverter.read(SyncJournalRecordData.class, document);
+
+        // Se reutiliza la conversión de documento a dominio; las secciones en null siguen en null
+        FinanceManager items = converter.toEntity(FinanceManagerData.builder()
+                .userId(record.getUserId())
+                .gastos(record.getGastos())
+                .categorias(record.getCategorias())
+                .metasAhorro(record.getMetasAhorro())
+                .recordatorios(record.getRecordatorios())
+                .ingresosExtra(record.getIngresosExtra())
+                .build());
+
+        FinanceManagerData.EliminadosInfo eliminados = record.getEliminados();
+        SyncChanges changes = SyncChanges.builder()
+                .presupuesto(record.getPresupuesto())
+                .lastVisitedRoute(record.getLastVisitedRoute())
+                .sessionId(record.getSessionId())
+                .dataImportTimestamp(record.getDataImportTimestamp())
+                .gastos(values(items.getGastos()))
+                .categorias(values(items.getCategorias()))
+                .metasAhorro(values(items.getMetasAhorro()))
+                .recordatorios(values(items.getRecordatorios()))
+                .ingresosExtra(values(items.getIngresosExtra()))
+                .eliminados(eliminados == null ? null : FinanceManager.EliminadosInfo.builder()
+                        .gastos(eliminados.getGastos())
+                        .categorias(eliminados.getCategorias())
+                        .metasAhorro(eliminados.getMetasAhorro())
+                        .recordatorios(eliminados.getRecordatorios())
+                        .ingresosExtra(eliminados.getIngresosExtra())
+                        .build())
+                .build();
+
+        return SyncJournalEntry.builder()
+                .sequence(stored.sequence())
+                .userId(record.getUserId())
+                .timestamp(record.getTimestamp())
+                .changes(changes)
+                .build();
+    }
+
+    private SyncJournalRecordData toRecord(String userId, SyncChanges changes, long timestamp) {
+        FinanceManager.EliminadosInfo eliminados = changes.getEliminados();
+
+        return SyncJournalRecordData.builder()
+                .userId(userId)
+                .timestamp(timestamp)
+                .presupuesto(changes.getPresupuesto())
+                .lastVisitedRoute(changes.getLastVisitedRoute())
+                .sessionId(changes.getSessionId())
+                .dataImportTimestamp(changes.getDataImportTimestamp())
+                .gastos(byId(changes.getGastos(), Expenses::getId, converter::toData))
+                .categorias(byId(changes.getCategorias(), Categories::getId, converter::toData))
+                .metasAhorro(byId(changes.getMetasAhorro(), SavingsGoal::getId, converter::toData))
+                .recordatorios(byId(changes.getRecordatorios(), Reminder::getId, converter::toData))
+                .ingresosExtra(byId(changes.getIngresosExtra(), ExtraIncome::getId, converter::toData))
+                .eliminados(eliminados == null ? null : FinanceManagerData.EliminadosInfo.builder()
+                        .gastos(eliminados.getGastos())
+                        .categorias(eliminados.getCategorias())
+                        .metasAhorro(eliminados.getMetasAhorro())
+                        .recordatorios(eliminados.getRecordatorios())
+                        .ingresosExtra(eliminados.getIngresosExtra())
+                        .build())
+                .build();
+    }
+
+    private static <T, D> Map<String, D> byId(List<T> items, Function<T, String> idOf, Function<T, D> toData) {
+        if (items == null) {
+            return null;
+        }
+        Map<String, D> result = new LinkedHashMap<>();
+        items.forEach(item -> result.put(idOf.apply(item), toData.apply(item)));
+        return result;
+    }
+
+    private static <T> List<T> values(Map<String, T> items) {
+        return items != null ? new ArrayList<>(items.values()) : null;
+    }
+
+    private static final class Segment {
+        private final long firstSequence;
+        private final Path path;
+        private final FileChannel channel;
+        private final MappedByteBuffer buffer;
+        private int writePosition;
+        // Hasta dónde está forzado a disco; solo lo avanza quien tiene forceLock
+        private volatile int durablePosition;
+        private long lastSequence;
+
+        private Segment(long firstSequence, Path path, FileChannel channel, MappedByteBuffer buffer) {
+            this.firstSequence = firstSequence;
+            this.path = path;
+            this.channel = channel;
+            this.buffer = buffer;
+            this.lastSequence = firstSequence - 1;
+        }
+    }
+
+    private record ReadPosition(long sequence, Segment segment, int offset) {
+    }
+
+    private record PendingRange(Segment segment, int from, int to) {
+    }
+
+    private record StoredRecord(long sequence, byte[] payload) {
+    }
+}
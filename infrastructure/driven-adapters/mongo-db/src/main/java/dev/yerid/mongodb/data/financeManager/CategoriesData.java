@@ -5,12 +5,23 @@ import lombok.Builder;
 import lombok.Data;
 import lombok.NoArgsConstructor;
 
+import java.util.Arrays;
+import java.util.List;
+
 @Data
 @Builder
 @NoArgsConstructor
 @AllArgsConstructor
-public class CategoriesData {
+public class CategoriesData implements SyncItemData {
     private String nombre;
     private String icono;
     private String color;
-}
\ No newline at end of file
+    private Long fechaModificacion;
+    private Long version;
+    private Long hash;
+
+    @Override
+    public List<Object> contentFields() {
+        return Arrays.asList(nombre, icono, color);
+    }
+}
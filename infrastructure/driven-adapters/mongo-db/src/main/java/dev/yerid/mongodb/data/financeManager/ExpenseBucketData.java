@@ -0,0 +1,49 @@
+package dev.yerid.mongodb.data.financeManager;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.index.CompoundIndexes;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Gastos de un usuario en un mes (según ExpensesData.fecha, en UTC), para los usuarios con
+ * elementos separados. El _id es userId:yyyy-MM; ids repite las claves de gastos para encontrar
+ * con un índice el mes en que está un gasto al modificarlo o eliminarlo
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@Document(collection = "expenseBuckets")
+@CompoundIndexes({
+        @CompoundIndex(name = "user_mes", def = "{'userId': 1, 'mes': -1}"),
+        @CompoundIndex(name = "user_ids", def = "{'userId': 1, 'ids': 1}"),
+        @CompoundIndex(name = "user_modificacion", def = "{'userId': 1, 'fechaModificacion': 1}")
+})
+public class ExpenseBucketData {
+    @Id
+    private String id;
+
+    private String userId;
+
+    // Mes en formato yyyy-MM
+    private String mes;
+
+    private Map<String, ExpensesData> gastos;
+
+    private List<String> ids;
+
+    // Última modificación de algún gasto del mes, para la descarga incremental
+    private Long fechaModificacion;
+
+    public static String idOf(String userId, String mes) {
+        return userId + ":" + mes;
+    }
+}
@@ -7,11 +7,14 @@ import lombok.NoArgsConstructor;
 import org.springframework.data.annotation.Id;
 import org.springframework.data.mongodb.core.mapping.Document;
 
+import java.util.Arrays;
+import java.util.List;
+
 @Data
 @Builder
 @NoArgsConstructor
 @AllArgsConstructor
-public class ExpensesData {
+public class ExpensesData implements SyncItemData {
     private String id;
     private String nombreG;
     private double gasto;
@@ -19,4 +22,12 @@ public class ExpensesData {
     private Long fecha;
     private String origen;
     private String recordatorioId;
-}
\ No newline at end of file
+    private Long fechaModificacion;
+    private Long version;
+    private Long hash;
+
+    @Override
+    public List<Object> contentFields() {
+        return Arrays.asList(id, nombreG, gasto, categoria, fecha, origen, recordatorioId);
+    }
+}
@@ -5,13 +5,24 @@ import lombok.Builder;
 import lombok.Data;
 import lombok.NoArgsConstructor;
 
+import java.util.Arrays;
+import java.util.List;
+
 @Data
 @Builder
 @NoArgsConstructor
 @AllArgsConstructor
-public class ExtraIncomeData {
+public class ExtraIncomeData implements SyncItemData {
     private String id;
     private double monto;
     private String descripcion;
     private Long fecha;
+    private Long fechaModificacion;
+    private Long version;
+    private Long hash;
+
+    @Override
+    public List<Object> contentFields() {
+        return Arrays.asList(id, monto, descripcion, fecha);
+    }
 }
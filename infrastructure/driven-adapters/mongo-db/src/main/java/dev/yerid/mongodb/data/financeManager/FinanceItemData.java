@@ -0,0 +1,44 @@
+package dev.yerid.mongodb.data.financeManager;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.index.CompoundIndexes;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+/**
+ * Elemento financiero guardado fuera del documento del usuario, para los usuarios cuyo
+ * documento superó el tamaño configurado (FinanceManagerData.itemsSeparados).
+ * El _id es userId:tipo:id, de modo que cada elemento se escribe sin leer el resto.
+ * Los gastos no se guardan aquí sino por mes en ExpenseBucketData
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@Document(collection = "financeItems")
+@CompoundIndexes({
+        @CompoundIndex(name = "user_type_modificacion", def = "{'userId': 1, 'type': 1, 'item.fechaModificacion': 1}"),
+        // Búsqueda de un elemento por id sin conocer su usuario
+        @CompoundIndex(name = "type_item", def = "{'type': 1, 'itemId': 1}")
+})
+public class FinanceItemData {
+    @Id
+    private String id;
+
+    private String userId;
+
+    // Campo del documento al que pertenece (categorias, metasAhorro, recordatorios, ingresosExtra)
+    private String type;
+
+    private String itemId;
+
+    private SyncItemData item;
+
+    public static String idOf(String userId, String type, String itemId) {
+        return userId + ":" + type + ":" + itemId;
+    }
+}
@@ -5,13 +5,13 @@ import lombok.Builder;
 import lombok.Data;
 import lombok.NoArgsConstructor;
 import org.springframework.data.annotation.Id;
+import org.springframework.data.annotation.ReadOnlyProperty;
 import org.springframework.data.mongodb.core.index.Indexed;
 import org.springframework.data.mongodb.core.mapping.Document;
 
 import java.util.Map;
 import java.util.HashMap;
 import java.util.List;
-import java.util.ArrayList;
 
 @Data
 @Builder
@@ -25,6 +25,9 @@ public class FinanceManagerData {
     @Indexed(unique = true)
     private String userId;
 
+    // Versión del documento, se incrementa en cada escritura (usada como ETag en la descarga)
+    private Long version;
+
     // Campos para seguimiento y sincronización
     private Long lastSyncTimestamp;
     private String lastVisitedRoute;
@@ -42,9 +45,26 @@ public class FinanceManagerData {
     private Map<String, ReminderData> recordatorios;
     private Map<String, ExtraIncomeData> ingresosExtra;
 
-    // Información de elementos eliminados
+    // Elementos eliminados antes de registrar fechas de eliminación (formato anterior, ya no crece)
     private EliminadosInfo eliminados;
 
+    // Fecha de eliminación de cada id, usada para la descarga incremental
+    private FechasEliminacionInfo fechasEliminacion;
+
+    // Versión que representa la eliminación de cada id (la guardada más uno); solo una edición con
+    // versión mayor puede volver a crear el elemento. Misma forma que fechasEliminacion, no se descarga
+    private FechasEliminacionInfo versionesEliminacion;
+
+    // Las fechas de eliminación anteriores a esta marca ya fueron compactadas
+    private Long eliminadosDesde;
+
+    // Con true los elementos viven en la colección financeItems y los mapas quedan vacíos
+    private Boolean itemsSeparados;
+
+    // Elementos por sección, calculados en la lectura previa a una escritura (no se guardan)
+    @ReadOnlyProperty
+    private Map<String, Integer> tamanosSecciones;
+
     @Data
     @Builder
     @NoArgsConstructor
@@ -57,6 +77,18 @@ public class FinanceManagerData {
         private List<String> ingresosExtra;
     }
 
+    @Data
+    @Builder
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class FechasEliminacionInfo {
+        private Map<String, Long> gastos;
+        private Map<String, Long> categorias;
+        private Map<String, Long> metasAhorro;
+        private Map<String, Long> recordatorios;
+        private Map<String, Long> ingresosExtra;
+    }
+
     /**
      * Crea una instancia vacía de FinanceManagerData para un usuario
      */
@@ -66,6 +98,7 @@ public class FinanceManagerData {
         return FinanceManagerData.builder()
                 .id(docId)
                 .userId(userId)
+                .version(0L)
                 .lastSyncTimestamp(System.currentTimeMillis())
                 .presupuesto(new BudgetData(docId, 0, System.currentTimeMillis()))
                 .gastos(new HashMap<>())
@@ -73,12 +106,12 @@ public class FinanceManagerData {
                 .metasAhorro(new HashMap<>())
                 .recordatorios(new HashMap<>())
                 .ingresosExtra(new HashMap<>())
-                .eliminados(EliminadosInfo.builder()
-                        .gastos(new ArrayList<>())
-                        .categorias(new ArrayList<>())
-                        .metasAhorro(new ArrayList<>())
-                        .recordatorios(new ArrayList<>())
-                        .ingresosExtra(new ArrayList<>())
+                .fechasEliminacion(FechasEliminacionInfo.builder()
+                        .gastos(new HashMap<>())
+                        .categorias(new HashMap<>())
+                        .metasAhorro(new HashMap<>())
+                        .recordatorios(new HashMap<>())
+                        .ingresosExtra(new HashMap<>())
                         .build())
                 .build();
     }
@@ -7,11 +7,14 @@ import lombok.NoArgsConstructor;
 import org.springframework.data.annotation.Id;
 import org.springframework.data.mongodb.core.mapping.Document;
 
+import java.util.Arrays;
+import java.util.List;
+
 @Data
 @Builder
 @NoArgsConstructor
 @AllArgsConstructor
-public class ReminderData {
+public class ReminderData implements SyncItemData {
     private String id;
     private String titulo;
     private String descripcion;
@@ -23,4 +26,13 @@ public class ReminderData {
     private int diasAnticipacion;
     private Long fechaCreacion;
     private String estado;
-}
\ No newline at end of file
+    private Long fechaModificacion;
+    private Long version;
+    private Long hash;
+
+    @Override
+    public List<Object> contentFields() {
+        return Arrays.asList(id, titulo, descripcion, monto, fechaVencimiento, categoria, esRecurrente, frecuencia,
+                diasAnticipacion, fechaCreacion, estado);
+    }
+}
@@ -5,11 +5,14 @@ import lombok.Builder;
 import lombok.Data;
 import lombok.NoArgsConstructor;
 
+import java.util.Arrays;
+import java.util.List;
+
 @Data
 @Builder
 @NoArgsConstructor
 @AllArgsConstructor
-public class SavingsGoalData {
+public class SavingsGoalData implements SyncItemData {
     private String id;
     private String nombre;
     private double monto;
@@ -22,4 +25,13 @@ public class SavingsGoalData {
     private double ahorroAnual;
     private int diasRestantes;
     private boolean completada;
-}
\ No newline at end of file
+    private Long fechaModificacion;
+    private Long version;
+    private Long hash;
+
+    @Override
+    public List<Object> contentFields() {
+        return Arrays.asList(id, nombre, monto, fechaObjetivo, descripcion, creada, ahorroAcumulado, ahorroSemanal,
+                ahorroMensual, ahorroAnual, diasRestantes, completada);
+    }
+}
@@ -0,0 +1,32 @@
+package dev.yerid.mongodb.data.financeManager;
+
+import java.util.List;
+
+/**
+ * Elemento financiero almacenado dentro de uno de los mapas de FinanceManagerData
+ * (gastos, categorías, metas de ahorro, recordatorios e ingresos extra)
+ */
+public interface SyncItemData {
+    Long getFechaModificacion();
+
+    void setFechaModificacion(Long fechaModificacion);
+
+    /**
+     * Versión del elemento; una subida solo lo reemplaza con una versión mayor
+     */
+    Long getVersion();
+
+    void setVersion(Long version);
+
+    /**
+     * Huella del contenido, para detectar elementos reenviados sin cambios
+     */
+    Long getHash();
+
+    void setHash(Long hash);
+
+    /**
+     * Campos que definen el contenido del elemento, en orden fijo (sin marcas de sincronización)
+     */
+    List<Object> contentFields();
+}
@@ -0,0 +1,41 @@
+package dev.yerid.mongodb.data.syncJournal;
+
+import dev.yerid.mongodb.data.financeManager.CategoriesData;
+import dev.yerid.mongodb.data.financeManager.ExpensesData;
+import dev.yerid.mongodb.data.financeManager.ExtraIncomeData;
+import dev.yerid.mongodb.data.financeManager.FinanceManagerData;
+import dev.yerid.mongodb.data.financeManager.ReminderData;
+import dev.yerid.mongodb.data.financeManager.SavingsGoalData;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.Map;
+
+/**
+ * Registro del diario local de sincronización, codificado en BSON con el mismo conversor que
+ * los documentos (la secuencia va en la cabecera del registro). Los elementos van por id con la
+ * forma almacenada; una sección en null no se envió
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class SyncJournalRecordData {
+    private String userId;
+    private long timestamp;
+
+    private Double presupuesto;
+    private String lastVisitedRoute;
+    private String sessionId;
+    private Long dataImportTimestamp;
+
+    private Map<String, ExpensesData> gastos;
+    private Map<String, CategoriesData> categorias;
+    private Map<String, SavingsGoalData> metasAhorro;
+    private Map<String, ReminderData> recordatorios;
+    private Map<String, ExtraIncomeData> ingresosExtra;
+
+    private FinanceManagerData.EliminadosInfo eliminados;
+}
@@ -0,0 +1,134 @@
+package dev.yerid.mongodb.adapter.financeManegerAdapters;
+
+import dev.yerid.model.financeManager.expenses.Expenses;
+import dev.yerid.model.financeManager.finance.SyncChanges;
+import dev.yerid.model.financeManager.finance.SyncSection;
+import dev.yerid.mongodb.data.financeManager.ExpensesData;
+import dev.yerid.mongodb.data.financeManager.FinanceManagerData;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.bson.Document;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.mongodb.core.query.Update;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class FinanceManagerDataExtractorTest {
+
+    private static final String GASTOS = SyncSection.GASTOS.getClientKey();
+
+    private final FinanceManagerDataExtractor extractor = extractor(200);
+
+    @Test
+    void newerVersionIsWritten() {
+        FinanceManagerData current = document(Map.of("x", stored("x", 2L)));
+        Map<String, List<String>> rejected = new HashMap<>();
+
+        Update update = extractor.prepareUpdate(edit(expense("x", 3L)), current, rejected);
+
+        assertTrue(rejected.isEmpty());
+        ExpensesData written = (ExpensesData) operator(update, "$set").get("gastos.x");
+        assertEquals(3L, written.getVersion());
+        assertEquals(1, operator(update, "$inc").get("version"));
+    }
+
+    @Test
+    void staleVersionIsRejected() {
+        FinanceManagerData current = document(Map.of("x", stored("x", 2L)));
+        Map<String, List<String>> rejected = new HashMap<>();
+
+        Update update = extractor.prepareUpdate(edit(expense("x", 2L)), current, rejected);
+
+        assertEquals(List.of("x"), rejected.get(GASTOS));
+        assertFalse(operator(update, "$set").containsKey("gastos.x"));
+        assertNull(update.getUpdateObject().get("$inc"));
+    }
+
+    @Test
+    void deletedItemIsRecreatedOnlyWithNewerVersionThanTheDeletion() {
+        FinanceManagerData current = document(Map.of());
+        current.setFechasEliminacion(FinanceManagerData.FechasEliminacionInfo.builder().gastos(Map.of("x", 100L)).build());
+        current.setVersionesEliminacion(FinanceManagerData.FechasEliminacionInfo.builder().gastos(Map.of("x", 4L)).build());
+
+        Map<String, List<String>> rejected = new HashMap<>();
+        Update stale = extractor.prepareUpdate(edit(expense("x", 4L)), current, rejected);
+        assertEquals(List.of("x"), rejected.get(GASTOS));
+        assertFalse(operator(stale, "$set").containsKey("gastos.x"));
+
+        rejected = new HashMap<>();
+        Update recreated = extractor.prepareUpdate(edit(expense("x", 5L)), current, rejected);
+        assertTrue(rejected.isEmpty());
+        assertEquals(5L, ((ExpensesData) operator(recreated, "$set").get("gastos.x")).getVersion());
+        assertTrue(operator(recreated, "$unset").containsKey("fechasEliminacion.gastos.x"));
+        assertTrue(operator(recreated, "$unset").containsKey("versionesEliminacion.gastos.x"));
+    }
+
+    @Test
+    void largeUploadReplacesTheWholeSection() {
+        FinanceManagerDataExtractor replacing = extractor(2);
+        FinanceManagerData current = document(Map.of("a", stored("a", 1L), "b", stored("b", 1L)));
+        current.setTamanosSecciones(Map.of("gastos", 2));
+        SyncChanges changes = edit(expense("a", 2L), expense("c", 1L));
+
+        Update update = replacing.prepareUpdate(changes, current, new HashMap<>());
+
+        Document set = operator(update, "$set");
+        assertFalse(set.containsKey("gastos.a"));
+        @SuppressWarnings("unchecked")
+        Map<String, ExpensesData> section = (Map<String, ExpensesData>) set.get("gastos");
+        assertEquals(Set.of("a", "b", "c"), section.keySet());
+        assertEquals(2L, section.get("a").getVersion());
+    }
+
+    @Test
+    void smallUploadPatchesEachItem() {
+        FinanceManagerDataExtractor replacing = extractor(2);
+        FinanceManagerData current = document(Map.of("a", stored("a", 1L)));
+        current.setTamanosSecciones(Map.of("gastos", 10));
+        SyncChanges changes = edit(expense("a", 2L), expense("c", 1L));
+
+        Update update = replacing.prepareUpdate(changes, current, new HashMap<>());
+
+        Document set = operator(update, "$set");
+        assertFalse(set.containsKey("gastos"));
+        assertTrue(set.containsKey("gastos.a"));
+        assertTrue(set.containsKey("gastos.c"));
+    }
+
+    private static FinanceManagerDataExtractor extractor(int replaceMinItems) {
+        return new FinanceManagerDataExtractor(new SimpleMeterRegistry(), new FinanceManagerDataConverter(), 0.5, replaceMinItems);
+    }
+
+    private static Document operator(Update update, String operator) {
+        Object fields = update.getUpdateObject().get(operator);
+        return fields instanceof Document document ? document : new Document();
+    }
+
+    private static FinanceManagerData document(Map<String, ExpensesData> gastos) {
+        return FinanceManagerData.builder()
+                .userId("user-1")
+                .version(7L)
+                .gastos(gastos)
+                .build();
+    }
+
+    // Huella distinta a la de cualquier gasto recibido, para que la comparación no lo omita
+    private static ExpensesData stored(String id, Long version) {
+        return ExpensesData.builder().id(id).nombreG("Anterior").gasto(1).version(version).hash(0L).build();
+    }
+
+    private static Expenses expense(String id, Long version) {
+        return Expenses.builder().id(id).nombreG("Mercado").gasto(10).categoria("comida").fecha(1L).version(version).build();
+    }
+
+    private static SyncChanges edit(Expenses... gastos) {
+        return SyncChanges.builder().gastos(List.of(gastos)).build();
+    }
+}
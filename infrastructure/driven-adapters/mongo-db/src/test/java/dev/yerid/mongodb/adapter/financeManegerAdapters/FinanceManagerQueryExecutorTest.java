@@ -0,0 +1,95 @@
+package dev.yerid.mongodb.adapter.financeManegerAdapters;
+
+import dev.yerid.model.financeManager.expenses.Expenses;
+import dev.yerid.model.financeManager.finance.SyncChanges;
+import dev.yerid.model.financeManager.finance.SyncResult;
+import dev.yerid.model.financeManager.finance.SyncSection;
+import dev.yerid.mongodb.data.financeManager.ExpensesData;
+import dev.yerid.mongodb.data.financeManager.FinanceManagerData;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import reactor.core.publisher.Mono;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class FinanceManagerQueryExecutorTest {
+
+    private final ReactiveMongoTemplate mongoTemplate = mock(ReactiveMongoTemplate.class);
+    private final FinanceItemStore itemStore = mock(FinanceItemStore.class);
+    private final FinanceManagerBulkWriter bulkWriter = mock(FinanceManagerBulkWriter.class);
+    private final FinanceManagerQueryExecutor executor = new FinanceManagerQueryExecutor(mongoTemplate,
+            new FinanceManagerDataExtractor(new SimpleMeterRegistry(), new FinanceManagerDataConverter(), 0.5, 200),
+            itemStore, bulkWriter);
+
+    @Test
+    void upsertIsConditionalOnTheVersionRead() {
+        when(mongoTemplate.findOne(any(Query.class), eq(FinanceManagerData.class))).thenReturn(Mono.just(document(3L)));
+        stubItemStore();
+        when(bulkWriter.upsert(any(Query.class), any(Update.class))).thenReturn(Mono.empty());
+
+        SyncResult result = executor.upsertDocument("user-1", changes()).block();
+
+        ArgumentCaptor<Query> query = ArgumentCaptor.forClass(Query.class);
+        verify(bulkWriter).upsert(query.capture(), any(Update.class));
+        assertEquals(3L, query.getValue().getQueryObject().get("version"));
+        assertEquals(4L, result.getVersion());
+    }
+
+    @Test
+    void versionConflictRereadsAndRetries() {
+        // Otra escritura cambia la versión entre la lectura y el upsert: la condición falla y se repite
+        when(mongoTemplate.findOne(any(Query.class), eq(FinanceManagerData.class)))
+                .thenReturn(Mono.just(document(3L)), Mono.just(document(4L)));
+        stubItemStore();
+        when(bulkWriter.upsert(any(Query.class), any(Update.class)))
+                .thenReturn(Mono.error(new DuplicateKeyException("E11000")), Mono.empty());
+
+        SyncResult result = executor.upsertDocument("user-1", changes()).block();
+
+        ArgumentCaptor<Query> query = ArgumentCaptor.forClass(Query.class);
+        verify(bulkWriter, times(2)).upsert(query.capture(), any(Update.class));
+        assertEquals(3L, query.getAllValues().get(0).getQueryObject().get("version"));
+        assertEquals(4L, query.getAllValues().get(1).getQueryObject().get("version"));
+        assertEquals(5L, result.getVersion());
+        // Los rechazados son los del último intento, sin repetirse
+        assertEquals(Map.of(SyncSection.GASTOS.getClientKey(), List.of("viejo")), result.getRechazados());
+    }
+
+    private void stubItemStore() {
+        when(itemStore.attachDigests(any(FinanceManagerData.class), anyCollection()))
+                .thenAnswer(invocation -> Mono.just(invocation.getArgument(0)));
+        when(itemStore.migrateIfLarge(anyString())).thenReturn(Mono.just(false));
+    }
+
+    private static FinanceManagerData document(long version) {
+        return FinanceManagerData.builder()
+                .userId("user-1")
+                .version(version)
+                .gastos(Map.of("viejo", ExpensesData.builder().id("viejo").version(5L).hash(0L).build()))
+                .build();
+    }
+
+    private static SyncChanges changes() {
+        return SyncChanges.builder()
+                .gastos(List.of(
+                        Expenses.builder().id("x").nombreG("Mercado").gasto(10).categoria("comida").fecha(1L).version(1L).build(),
+                        Expenses.builder().id("viejo").nombreG("Mercado").gasto(20).categoria("comida").fecha(1L).version(2L).build()))
+                .build();
+    }
+}
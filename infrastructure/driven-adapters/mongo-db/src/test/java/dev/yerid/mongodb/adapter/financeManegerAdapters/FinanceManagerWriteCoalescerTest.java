@@ -0,0 +1,140 @@
+package dev.yerid.mongodb.adapter.financeManegerAdapters;
+
+import dev.yerid.model.financeManager.expenses.Expenses;
+import dev.yerid.model.financeManager.finance.FinanceManager;
+import dev.yerid.model.financeManager.finance.SyncChanges;
+import dev.yerid.model.financeManager.finance.SyncResult;
+import dev.yerid.model.financeManager.finance.SyncSection;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class FinanceManagerWriteCoalescerTest {
+
+    private static final String GASTOS = SyncSection.GASTOS.getClientKey();
+
+    private final FinanceManagerWriteCoalescer coalescer = new FinanceManagerWriteCoalescer(new SimpleMeterRegistry());
+
+    // Cada escritura queda en curso hasta completar su sink, para que las siguientes subidas se acumulen
+    private final List<SyncChanges> writes = new ArrayList<>();
+    private final List<Sinks.One<SyncResult>> gates = new ArrayList<>();
+
+    private Mono<SyncResult> write(SyncChanges changes) {
+        Sinks.One<SyncResult> gate = Sinks.one();
+        writes.add(changes);
+        gates.add(gate);
+        return gate.asMono();
+    }
+
+    private CompletableFuture<SyncResult> submit(SyncChanges changes) {
+        return coalescer.submit("user-1", changes, this::write).toFuture();
+    }
+
+    @Test
+    void deleteThenEditAreWrittenSeparately() {
+        submit(edit("otro", 1L));
+        CompletableFuture<SyncResult> deletion = submit(delete("x"));
+        CompletableFuture<SyncResult> edition = submit(edit("x", 5L));
+
+        complete(0, Map.of());
+        assertEquals(2, writes.size());
+        assertEquals(List.of("x"), writes.get(1).getEliminados().getGastos());
+        assertNull(writes.get(1).getGastos());
+
+        complete(1, Map.of());
+        assertEquals(3, writes.size());
+        assertEquals("x", writes.get(2).getGastos().get(0).getId());
+        assertNull(writes.get(2).getEliminados());
+
+        complete(2, Map.of(GASTOS, List.of("x")));
+        assertTrue(deletion.join().getRechazados().isEmpty());
+        assertEquals(List.of("x"), edition.join().getRechazados().get(GASTOS));
+    }
+
+    @Test
+    void editThenDeleteAreWrittenSeparately() {
+        submit(edit("otro", 1L));
+        submit(edit("x", 5L));
+        submit(delete("x"));
+
+        complete(0, Map.of());
+        assertEquals("x", writes.get(1).getGastos().get(0).getId());
+        assertNull(writes.get(1).getEliminados());
+
+        complete(1, Map.of());
+        assertEquals(List.of("x"), writes.get(2).getEliminados().getGastos());
+        assertNull(writes.get(2).getGastos());
+    }
+
+    @Test
+    void editAndDeleteInTheSameUploadReachTheWriterTogether() {
+        SyncChanges both = edit("x", 5L).toBuilder()
+                .eliminados(FinanceManager.EliminadosInfo.builder().gastos(List.of("x")).build())
+                .build();
+
+        submit(both);
+
+        assertEquals("x", writes.get(0).getGastos().get(0).getId());
+        assertEquals(List.of("x"), writes.get(0).getEliminados().getGastos());
+    }
+
+    @Test
+    void olderEditAfterNewerIsRejectedForItsSubmitter() {
+        submit(edit("otro", 1L));
+        CompletableFuture<SyncResult> newer = submit(edit("x", 5L));
+        CompletableFuture<SyncResult> older = submit(edit("x", 3L));
+
+        complete(0, Map.of());
+        assertEquals(2, writes.size());
+        assertEquals(1, writes.get(1).getGastos().size());
+        assertEquals(5L, writes.get(1).getGastos().get(0).getVersion());
+
+        complete(1, Map.of());
+        assertTrue(newer.join().getRechazados().isEmpty());
+        assertEquals(List.of("x"), older.join().getRechazados().get(GASTOS));
+    }
+
+    @Test
+    void rejectedItemsAreReportedOnlyToTheirSubmitter() {
+        submit(edit("otro", 1L));
+        CompletableFuture<SyncResult> first = submit(edit("x", 5L));
+        CompletableFuture<SyncResult> second = submit(edit("y", 2L));
+
+        complete(0, Map.of());
+        assertEquals(2, writes.get(1).getGastos().size());
+
+        complete(1, Map.of(GASTOS, List.of("x")));
+        assertEquals(List.of("x"), first.join().getRechazados().get(GASTOS));
+        assertTrue(second.join().getRechazados().isEmpty());
+        assertEquals(first.join().getVersion(), second.join().getVersion());
+    }
+
+    private void complete(int write, Map<String, List<String>> rechazados) {
+        gates.get(write).tryEmitValue(SyncResult.builder()
+                .version(write + 1)
+                .rechazados(rechazados)
+                .build());
+    }
+
+    private static SyncChanges edit(String id, Long version) {
+        return SyncChanges.builder()
+                .gastos(List.of(Expenses.builder().id(id).nombreG("Mercado").gasto(10).version(version).build()))
+                .build();
+    }
+
+    private static SyncChanges delete(String id) {
+        return SyncChanges.builder()
+                .eliminados(FinanceManager.EliminadosInfo.builder().gastos(List.of(id)).build())
+                .build();
+    }
+}
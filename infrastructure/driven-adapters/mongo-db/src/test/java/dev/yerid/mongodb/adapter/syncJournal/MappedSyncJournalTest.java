@@ -0,0 +1,150 @@
+package dev.yerid.mongodb.adapter.syncJournal;
+
+import dev.yerid.model.financeManager.expenses.Expenses;
+import dev.yerid.model.financeManager.finance.SyncChanges;
+import dev.yerid.model.financeManager.finance.SyncJournalEntry;
+import dev.yerid.mongodb.adapter.financeManegerAdapters.FinanceManagerDataConverter;
+import dev.yerid.mongodb.adapter.financeManegerAdapters.FinanceManagerDataExtractor;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.core.convert.MappingMongoConverter;
+import org.springframework.data.mongodb.core.convert.NoOpDbRefResolver;
+import org.springframework.data.mongodb.core.mapping.MongoMappingContext;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class MappedSyncJournalTest {
+
+    @TempDir
+    Path directory;
+
+    private final List<MappedSyncJournal> opened = new ArrayList<>();
+
+    @AfterEach
+    void closeJournals() throws IOException {
+        for (MappedSyncJournal journal : opened) {
+            journal.destroy();
+        }
+    }
+
+    @Test
+    void appendedEntriesAreReadInOrder() throws IOException {
+        MappedSyncJournal journal = open(4096);
+
+        assertEquals(1L, journal.append("user-1", changes("gasto-1", 10), 100L).block());
+        assertEquals(2L, journal.append("user-2", changes("gasto-2", 20), 200L).block());
+
+        List<SyncJournalEntry> entries = journal.readAfter(0L, 10).block();
+        assertEquals(2, entries.size());
+        assertEquals(1L, entries.get(0).getSequence());
+        assertEquals("user-1", entries.get(0).getUserId());
+        assertEquals(100L, entries.get(0).getTimestamp());
+        assertEquals("gasto-1", entries.get(0).getChanges().getGastos().get(0).getId());
+        assertEquals(10.0, entries.get(0).getChanges().getGastos().get(0).getGasto());
+        assertEquals(2L, entries.get(1).getSequence());
+
+        assertEquals(1, journal.readAfter(1L, 10).block().size());
+    }
+
+    @Test
+    void recoveryDiscardsRecordWithInvalidCrc() throws IOException {
+        MappedSyncJournal journal = open(4096);
+        journal.append("user-1", changes("gasto-1", 10), 100L).block();
+        journal.append("user-1", changes("gasto-2", 20), 200L).block();
+        journal.destroy();
+        opened.remove(journal);
+
+        // Se altera un byte del BSON del segundo registro, como una escritura interrumpida
+        Path segment = segments().get(0);
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            ByteBuffer length = ByteBuffer.allocate(Integer.BYTES);
+            channel.read(length, 0);
+            long second = 16L + length.getInt(0);
+            channel.write(ByteBuffer.wrap(new byte[]{(byte) 0x7F}), second + 16 + 5);
+        }
+
+        MappedSyncJournal recovered = open(4096);
+        List<SyncJournalEntry> entries = recovered.readAfter(0L, 10).block();
+        assertEquals(1, entries.size());
+        assertEquals("gasto-1", entries.get(0).getChanges().getGastos().get(0).getId());
+        assertEquals(2L, recovered.append("user-1", changes("gasto-3", 30), 300L).block());
+    }
+
+    @Test
+    void checkpointDeletesAppliedSegments() throws IOException {
+        MappedSyncJournal journal = open(1024);
+        for (int i = 1; i <= 10; i++) {
+            journal.append("user-1", changes("gasto-" + i, i), i).block();
+        }
+        assertTrue(segments().size() > 1);
+        assertEquals(10, journal.readAfter(0L, 20).block().size());
+
+        journal.markApplied(10L).block();
+        assertEquals(1, segments().size());
+        assertEquals(10L, journal.lastApplied().block());
+        journal.destroy();
+        opened.remove(journal);
+
+        MappedSyncJournal reopened = open(1024);
+        assertEquals(10L, reopened.lastApplied().block());
+        assertTrue(reopened.readAfter(10L, 20).block().isEmpty());
+        assertEquals(11L, reopened.append("user-1", changes("gasto-11", 11), 11L).block());
+    }
+
+    @Test
+    void deadLetterKeepsTheEntry() throws IOException {
+        MappedSyncJournal journal = open(4096);
+        journal.append("user-1", changes("gasto-1", 10), 100L).block();
+        SyncJournalEntry entry = journal.readAfter(0L, 1).block().get(0);
+
+        journal.deadLetter(entry, "documento demasiado grande").block();
+
+        Path deadLetter = directory.resolve("dead-letter.log");
+        assertTrue(Files.size(deadLetter) > 16);
+    }
+
+    private MappedSyncJournal open(int segmentSize) throws IOException {
+        MappingMongoConverter mongoConverter = new MappingMongoConverter(NoOpDbRefResolver.INSTANCE, new MongoMappingContext());
+        mongoConverter.afterPropertiesSet();
+        ReactiveMongoTemplate mongoTemplate = mock(ReactiveMongoTemplate.class);
+        when(mongoTemplate.getConverter()).thenReturn(mongoConverter);
+
+        FinanceManagerDataConverter converter = new FinanceManagerDataConverter();
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        FinanceManagerDataExtractor extractor = new FinanceManagerDataExtractor(meterRegistry, converter, 0.5, 200);
+
+        MappedSyncJournal journal = new MappedSyncJournal(mongoTemplate, extractor, converter, meterRegistry,
+                true, directory.toString(), segmentSize);
+        journal.afterPropertiesSet();
+        opened.add(journal);
+        return journal;
+    }
+
+    private List<Path> segments() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(path -> path.getFileName().toString().startsWith("segment-")).sorted().toList();
+        }
+    }
+
+    private static SyncChanges changes(String id, double gasto) {
+        return SyncChanges.builder()
+                .gastos(List.of(Expenses.builder().id(id).nombreG("Mercado").gasto(gasto).categoria("comida").fecha(1L).build()))
+                .build();
+    }
+}
@@ -0,0 +1,281 @@
+package dev.yerid.api;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import dev.yerid.model.financeManager.expenses.Expenses;
+import dev.yerid.model.financeManager.extraincome.ExtraIncome;
+import dev.yerid.model.financeManager.finance.SyncChanges;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.ResolvableType;
+import org.springframework.core.codec.StringDecoder;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.util.function.Tuple2;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Lee una importación de gastos e ingresos extra línea a línea y la entrega en lotes de SyncChanges.
+ * Acepta NDJSON (un objeto por línea) o CSV (text/csv, con una fila de encabezado con los nombres de
+ * los campos, sin saltos de línea dentro de los valores). Cada registro indica su tipo en el campo
+ * "tipo" ("gasto" o "ingreso"); si no lo trae se usa el tipo por defecto de la petición.
+ * Los campos son los mismos de la sincronización ascendente y las fechas pueden venir en milisegundos,
+ * como instante ISO o como fecha yyyy-MM-dd (UTC). Las líneas se leen según la demanda de quien
+ * escribe los lotes, así que el archivo nunca se carga completo en memoria.
+ * Un registro inválido termina la importación con el número de línea; los lotes anteriores ya están escritos.
+ * Los registros sin id reciben uno derivado del usuario y del contenido de la fila, de modo que al
+ * reintentar el mismo archivo se reescriben los mismos elementos en lugar de duplicarlos
+ */
+@Component
+public class ImportRequestReader {
+    public static final MediaType TEXT_CSV = MediaType.parseMediaType("text/csv");
+
+    private static final String TIPO = "tipo";
+    private static final String ID = "id";
+    private static final String FECHA = "fecha";
+    private static final String BOM = "\uFEFF";
+
+    private final ObjectMapper objectMapper;
+    private final SyncRequestReader requestReader;
+    private final int batchSize;
+    private final int maxLineSize;
+
+    public ImportRequestReader(ObjectMapper objectMapper, SyncRequestReader requestReader,
+                               @Value("${sync.import.batch-size:500}") int batchSize,
+                               @Value("${sync.import.max-line-size:65536}") int maxLineSize) {
+        this.objectMapper = objectMapper;
+        this.requestReader = requestReader;
+        this.batchSize = batchSize;
+        this.maxLineSize = maxLineSize;
+    }
+
+    /**
+     * Elemento importado: un gasto o un ingreso extra
+     */
+    private record ImportItem(Expenses gasto, ExtraIncome ingreso) {
+    }
+
+    /**
+     * Ids de las filas sin id: UUID (tipo 3) del usuario, el tipo y los campos de la fila ordenados por
+     * nombre. Las filas idénticas seguidas (dos compras iguales el mismo día) se distinguen por su
+     * consecutivo dentro de la racha
+     */
+    private static final class RowIds {
+        private final String userId;
+        private String previous;
+        private int repeated;
+
+        private RowIds(String userId) {
+            this.userId = userId;
+        }
+
+        private String next(String tipo, ObjectNode object) {
+            List<String> fields = new ArrayList<>();
+            object.fieldNames().forEachRemaining(fields::add);
+            Collections.sort(fields);
+
+            StringBuilder content = new StringBuilder(userId).append('\n').append(tipo);
+            for (String field : fields) {
+                if (!TIPO.equals(field)) {
+                    content.append('\n').append(field).append('=').append(object.get(field));
+                }
+            }
+
+            String key = content.toString();
+            repeated = key.equals(previous) ? repeated + 1 : 0;
+            previous = key;
+            return UUID.nameUUIDFromBytes((key + '\n' + repeated).getBytes(StandardCharsets.UTF_8)).toString();
+        }
+    }
+
+    /**
+     * Lotes de hasta sync.import.batch-size elementos, en el orden del archivo
+     */
+    public Flux<SyncChanges> read(Flux<DataBuffer> body, MediaType contentType, String defaultTipo, String userId) {
+        StringDecoder decoder = StringDecoder.allMimeTypes();
+        decoder.setMaxInMemorySize(maxLineSize);
+
+        Flux<Tuple2<Long, String>> lines = decoder.decode(body, ResolvableType.forClass(String.class), null, Map.of())
+                .index()
+                .filter(line -> !line.getT2().isBlank());
+
+        boolean csv = contentType != null && TEXT_CSV.isCompatibleWith(contentType);
+        Flux<ImportItem> items = Flux.defer(() -> {
+            RowIds ids = new RowIds(userId);
+            return csv ? readCsv(lines, defaultTipo, ids) : readNdjson(lines, defaultTipo, ids);
+        });
+
+        return items.buffer(batchSize).map(this::toBatch);
+    }
+
+    private Flux<ImportItem> readNdjson(Flux<Tuple2<Long, String>> lines, String defaultTipo, RowIds ids) {
+        return lines.map(line -> {
+            long lineNumber = line.getT1() + 1;
+            JsonNode node;
+            try {
+                node = objectMapper.readTree(stripBom(line.getT2()));
+            } catch (JsonProcessingException e) {
+                throw new IllegalArgumentException("Línea " + lineNumber + ": JSON inválido - " + e.getOriginalMessage());
+            }
+            if (!(node instanceof ObjectNode object)) {
+                throw new IllegalArgumentException("Línea " + lineNumber + ": se esperaba un objeto JSON");
+            }
+            return toItem(object, defaultTipo, lineNumber, ids);
+        });
+    }
+
+    /**
+     * La primera línea con contenido es el encabezado; cada fila se convierte en un objeto con los
+     * valores como texto, que los lectores de la sincronización interpretan igual que en JSON
+     */
+    private Flux<ImportItem> readCsv(Flux<Tuple2<Long, String>> lines, String defaultTipo, RowIds ids) {
+        return lines.switchOnFirst((first, all) -> {
+            if (!first.hasValue()) {
+                return all.thenMany(Flux.<ImportItem>empty());
+            }
+
+            List<String> header = parseCsvLine(stripBom(first.get().getT2()), first.get().getT1() + 1);
+            return all.skip(1).map(line -> {
+                long lineNumber = line.getT1() + 1;
+                List<String> values = parseCsvLine(line.getT2(), lineNumber);
+
+                ObjectNode object = objectMapper.createObjectNode();
+                for (int i = 0; i < header.size() && i < values.size(); i++) {
+                    String value = values.get(i).trim();
+                    if (!value.isEmpty()) {
+                        object.put(header.get(i).trim(), value);
+                    }
+                }
+                return toItem(object, defaultTipo, lineNumber, ids);
+            });
+        });
+    }
+
+    private ImportItem toItem(ObjectNode object, String defaultTipo, long lineNumber, RowIds ids) {
+        String tipo = object.hasNonNull(TIPO) ? object.get(TIPO).asText() : defaultTipo;
+        if (tipo == null) {
+            throw new IllegalArgumentException("Línea " + lineNumber + ": falta el tipo (gasto o ingreso)");
+        }
+        tipo = tipo.trim().toLowerCase(Locale.ROOT);
+        normalizeFecha(object, lineNumber);
+        if (!object.hasNonNull(ID) || object.get(ID).asText().isBlank()) {
+            object.put(ID, ids.next(tipo, object));
+        }
+
+        try (JsonParser parser = objectMapper.treeAsTokens(object)) {
+            parser.nextToken();
+            return switch (tipo) {
+                case "gasto" -> new ImportItem(requestReader.readExpense(parser), null);
+                case "ingreso", "ingresoextra" -> new ImportItem(null, requestReader.readExtraIncome(parser));
+                default -> throw new IllegalArgumentException("Línea " + lineNumber + ": tipo desconocido '" + tipo + "'");
+            };
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Convierte la fecha a milisegundos. A diferencia de la sincronización, una fecha que no se puede
+     * interpretar no se reemplaza por la hora actual: en un historial eso movería el registro de mes
+     */
+    private void normalizeFecha(ObjectNode object, long lineNumber) {
+        JsonNode fecha = object.get(FECHA);
+        if (fecha == null || !fecha.isTextual()) {
+            return;
+        }
+
+        String text = fecha.asText().trim();
+        try {
+            object.put(FECHA, Long.parseLong(text));
+            return;
+        } catch (NumberFormatException ignored) {
+            // No son milisegundos
+        }
+        try {
+            object.put(FECHA, Instant.parse(text).toEpochMilli());
+            return;
+        } catch (DateTimeParseException ignored) {
+            // No es un instante ISO
+        }
+        try {
+            object.put(FECHA, LocalDate.parse(text).atStartOfDay(ZoneOffset.UTC).toInstant().toEpochMilli());
+        } catch (DateTimeParseException e) {
+            throw new IllegalArgumentException("Línea " + lineNumber + ": fecha inválida '" + text + "'");
+        }
+    }
+
+    /**
+     * Separa una fila CSV por comas respetando comillas dobles ("" dentro de un valor entre comillas es una comilla)
+     */
+    private List<String> parseCsvLine(String line, long lineNumber) {
+        List<String> values = new ArrayList<>();
+        StringBuilder value = new StringBuilder();
+        boolean quoted = false;
+
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (quoted) {
+                if (c == '"' && i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                    value.append('"');
+                    i++;
+                } else if (c == '"') {
+                    quoted = false;
+                } else {
+                    value.append(c);
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == ',') {
+                values.add(value.toString());
+                value.setLength(0);
+            } else {
+                value.append(c);
+            }
+        }
+
+        if (quoted) {
+            throw new IllegalArgumentException("Línea " + lineNumber + ": comillas sin cerrar");
+        }
+        values.add(value.toString());
+        return values;
+    }
+
+    private SyncChanges toBatch(List<ImportItem> items) {
+        List<Expenses> gastos = new ArrayList<>();
+        List<ExtraIncome> ingresosExtra = new ArrayList<>();
+        for (ImportItem item : items) {
+            if (item.gasto() != null) {
+                gastos.add(item.gasto());
+            } else {
+                ingresosExtra.add(item.ingreso());
+            }
+        }
+
+        // Solo se envían las secciones con elementos, para no marcar como modificada la otra
+        return SyncChanges.builder()
+                .gastos(gastos.isEmpty() ? null : gastos)
+                .ingresosExtra(ingresosExtra.isEmpty() ? null : ingresosExtra)
+                .build();
+    }
+
+    private String stripBom(String line) {
+        return line.startsWith(BOM) ? line.substring(1) : line;
+    }
+}
@@ -0,0 +1,84 @@
+package dev.yerid.api;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Caché de las respuestas de descarga completa ya serializadas, comprimidas con gzip y guardadas
+ * en memoria directa (fuera del heap) para no aumentar las pausas del GC.
+ * Cada usuario guarda una sola copia asociada a la versión del documento; una versión distinta
+ * cuenta como fallo, por lo que las escrituras hechas desde otras instancias también la invalidan
+ */
+@Component
+public class RenderedDownloadCache {
+
+    private final Cache<String, Rendered> cache;
+
+    public RenderedDownloadCache(
+            MeterRegistry meterRegistry,
+            @Value("${sync.download-cache.max-bytes:268435456}") long maxBytes,
+            @Value("${sync.download-cache.expire-after-access:10m}") Duration expireAfterAccess) {
+        this.cache = Caffeine.newBuilder()
+                .maximumWeight(maxBytes)
+                .weigher((String userId, Rendered rendered) -> rendered.body().capacity())
+                .expireAfterAccess(expireAfterAccess)
+                .recordStats()
+                .build();
+
+        CaffeineCacheMetrics.monitor(meterRegistry, cache, "renderedDownload");
+    }
+
+    /**
+     * Devuelve una vista de solo lectura del cuerpo gzip para la versión indicada, o null si no está
+     */
+    public ByteBuffer get(String userId, long version) {
+        Rendered rendered = cache.getIfPresent(userId);
+        if (rendered == null || rendered.version() != version) {
+            return null;
+        }
+        return rendered.body().asReadOnlyBuffer();
+    }
+
+    /**
+     * Comprime el JSON y lo copia a memoria directa. Devuelve la vista de solo lectura guardada
+     */
+    public ByteBuffer put(String userId, long version, byte[] json) {
+        byte[] compressed = gzip(json);
+        ByteBuffer body = ByteBuffer.allocateDirect(compressed.length);
+        body.put(compressed).flip();
+
+        cache.put(userId, new Rendered(version, body));
+        return body.asReadOnlyBuffer();
+    }
+
+    /**
+     * Descarta la copia del usuario tras una sincronización ascendente
+     */
+    public void invalidate(String userId) {
+        cache.invalidate(userId);
+    }
+
+    private static byte[] gzip(byte[] json) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(json.length / 4, 64));
+        try (GZIPOutputStream gzip = new GZIPOutputStream(out)) {
+            gzip.write(json);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return out.toByteArray();
+    }
+
+    private record Rendered(long version, ByteBuffer body) {
+    }
+}
@@ -25,7 +25,10 @@ public class RouterRest {
 
                 // Rutas de sincronización
                 .andRoute(POST("/api/sync/upload"), syncHandler::uploadData)
+                .andRoute(POST("/api/sync/import"), syncHandler::importData)
                 .andRoute(GET("/api/sync/download"), syncHandler::downloadData)
+                .andRoute(GET("/api/sync/download/expenses"), syncHandler::downloadExpensesPage)
+                .andRoute(GET("/api/sync/stream"), syncHandler::streamChanges)
                 .andRoute(POST("/api/sync/close-session"), syncHandler::closeSession);
     }
 }
\ No newline at end of file
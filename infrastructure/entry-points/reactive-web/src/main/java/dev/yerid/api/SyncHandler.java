@@ -1,18 +1,40 @@
 package dev.yerid.api;
 
 import dev.yerid.api.config.RateLimiter;
-import dev.yerid.model.common.dto.SyncRequestDTO;
+import dev.yerid.api.config.SyncCodecsConfig;
 import dev.yerid.model.common.dto.SyncResponseDTO;
+import dev.yerid.model.financeManager.finance.FinanceManager;
+import dev.yerid.model.financeManager.finance.SyncChanges;
+import dev.yerid.model.financeManager.finance.SyncSection;
+import dev.yerid.usecase.sync.SyncNotificationUseCase;
 import dev.yerid.usecase.sync.SyncUseCase;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferFactory;
+import org.springframework.core.io.buffer.DataBufferLimitException;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.HttpStatusCode;
 import org.springframework.http.MediaType;
+import org.springframework.http.codec.ServerSentEvent;
 import org.springframework.stereotype.Component;
+import org.springframework.web.reactive.function.BodyExtractors;
+import org.springframework.web.reactive.function.BodyInserters;
 import org.springframework.web.reactive.function.server.ServerRequest;
 import org.springframework.web.reactive.function.server.ServerResponse;
+import org.springframework.web.server.ResponseStatusException;
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.logging.Logger;
+import java.util.zip.GZIPInputStream;
 
 /**
  * Manejador de endpoints para sincronización de datos entre cliente y servidor
@@ -20,16 +42,36 @@ import java.util.logging.Logger;
 @Component
 public class SyncHandler {
     private static final Logger logger = Logger.getLogger(SyncHandler.class.getName());
+    private static final int DEFAULT_EXPENSES_PAGE_SIZE = 200;
+    private static final Duration STREAM_HEARTBEAT = Duration.ofSeconds(25);
+    private static final String IDEMPOTENCY_KEY = "Idempotency-Key";
+    private static final String IDEMPOTENT_REPLAYED = "Idempotent-Replayed";
     private final SyncUseCase syncUseCase;
     private final RateLimiter rateLimiter;
-
-    public SyncHandler(SyncUseCase syncUseCase, RateLimiter rateLimiter) {
+    private final SyncStreamWriter streamWriter;
+    private final RenderedDownloadCache renderedCache;
+    private final SyncNotificationUseCase syncNotificationUseCase;
+    private final SyncRequestReader requestReader;
+    private final UploadIdempotencyCache idempotencyCache;
+    private final ImportRequestReader importReader;
+
+    public SyncHandler(SyncUseCase syncUseCase, RateLimiter rateLimiter, SyncStreamWriter streamWriter,
+                       RenderedDownloadCache renderedCache, SyncNotificationUseCase syncNotificationUseCase,
+                       SyncRequestReader requestReader, UploadIdempotencyCache idempotencyCache,
+                       ImportRequestReader importReader) {
         this.syncUseCase = syncUseCase;
         this.rateLimiter = rateLimiter;
+        this.streamWriter = streamWriter;
+        this.renderedCache = renderedCache;
+        this.syncNotificationUseCase = syncNotificationUseCase;
+        this.requestReader = requestReader;
+        this.idempotencyCache = idempotencyCache;
+        this.importReader = importReader;
     }
 
     /**
-     * Endpoint para recibir datos desde el cliente (sincronización ascendente)
+     * Endpoint para recibir datos desde el cliente (sincronización ascendente).
+     * Con el encabezado Idempotency-Key los reintentos de una subida ya completada no se vuelven a procesar
      */
     public Mono<ServerResponse> uploadData(ServerRequest request) {
         logger.info("Recibida solicitud para sincronizar datos");
@@ -42,25 +84,70 @@ public class SyncHandler {
 
         final String sessionToken = authToken;
 
-        return request.bodyToMono(SyncRequestDTO.class)
-                .doOnNext(dto -> logger.info("Recibida petición de sincronización de usuario: " + dto.getEmail() +
-                        ", datos: " + (dto.getData() != null ? dto.getData().size() : 0) + " elementos, " +
-                        "eliminados: " + (dto.getEliminados() != null ? dto.getEliminados().size() : 0) + " elementos"))
-                .flatMap(dto -> {
+        // Un reintento con la misma Idempotency-Key y el mismo cuerpo recibe la respuesta guardada sin procesarlo
+        String idempotencyKey = request.headers().firstHeader(IDEMPOTENCY_KEY);
+
+        return idempotencyCache.execute(sessionToken, idempotencyKey, request.body(BodyExtractors.toDataBuffers()),
+                        body -> processUpload(request, body, sessionToken))
+                .flatMap(stored -> {
+                    if (stored.replayed()) {
+                        logger.info("Subida repetida con Idempotency-Key, se devuelve la respuesta guardada");
+                    }
+                    return ServerResponse.status(stored.status())
+                            .contentType(stored.isSuccessful() ? negotiateMediaType(request) : MediaType.APPLICATION_JSON)
+                            .header(IDEMPOTENT_REPLAYED, String.valueOf(stored.replayed()))
+                            .bodyValue(stored.body());
+                })
+                .onErrorResume(error -> {
+                    logger.severe("Error al procesar sincronización: " + error.getMessage());
+                    // El filtro de compresión y el lector indican con el estado si el cuerpo es demasiado grande o inválido
+                    HttpStatusCode status = uploadErrorStatus(error);
+                    String message = error instanceof ResponseStatusException statusError && statusError.getReason() != null
+                            ? statusError.getReason() : String.valueOf(error.getMessage());
+                    return ServerResponse.status(status)
+                            .contentType(MediaType.APPLICATION_JSON)
+                            .bodyValue(Map.of(
+                                    "error", "Error al procesar sincronización",
+                                    "message", message
+                            ));
+                });
+    }
+
+    private HttpStatusCode uploadErrorStatus(Throwable error) {
+        if (error instanceof ResponseStatusException statusError) {
+            return statusError.getStatusCode();
+        }
+        if (error instanceof DataBufferLimitException) {
+            return HttpStatus.PAYLOAD_TOO_LARGE;
+        }
+        return HttpStatus.BAD_REQUEST;
+    }
+
+    /**
+     * Lee el cuerpo de la subida, aplica el límite de tasa y procesa los cambios
+     */
+    private Mono<UploadIdempotencyCache.StoredResponse> processUpload(ServerRequest request, Flux<DataBuffer> body,
+                                                                      String sessionToken) {
+        // El cuerpo se decodifica en streaming directamente a los elementos del dominio
+        return requestReader.read(body, request.headers().contentType().orElse(null))
+                .doOnNext(upload -> logger.info("Recibida petición de sincronización de usuario: " + upload.email() +
+                        ", secciones: " + upload.changes().sections()))
+                .flatMap(upload -> {
                     // Extrae datos de sincronización
-                    String email = dto.getEmail();
+                    String email = upload.email();
 
                     // Verificar límite de tasa para este usuario
                     return rateLimiter.isRateLimited(email)
                             .flatMap(isLimited -> {
                                 if (isLimited) {
                                     logger.warning("Límite de tasa excedido para usuario: " + email);
-                                    return ServerResponse.status(HttpStatus.TOO_MANY_REQUESTS)
-                                            .contentType(MediaType.APPLICATION_JSON)
-                                            .bodyValue(Map.of(
+                                    return Mono.just(new UploadIdempotencyCache.StoredResponse(
+                                            HttpStatus.TOO_MANY_REQUESTS.value(),
+                                            Map.of(
                                                     "error", "Demasiadas solicitudes",
                                                     "message", "Por favor, espere un momento antes de intentar de nuevo."
-                                            ));
+                                            ),
+                                            false));
                                 }
 
                                 // Verificar si es la sesión activa
@@ -70,33 +157,85 @@ public class SyncHandler {
                                     logger.info("Nueva sesión activa para usuario: " + email);
                                 }
 
-                                Map<String, Object> data = dto.getData();
-                                Map<String, Object> eliminados = dto.getEliminados();
-                                long timestamp = dto.getTimestamp();
+                                long timestamp = upload.timestamp();
 
                                 logger.info("Procesando datos para: " + email + " con timestamp: " + timestamp);
 
                                 // Usando el caso de uso refactorizado para procesar todos los datos en una operación
-                                return syncUseCase.processSyncData(email, data, eliminados, timestamp)
-                                        .then(Mono.just(Map.of(
-                                                "status", "success",
-                                                "timestamp", timestamp,
-                                                "sessionActive", true
-                                        )))
-                                        .flatMap(response -> ServerResponse.ok()
-                                                .contentType(MediaType.APPLICATION_JSON)
-                                                .bodyValue(response))
+                                return syncUseCase.processSyncChanges(email, upload.changes(), timestamp)
+                                        .doOnSuccess(result -> renderedCache.invalidate(email))
+                                        // Los elementos con versión obsoleta se devuelven para que el cliente los descargue;
+                                        // pendiente indica que la subida está en el diario y aún no en la base de datos
+                                        .map(result -> new UploadIdempotencyCache.StoredResponse(
+                                                HttpStatus.OK.value(),
+                                                Map.of(
+                                                        "status", "success",
+                                                        "timestamp", timestamp,
+                                                        "version", result.getVersion(),
+                                                        "rechazados", result.getRechazados(),
+                                                        "pendiente", result.isPendiente(),
+                                                        "sessionActive", true
+                                                ),
+                                                false))
                                         .doOnSuccess(resp -> logger.info("Datos sincronizados correctamente para: " + email));
                             });
-                })
-                .onErrorResume(error -> {
-                    logger.severe("Error al procesar sincronización: " + error.getMessage());
-                    return ServerResponse.badRequest()
-                            .contentType(MediaType.APPLICATION_JSON)
-                            .bodyValue(Map.of(
-                                    "error", "Error al procesar sincronización",
-                                    "message", error.getMessage()
-                            ));
+                });
+    }
+
+    /**
+     * Endpoint de importación de gastos e ingresos extra en NDJSON o CSV (text/csv), por ejemplo el
+     * historial de un banco. El cuerpo se lee por líneas y se escribe por lotes a medida que llega;
+     * el tipo indica si los registros sin campo tipo son gastos o ingresos. La respuesta es un flujo
+     * Server-Sent Events con un evento "progreso" tras cada lote escrito y "completado" al final;
+     * si la importación falla se envía "error" y los lotes anteriores quedan escritos
+     */
+    public Mono<ServerResponse> importData(ServerRequest request) {
+        String userId = request.queryParam("userId").orElse("");
+        String tipo = request.queryParam("tipo").orElse(null);
+
+        if (userId.isEmpty()) {
+            return ServerResponse.badRequest()
+                    .contentType(MediaType.APPLICATION_JSON)
+                    .bodyValue(Map.of("error", "El userId es requerido"));
+        }
+
+        return rateLimiter.isRateLimited(userId)
+                .flatMap(isLimited -> {
+                    if (isLimited) {
+                        logger.warning("Límite de tasa excedido para usuario: " + userId);
+                        return ServerResponse.status(HttpStatus.TOO_MANY_REQUESTS)
+                                .contentType(MediaType.APPLICATION_JSON)
+                                .bodyValue(Map.of(
+                                        "error", "Demasiadas solicitudes",
+                                        "message", "Por favor, espere un momento antes de intentar de nuevo."
+                                ));
+                    }
+
+                    logger.info("Recibida importación para usuario: " + userId);
+
+                    Flux<SyncChanges> batches = importReader.read(request.body(BodyExtractors.toDataBuffers()),
+                            request.headers().contentType().orElse(null), tipo, userId);
+
+                    Flux<ServerSentEvent<Object>> events = syncUseCase.importData(userId, batches)
+                            .doOnNext(progress -> renderedCache.invalidate(userId))
+                            .map(progress -> ServerSentEvent.<Object>builder()
+                                    .event(progress.isCompletado() ? "completado" : "progreso")
+                                    .id(String.valueOf(progress.getLotes()))
+                                    .data(progress)
+                                    .build())
+                            .onErrorResume(error -> {
+                                logger.severe("Error al importar datos para usuario " + userId + ": " + error.getMessage());
+                                return Flux.just(ServerSentEvent.<Object>builder()
+                                        .event("error")
+                                        .data(Map.of(
+                                                "error", "Error al importar datos",
+                                                "message", String.valueOf(error.getMessage())))
+                                        .build());
+                            });
+
+                    return ServerResponse.ok()
+                            .contentType(MediaType.TEXT_EVENT_STREAM)
+                            .body(BodyInserters.fromServerSentEvents(events));
                 });
     }
 
@@ -117,6 +256,11 @@ public class SyncHandler {
         // Obtener parámetros de la consulta
         String userId = request.queryParam("userId").orElse("");
         long since = request.queryParam("since").map(Long::parseLong).orElse(0L);
+        boolean stream = request.queryParam("stream").map(Boolean::parseBoolean).orElse(false);
+
+        // JSON, CBOR o Smile según el Accept; la caché y el streaming producen JSON directamente
+        MediaType mediaType = negotiateMediaType(request);
+        boolean json = MediaType.APPLICATION_JSON.equals(mediaType);
 
         if (userId.isEmpty()) {
             return ServerResponse.badRequest()
@@ -124,6 +268,16 @@ public class SyncHandler {
                     .bodyValue(Map.of("error", "El userId es requerido"));
         }
 
+        // Secciones solicitadas, por ejemplo sections=ObjetosGastos,PresupuestoLS (por defecto todas)
+        Set<SyncSection> sections;
+        try {
+            sections = SyncSection.parse(request.queryParam("sections").orElse(null));
+        } catch (IllegalArgumentException e) {
+            return ServerResponse.badRequest()
+                    .contentType(MediaType.APPLICATION_JSON)
+                    .bodyValue(Map.of("error", e.getMessage()));
+        }
+
         logger.info("Descargando datos para usuario: " + userId + " desde timestamp: " + since);
 
         // Verificar límite de tasa para este usuario
@@ -146,42 +300,27 @@ public class SyncHandler {
                         logger.info("Nueva sesión activa para usuario: " + userId);
                     }
 
-                    // Usando el caso de uso refactorizado para obtener todos los datos en una operación
-                    return syncUseCase.getUserData(userId, since)
-                            .map(data -> {
-                                SyncResponseDTO response = new SyncResponseDTO();
-                                response.setData(data);
-                                response.setTimestamp(System.currentTimeMillis());
-                                response.setSessionActive(true);
-
-                                // Log con información sobre la cantidad de datos enviados
-                                if (data != null) {
-                                    int totalItems = 0;
-                                    if (data.containsKey("ObjetosGastos") && data.get("ObjetosGastos") instanceof java.util.List) {
-                                        totalItems += ((java.util.List<?>) data.get("ObjetosGastos")).size();
-                                    }
-                                    if (data.containsKey("categorias") && data.get("categorias") instanceof java.util.List) {
-                                        totalItems += ((java.util.List<?>) data.get("categorias")).size();
-                                    }
-                                    if (data.containsKey("MetasAhorro") && data.get("MetasAhorro") instanceof java.util.List) {
-                                        totalItems += ((java.util.List<?>) data.get("MetasAhorro")).size();
-                                    }
-                                    if (data.containsKey("recordatorios") && data.get("recordatorios") instanceof java.util.List) {
-                                        totalItems += ((java.util.List<?>) data.get("recordatorios")).size();
-                                    }
-                                    if (data.containsKey("IngresosExtra") && data.get("IngresosExtra") instanceof java.util.List) {
-                                        totalItems += ((java.util.List<?>) data.get("IngresosExtra")).size();
-                                    }
-
-                                    logger.info("Enviando " + totalItems + " elementos en total al cliente para el usuario: " + userId);
+                    // Descarga condicional: si el cliente ya tiene esta versión no se lee ni se convierte el documento
+                    return syncUseCase.getDataVersion(userId)
+                            .flatMap(version -> {
+                                String eTag = toETag(version);
+                                if (matchesETag(request, eTag)) {
+                                    logger.info("Datos sin cambios (versión " + version + ") para usuario: " + userId);
+                                    return ServerResponse.status(HttpStatus.NOT_MODIFIED)
+                                            .eTag(eTag)
+                                            .build();
                                 }
 
-                                return response;
-                            })
-                            .flatMap(response -> ServerResponse.ok()
-                                    .contentType(MediaType.APPLICATION_JSON)
-                                    .bodyValue(response))
-                            .doOnSuccess(resp -> logger.info("Datos enviados correctamente a cliente para: " + userId));
+                                // La descarga completa se sirve desde la copia ya serializada de esta versión
+                                if (json && since == 0 && sections.containsAll(SyncSection.ALL)) {
+                                    return cachedUserData(request, userId, version, eTag);
+                                }
+
+                                if (json && stream) {
+                                    return streamUserData(request, userId, since, sections, version, eTag);
+                                }
+                                return bufferedUserData(userId, since, sections, version, eTag, mediaType);
+                            });
                 })
                 .onErrorResume(error -> {
                     logger.severe("Error al descargar datos: " + error.getMessage() + " - " + error.getClass().getName());
@@ -194,6 +333,350 @@ public class SyncHandler {
                 });
     }
 
+    /**
+     * Endpoint de avisos de cambios por Server-Sent Events. Al conectar se envía la versión actual
+     * ("version") y luego un evento "change" con la versión y las secciones modificadas cada vez que
+     * otro dispositivo sincroniza, para que el cliente descargue solo cuando hay cambios en lugar de
+     * consultar periódicamente. Un comentario cada 25 segundos mantiene viva la conexión
+     */
+    public Mono<ServerResponse> streamChanges(ServerRequest request) {
+        String userId = request.queryParam("userId").orElse("");
+
+        if (userId.isEmpty()) {
+            return ServerResponse.badRequest()
+                    .contentType(MediaType.APPLICATION_JSON)
+                    .bodyValue(Map.of("error", "El userId es requerido"));
+        }
+
+        return rateLimiter.isRateLimited(userId)
+                .flatMap(isLimited -> {
+                    if (isLimited) {
+                        logger.warning("Límite de tasa excedido para usuario: " + userId);
+                        return ServerResponse.status(HttpStatus.TOO_MANY_REQUESTS)
+                                .contentType(MediaType.APPLICATION_JSON)
+                                .bodyValue(Map.of(
+                                        "error", "Demasiadas solicitudes",
+                                        "message", "Por favor, espere un momento antes de intentar de nuevo."
+                                ));
+                    }
+
+                    logger.info("Dispositivo conectado al canal de cambios para usuario: " + userId);
+
+                    // Suscribirse antes de leer la versión para no perder cambios entre ambas operaciones
+                    Flux<ServerSentEvent<Object>> changes = syncNotificationUseCase.subscribe(userId)
+                            .map(event -> ServerSentEvent.<Object>builder()
+                                    .event("change")
+                                    .id(String.valueOf(event.getVersion()))
+                                    .data(Map.of(
+                                            "version", event.getVersion(),
+                                            "sections", event.getSections().stream().map(SyncSection::getClientKey).toList(),
+                                            "timestamp", event.getTimestamp()))
+                                    .build());
+
+                    Flux<ServerSentEvent<Object>> current = syncUseCase.getDataVersion(userId)
+                            .map(version -> ServerSentEvent.<Object>builder()
+                                    .event("version")
+                                    .id(String.valueOf(version))
+                                    .data(Map.of("version", version))
+                                    .build())
+                            .flux();
+
+                    Flux<ServerSentEvent<Object>> heartbeat = Flux.interval(STREAM_HEARTBEAT)
+                            .map(tick -> ServerSentEvent.<Object>builder().comment("ping").build());
+
+                    Flux<ServerSentEvent<Object>> events = Flux.merge(changes, current, heartbeat)
+                            .doFinally(signal -> logger.info("Dispositivo desconectado del canal de cambios para usuario: " + userId));
+
+                    return ServerResponse.ok()
+                            .contentType(MediaType.TEXT_EVENT_STREAM)
+                            .body(BodyInserters.fromServerSentEvents(events));
+                });
+    }
+
+    /**
+     * Endpoint de sincronización inicial paginada: devuelve ObjetosGastos por páginas ordenadas por
+     * fecha descendente. El cliente descarga el resto de secciones con sections, pide las páginas
+     * siguientes con el cursor recibido y al terminar hace una descarga incremental con since=lastSyncTimestamp.
+     * Con desde y/o hasta (milisegundos) solo se devuelven los gastos de ese rango de fechas
+     */
+    public Mono<ServerResponse> downloadExpensesPage(ServerRequest request) {
+        String userId = request.queryParam("userId").orElse("");
+        String cursor = request.queryParam("cursor").orElse(null);
+
+        if (userId.isEmpty()) {
+            return ServerResponse.badRequest()
+                    .contentType(MediaType.APPLICATION_JSON)
+                    .bodyValue(Map.of("error", "El userId es requerido"));
+        }
+
+        int limit;
+        Long desde;
+        Long hasta;
+        try {
+            limit = request.queryParam("limit").map(Integer::parseInt).orElse(DEFAULT_EXPENSES_PAGE_SIZE);
+            desde = request.queryParam("desde").map(Long::parseLong).orElse(null);
+            hasta = request.queryParam("hasta").map(Long::parseLong).orElse(null);
+        } catch (NumberFormatException e) {
+            return ServerResponse.badRequest()
+                    .contentType(MediaType.APPLICATION_JSON)
+                    .bodyValue(Map.of("error", "limit, desde y hasta deben ser números"));
+        }
+
+        // Cada página consulta la base de datos, así que todas cuentan; las que continúan una descarga
+        // (con cursor) usan un contador propio más amplio para no cortar el recorrido normal
+        Mono<Boolean> rateLimited = cursor == null ? rateLimiter.isRateLimited(userId) : rateLimiter.isPageRateLimited(userId);
+
+        return rateLimited
+                .flatMap(isLimited -> {
+                    if (isLimited) {
+                        logger.warning("Límite de tasa excedido para usuario: " + userId);
+                        return ServerResponse.status(HttpStatus.TOO_MANY_REQUESTS)
+                                .contentType(MediaType.APPLICATION_JSON)
+                                .bodyValue(Map.of(
+                                        "error", "Demasiadas solicitudes",
+                                        "message", "Por favor, espere un momento antes de intentar de nuevo."
+                                ));
+                    }
+
+                    return syncUseCase.getExpensesPage(userId, cursor, desde, hasta, limit)
+                            .flatMap(page -> {
+                                Map<String, Object> response = new LinkedHashMap<>();
+                                response.put("ObjetosGastos", page.getGastos());
+                                response.put("cursor", page.getCursor());
+                                response.put("hasMore", page.getCursor() != null);
+                                response.put("lastSyncTimestamp", page.getLastSyncTimestamp());
+
+                                return ServerResponse.ok()
+                                        .contentType(negotiateMediaType(request))
+                                        .header(HttpHeaders.VARY, HttpHeaders.ACCEPT)
+                                        .bodyValue(response);
+                            });
+                })
+                .onErrorResume(error -> {
+                    logger.severe("Error al descargar página de gastos: " + error.getMessage());
+                    return ServerResponse.badRequest()
+                            .contentType(MediaType.APPLICATION_JSON)
+                            .bodyValue(Map.of(
+                                    "error", "Error al descargar página de gastos",
+                                    "message", error.getMessage()
+                            ));
+                });
+    }
+
+    /**
+     * Responde la descarga con el cuerpo completo serializado por Jackson en el formato negociado
+     */
+    private Mono<ServerResponse> bufferedUserData(String userId, long since, Set<SyncSection> sections, long version,
+                                                  String eTag, MediaType mediaType) {
+        // El ETag sale del documento leído: si hubo una escritura tras leer la versión, el cuerpo ya la incluye
+        return syncUseCase.getUserSnapshot(userId, since, sections, version)
+                .flatMap(financeManager -> {
+                    Map<String, Object> data = syncUseCase.toUserData(financeManager, since, sections);
+                    SyncResponseDTO response = new SyncResponseDTO();
+                    response.setData(data);
+                    response.setTimestamp(resolveResponseTimestamp(data));
+                    response.setSessionActive(true);
+
+                    // Log con información sobre la cantidad de datos enviados
+                    if (data != null) {
+                        int totalItems = 0;
+                        if (data.containsKey("ObjetosGastos") && data.get("ObjetosGastos") instanceof java.util.List) {
+                            totalItems += ((java.util.List<?>) data.get("ObjetosGastos")).size();
+                        }
+                        if (data.containsKey("categorias") && data.get("categorias") instanceof java.util.List) {
+                            totalItems += ((java.util.List<?>) data.get("categorias")).size();
+                        }
+                        if (data.containsKey("MetasAhorro") && data.get("MetasAhorro") instanceof java.util.List) {
+                            totalItems += ((java.util.List<?>) data.get("MetasAhorro")).size();
+                        }
+                        if (data.containsKey("recordatorios") && data.get("recordatorios") instanceof java.util.List) {
+                            totalItems += ((java.util.List<?>) data.get("recordatorios")).size();
+                        }
+                        if (data.containsKey("IngresosExtra") && data.get("IngresosExtra") instanceof java.util.List) {
+                            totalItems += ((java.util.List<?>) data.get("IngresosExtra")).size();
+                        }
+
+                        logger.info("Enviando " + totalItems + " elementos en total al cliente para el usuario: " + userId);
+                    }
+
+                    return ServerResponse.ok()
+                            .contentType(mediaType)
+                            .eTag(snapshotETag(financeManager, eTag))
+                            .header(HttpHeaders.VARY, HttpHeaders.ACCEPT)
+                            .bodyValue(response);
+                })
+                .doOnSuccess(resp -> logger.info("Datos enviados correctamente a cliente para: " + userId));
+    }
+
+    /**
+     * Escribe la respuesta de descarga en streaming, elemento por elemento, sin bufferizarla completa
+     */
+    private Mono<ServerResponse> streamUserData(ServerRequest request, String userId, long since,
+                                                Set<SyncSection> sections, long version, String eTag) {
+        DataBufferFactory bufferFactory = request.exchange().getResponse().bufferFactory();
+
+        return syncUseCase.getUserSnapshot(userId, since, sections, version)
+                .flatMap(financeManager -> {
+                    boolean delta = syncUseCase.isDelta(financeManager, since);
+                    long timestamp = snapshotTimestamp(financeManager);
+
+                    return ServerResponse.ok()
+                            .contentType(MediaType.APPLICATION_JSON)
+                            .eTag(snapshotETag(financeManager, eTag))
+                            .body(BodyInserters.fromDataBuffers(
+                                    streamWriter.write(financeManager, sections, delta, timestamp, bufferFactory)));
+                })
+                .doOnSuccess(resp -> logger.info("Datos enviados en streaming a cliente para: " + userId));
+    }
+
+    /**
+     * Responde la descarga completa desde la caché de respuestas serializadas, generándola si falta.
+     * Si el cliente acepta gzip se envían los bytes comprimidos tal cual; si no, se descomprimen al escribir.
+     * El timestamp de la respuesta es la marca del documento leído, válida mientras no cambie la versión
+     */
+    private Mono<ServerResponse> cachedUserData(ServerRequest request, String userId, long version, String eTag) {
+        DataBufferFactory bufferFactory = request.exchange().getResponse().bufferFactory();
+
+        return Mono.justOrEmpty(renderedCache.get(userId, version))
+                .doOnNext(body -> logger.info("Descarga completa servida desde caché (versión " + version + ") para usuario: " + userId))
+                .map(body -> new RenderedBody(eTag, body))
+                .switchIfEmpty(Mono.defer(() -> renderFullDownload(userId, version)))
+                .flatMap(rendered -> {
+                    ByteBuffer body = rendered.body();
+                    ServerResponse.BodyBuilder response = ServerResponse.ok()
+                            .contentType(MediaType.APPLICATION_JSON)
+                            .eTag(rendered.eTag())
+                            .header(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+
+                    if (acceptsGzip(request)) {
+                        return response
+                                .header(HttpHeaders.CONTENT_ENCODING, "gzip")
+                                .contentLength(body.remaining())
+                                .body(BodyInserters.fromDataBuffers(
+                                        Mono.fromSupplier(() -> bufferFactory.wrap(body.duplicate()))));
+                    }
+
+                    return response.body(BodyInserters.fromDataBuffers(DataBufferUtils.readInputStream(
+                            () -> new GZIPInputStream(DefaultDataBufferFactory.sharedInstance.wrap(body.duplicate()).asInputStream()),
+                            bufferFactory, 8192)));
+                });
+    }
+
+    /**
+     * Serializa la descarga completa con el SyncStreamWriter y la guarda en la caché bajo la versión
+     * del documento leído, que es también la que se anuncia en el ETag. El documento se lee con al
+     * menos la versión consultada, así una copia en caché anterior no se vuelve a servir
+     */
+    private Mono<RenderedBody> renderFullDownload(String userId, long version) {
+        return syncUseCase.getUserSnapshot(userId, 0L, SyncSection.ALL, version)
+                .flatMap(financeManager -> DataBufferUtils.join(streamWriter.write(financeManager, SyncSection.ALL, false,
+                                snapshotTimestamp(financeManager), DefaultDataBufferFactory.sharedInstance))
+                        .map(joined -> {
+                            byte[] json = new byte[joined.readableByteCount()];
+                            joined.read(json);
+                            DataBufferUtils.release(joined);
+
+                            // Si hubo una escritura entre la lectura de la versión y la del documento, manda la del documento
+                            long renderedVersion = financeManager.getVersion() != null ? financeManager.getVersion() : version;
+                            return new RenderedBody(toETag(renderedVersion), renderedCache.put(userId, renderedVersion, json));
+                        }));
+    }
+
+    /**
+     * Cuerpo gzip de la descarga completa junto con el ETag de la versión que contiene
+     */
+    private record RenderedBody(String eTag, ByteBuffer body) {
+    }
+
+    /**
+     * ETag de la versión del documento realmente leído; si no la trae se usa el de la versión consultada antes
+     */
+    private String snapshotETag(FinanceManager financeManager, String fallback) {
+        return financeManager.getVersion() != null ? toETag(financeManager.getVersion()) : fallback;
+    }
+
+    /**
+     * Elige el formato de la respuesta según el Accept: el de mayor calidad entre JSON, CBOR y Smile.
+     * Sin Accept, con comodines o con tipos no soportados se responde JSON
+     */
+    private MediaType negotiateMediaType(ServerRequest request) {
+        List<MediaType> accepted = request.headers().accept();
+        MediaType selected = MediaType.APPLICATION_JSON;
+        double selectedQuality = -1;
+
+        for (MediaType candidate : accepted) {
+            if (candidate.isWildcardType() || candidate.isWildcardSubtype() || candidate.getQualityValue() <= selectedQuality) {
+                continue;
+            }
+            for (MediaType supported : SyncCodecsConfig.SYNC_MEDIA_TYPES) {
+                if (supported.isCompatibleWith(candidate)) {
+                    selected = supported;
+                    selectedQuality = candidate.getQualityValue();
+                    break;
+                }
+            }
+        }
+
+        return selectedQuality > 0 ? selected : MediaType.APPLICATION_JSON;
+    }
+
+    private boolean acceptsGzip(ServerRequest request) {
+        for (String header : request.headers().header(HttpHeaders.ACCEPT_ENCODING)) {
+            for (String token : header.split(",")) {
+                String[] parts = token.trim().toLowerCase().split(";");
+                if (parts[0].trim().equals("gzip") && (parts.length == 1 || !parts[1].trim().matches("q=0(\\.0*)?"))) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * ETag débil derivado de la versión del documento
+     */
+    private String toETag(long version) {
+        return "W/\"" + version + "\"";
+    }
+
+    /**
+     * Compara el If-None-Match del cliente con el ETag actual (comparación débil)
+     */
+    private boolean matchesETag(ServerRequest request, String eTag) {
+        String current = stripWeakPrefix(eTag);
+        for (String header : request.headers().header(HttpHeaders.IF_NONE_MATCH)) {
+            for (String candidate : header.split(",")) {
+                String value = candidate.trim();
+                if (value.equals("*") || stripWeakPrefix(value).equals(current)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private String stripWeakPrefix(String eTag) {
+        return eTag.startsWith("W/") ? eTag.substring(2) : eTag;
+    }
+
+    /**
+     * El timestamp de respuesta es la marca del documento leído, tanto en la descarga completa como
+     * en la incremental, para que el cliente la use como since sin perder cambios confirmados entre
+     * la lectura y la respuesta. La hora actual solo se usa si el documento no tiene marca
+     */
+    private long resolveResponseTimestamp(Map<String, Object> data) {
+        if (data != null && data.get("lastSyncTimestamp") instanceof Long lastSync) {
+            return lastSync;
+        }
+        return System.currentTimeMillis();
+    }
+
+    private long snapshotTimestamp(FinanceManager financeManager) {
+        return financeManager.getLastSyncTimestamp() != null
+                ? financeManager.getLastSyncTimestamp()
+                : System.currentTimeMillis();
+    }
+
     /**
      * Endpoint para cerrar sesión explícitamente
      */
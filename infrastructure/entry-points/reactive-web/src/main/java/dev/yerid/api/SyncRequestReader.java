@@ -0,0 +1,407 @@
+package dev.yerid.api;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import dev.yerid.api.config.SyncCodecsConfig;
+import dev.yerid.model.financeManager.categories.Categories;
+import dev.yerid.model.financeManager.expenses.Expenses;
+import dev.yerid.model.financeManager.extraincome.ExtraIncome;
+import dev.yerid.model.financeManager.finance.FinanceManager;
+import dev.yerid.model.financeManager.finance.SyncChanges;
+import dev.yerid.model.financeManager.reminder.Reminder;
+import dev.yerid.model.financeManager.savingsgoal.SavingsGoal;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Lee el cuerpo de la sincronización ascendente token a token y construye directamente los
+ * elementos del dominio, sin pasar por el Map genérico de SyncRequestDTO. Acepta JSON, CBOR y Smile
+ * con la misma forma: {"email":"...","timestamp":...,"data":{...},"eliminados":{...}}.
+ * Los valores se interpretan con la misma tolerancia que el mapa (números como texto, fechas ISO)
+ * y los campos desconocidos se omiten.
+ * El cuerpo no se decodifica a medida que llega: se acumula completo (acotado por
+ * sync.upload.max-request-size) y después se recorre con un parser bloqueante sobre esos bytes. El
+ * lector es recursivo y el parser no bloqueante de Jackson obligaría a reescribirlo como máquina de
+ * estados, además de no existir para CBOR; lo que se evita es el árbol intermedio, no el buffer
+ */
+@Component
+public class SyncRequestReader {
+
+    private final JsonFactory jsonFactory;
+    private final JsonFactory cborFactory = new CBORFactory();
+    private final JsonFactory smileFactory = new SmileFactory();
+    private final int maxRequestSize;
+
+    public SyncRequestReader(ObjectMapper objectMapper,
+                             @Value("${sync.upload.max-request-size:33554432}") int maxRequestSize) {
+        this.jsonFactory = objectMapper.getFactory();
+        this.maxRequestSize = maxRequestSize;
+    }
+
+    /**
+     * Petición de sincronización ya tipada
+     */
+    public record Upload(String email, long timestamp, SyncChanges changes) {
+    }
+
+    /**
+     * Acumula el cuerpo completo y lo decodifica. Si supera maxRequestSize el join falla con
+     * DataBufferLimitException, que el handler responde con 413
+     */
+    public Mono<Upload> read(Flux<DataBuffer> body, MediaType contentType) {
+        JsonFactory factory = factoryFor(contentType);
+
+        return DataBufferUtils.join(body, maxRequestSize)
+                .map(buffer -> {
+                    try (InputStream input = buffer.asInputStream(true);
+                         JsonParser parser = factory.createParser(input)) {
+                        return readUpload(parser);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+    }
+
+    private JsonFactory factoryFor(MediaType contentType) {
+        if (contentType != null && MediaType.APPLICATION_CBOR.isCompatibleWith(contentType)) {
+            return cborFactory;
+        }
+        if (contentType != null && SyncCodecsConfig.APPLICATION_SMILE.isCompatibleWith(contentType)) {
+            return smileFactory;
+        }
+        return jsonFactory;
+    }
+
+    private Upload readUpload(JsonParser parser) throws IOException {
+        if (parser.nextToken() != JsonToken.START_OBJECT) {
+            throw new IOException("Se esperaba un objeto JSON en la petición de sincronización");
+        }
+
+        String email = null;
+        long timestamp = 0L;
+        SyncChanges changes = new SyncChanges();
+
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.currentName();
+            parser.nextToken();
+            switch (field) {
+                case "email" -> email = readString(parser);
+                case "timestamp" -> timestamp = readLong(parser, 0L);
+                case "data" -> readData(parser, changes);
+                case "eliminados" -> changes.setEliminados(readEliminados(parser));
+                default -> parser.skipChildren();
+            }
+        }
+
+        return new Upload(email, timestamp, changes);
+    }
+
+    private void readData(JsonParser parser, SyncChanges changes) throws IOException {
+        if (parser.currentToken() != JsonToken.START_OBJECT) {
+            parser.skipChildren();
+            return;
+        }
+
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.currentName();
+            parser.nextToken();
+            switch (field) {
+                case "PresupuestoLS" -> changes.setPresupuesto(readDouble(parser, 0.0));
+                case "lastVisitedRoute" -> changes.setLastVisitedRoute(readString(parser));
+                case "sessionId" -> changes.setSessionId(readString(parser));
+                case "dataImportTimestamp" -> changes.setDataImportTimestamp(readLong(parser, null));
+                case "ObjetosGastos" -> changes.setGastos(readList(parser, this::readExpense));
+                case "categorias" -> changes.setCategorias(readList(parser, this::readCategory));
+                case "MetasAhorro" -> changes.setMetasAhorro(readList(parser, this::readSavingsGoal));
+                case "recordatorios" -> changes.setRecordatorios(readList(parser, this::readReminder));
+                case "IngresosExtra" -> changes.setIngresosExtra(readList(parser, this::readExtraIncome));
+                default -> parser.skipChildren();
+            }
+        }
+    }
+
+    private FinanceManager.EliminadosInfo readEliminados(JsonParser parser) throws IOException {
+        if (parser.currentToken() != JsonToken.START_OBJECT) {
+            parser.skipChildren();
+            return null;
+        }
+
+        FinanceManager.EliminadosInfo eliminados = new FinanceManager.EliminadosInfo();
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.currentName();
+            parser.nextToken();
+            switch (field) {
+                case "ObjetosGastos" -> eliminados.setGastos(readIds(parser));
+                case "categorias" -> eliminados.setCategorias(readIds(parser));
+                case "MetasAhorro" -> eliminados.setMetasAhorro(readIds(parser));
+                case "recordatorios" -> eliminados.setRecordatorios(readIds(parser));
+                case "IngresosExtra" -> eliminados.setIngresosExtra(readIds(parser));
+                default -> parser.skipChildren();
+            }
+        }
+        return eliminados;
+    }
+
+    /**
+     * Lee un gasto a partir de su START_OBJECT; también lo usa la importación por líneas
+     */
+    Expenses readExpense(JsonParser parser) throws IOException {
+        Expenses.ExpensesBuilder gasto = Expenses.builder();
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.currentName();
+            parser.nextToken();
+            switch (field) {
+                case "id" -> gasto.id(readString(parser));
+                case "version" -> gasto.version(readLong(parser, null));
+                case "nombreG" -> gasto.nombreG(readString(parser));
+                case "gasto" -> gasto.gasto(readDouble(parser, 0.0));
+                case "categoria" -> gasto.categoria(readString(parser));
+                case "fecha" -> gasto.fecha(readFecha(parser));
+                case "origen" -> gasto.origen(readString(parser));
+                case "recordatorioId" -> gasto.recordatorioId(readString(parser));
+                default -> parser.skipChildren();
+            }
+        }
+        return gasto.build();
+    }
+
+    private Categories readCategory(JsonParser parser) throws IOException {
+        Categories.CategoriesBuilder categoria = Categories.builder();
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.currentName();
+            parser.nextToken();
+            switch (field) {
+                case "id" -> categoria.id(readString(parser));
+                case "version" -> categoria.version(readLong(parser, null));
+                case "nombre" -> categoria.nombre(readString(parser));
+                case "icono" -> categoria.icono(readString(parser));
+                case "color" -> categoria.color(readString(parser));
+                default -> parser.skipChildren();
+            }
+        }
+        return categoria.build();
+    }
+
+    private SavingsGoal readSavingsGoal(JsonParser parser) throws IOException {
+        SavingsGoal.SavingsGoalBuilder meta = SavingsGoal.builder();
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.currentName();
+            parser.nextToken();
+            switch (field) {
+                case "id" -> meta.id(readString(parser));
+                case "version" -> meta.version(readLong(parser, null));
+                case "nombre" -> meta.nombre(readString(parser));
+                case "monto" -> meta.monto(readDouble(parser, 0.0));
+                case "fechaObjetivo" -> meta.fechaObjetivo(readString(parser));
+                case "descripcion" -> meta.descripcion(readString(parser));
+                case "creada" -> meta.creada(readLong(parser, null));
+                case "ahorroAcumulado" -> meta.ahorroAcumulado(readDouble(parser, 0.0));
+                case "ahorroSemanal" -> meta.ahorroSemanal(readDouble(parser, 0.0));
+                case "ahorroMensual" -> meta.ahorroMensual(readDouble(parser, 0.0));
+                case "ahorroAnual" -> meta.ahorroAnual(readDouble(parser, 0.0));
+                case "diasRestantes" -> meta.diasRestantes(readInt(parser, 0));
+                case "completada" -> meta.completada(readBoolean(parser, false));
+                default -> parser.skipChildren();
+            }
+        }
+        return meta.build();
+    }
+
+    private Reminder readReminder(JsonParser parser) throws IOException {
+        Reminder.ReminderBuilder recordatorio = Reminder.builder();
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.currentName();
+            parser.nextToken();
+            switch (field) {
+                case "id" -> recordatorio.id(readString(parser));
+                case "version" -> recordatorio.version(readLong(parser, null));
+                case "titulo" -> recordatorio.titulo(readString(parser));
+                case "descripcion" -> recordatorio.descripcion(readString(parser));
+                case "monto" -> recordatorio.monto(readDouble(parser, 0.0));
+                case "fechaVencimiento" -> recordatorio.fechaVencimiento(readLong(parser, null));
+                case "categoria" -> recordatorio.categoria(readString(parser));
+                case "esRecurrente" -> recordatorio.esRecurrente(readBoolean(parser, false));
+                case "frecuencia" -> recordatorio.frecuencia(readString(parser));
+                case "diasAnticipacion" -> recordatorio.diasAnticipacion(readInt(parser, 0));
+                case "fechaCreacion" -> recordatorio.fechaCreacion(readLong(parser, null));
+                case "estado" -> recordatorio.estado(readString(parser));
+                default -> parser.skipChildren();
+            }
+        }
+        return recordatorio.build();
+    }
+
+    /**
+     * Lee un ingreso extra a partir de su START_OBJECT; también lo usa la importación por líneas
+     */
+    ExtraIncome readExtraIncome(JsonParser parser) throws IOException {
+        ExtraIncome.ExtraIncomeBuilder ingreso = ExtraIncome.builder();
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.currentName();
+            parser.nextToken();
+            switch (field) {
+                case "id" -> ingreso.id(readString(parser));
+                case "version" -> ingreso.version(readLong(parser, null));
+                case "monto" -> ingreso.monto(readDouble(parser, 0.0));
+                case "descripcion" -> ingreso.descripcion(readString(parser));
+                case "fecha" -> ingreso.fecha(readLong(parser, null));
+                default -> parser.skipChildren();
+            }
+        }
+        return ingreso.build();
+    }
+
+    @FunctionalInterface
+    private interface ItemReader<T> {
+        T read(JsonParser parser) throws IOException;
+    }
+
+    /**
+     * Lee un arreglo de objetos; los elementos que no son objetos se omiten
+     */
+    private <T> List<T> readList(JsonParser parser, ItemReader<T> reader) throws IOException {
+        List<T> items = new ArrayList<>();
+        if (parser.currentToken() != JsonToken.START_ARRAY) {
+            parser.skipChildren();
+            return items;
+        }
+
+        while (parser.nextToken() != JsonToken.END_ARRAY) {
+            if (parser.currentToken() == JsonToken.START_OBJECT) {
+                items.add(reader.read(parser));
+            } else {
+                parser.skipChildren();
+            }
+        }
+        return items;
+    }
+
+    private List<String> readIds(JsonParser parser) throws IOException {
+        List<String> ids = new ArrayList<>();
+        if (parser.currentToken() != JsonToken.START_ARRAY) {
+            parser.skipChildren();
+            return ids;
+        }
+
+        while (parser.nextToken() != JsonToken.END_ARRAY) {
+            String id = readString(parser);
+            if (id != null) {
+                ids.add(id);
+            }
+        }
+        return ids;
+    }
+
+    private String readString(JsonParser parser) throws IOException {
+        JsonToken token = parser.currentToken();
+        if (token == JsonToken.VALUE_NULL) {
+            return null;
+        }
+        if (token.isScalarValue()) {
+            return parser.getValueAsString();
+        }
+        parser.skipChildren();
+        return null;
+    }
+
+    private double readDouble(JsonParser parser, double defaultValue) throws IOException {
+        JsonToken token = parser.currentToken();
+        if (token.isNumeric()) {
+            return parser.getDoubleValue();
+        }
+        if (token == JsonToken.VALUE_STRING) {
+            try {
+                return Double.parseDouble(parser.getText());
+            } catch (NumberFormatException e) {
+                return defaultValue;
+            }
+        }
+        parser.skipChildren();
+        return defaultValue;
+    }
+
+    private int readInt(JsonParser parser, int defaultValue) throws IOException {
+        JsonToken token = parser.currentToken();
+        if (token.isNumeric()) {
+            return parser.getValueAsInt();
+        }
+        if (token == JsonToken.VALUE_STRING) {
+            try {
+                return Integer.parseInt(parser.getText());
+            } catch (NumberFormatException e) {
+                return defaultValue;
+            }
+        }
+        parser.skipChildren();
+        return defaultValue;
+    }
+
+    private Long readLong(JsonParser parser, Long defaultValue) throws IOException {
+        JsonToken token = parser.currentToken();
+        if (token.isNumeric()) {
+            return parser.getValueAsLong();
+        }
+        if (token == JsonToken.VALUE_STRING) {
+            try {
+                return Long.parseLong(parser.getText());
+            } catch (NumberFormatException e) {
+                return defaultValue;
+            }
+        }
+        parser.skipChildren();
+        return defaultValue;
+    }
+
+    private boolean readBoolean(JsonParser parser, boolean defaultValue) throws IOException {
+        JsonToken token = parser.currentToken();
+        if (token.isBoolean()) {
+            return parser.getBooleanValue();
+        }
+        if (token == JsonToken.VALUE_STRING) {
+            return Boolean.parseBoolean(parser.getText());
+        }
+        parser.skipChildren();
+        return defaultValue;
+    }
+
+    /**
+     * Fecha como milisegundos (número o texto) o como fecha ISO; si no se puede interpretar se usa la hora actual
+     */
+    private Long readFecha(JsonParser parser) throws IOException {
+        JsonToken token = parser.currentToken();
+        if (token.isNumeric()) {
+            return parser.getValueAsLong();
+        }
+        if (token == JsonToken.VALUE_STRING) {
+            String fecha = parser.getText();
+            try {
+                return Long.parseLong(fecha);
+            } catch (NumberFormatException e) {
+                try {
+                    return Instant.parse(fecha).toEpochMilli();
+                } catch (DateTimeParseException ex) {
+                    return System.currentTimeMillis();
+                }
+            }
+        }
+        parser.skipChildren();
+        return System.currentTimeMillis();
+    }
+}
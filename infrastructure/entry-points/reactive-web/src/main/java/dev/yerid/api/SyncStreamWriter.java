@@ -0,0 +1,152 @@
+package dev.yerid.api;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import dev.yerid.model.financeManager.finance.FinanceManager;
+import dev.yerid.model.financeManager.finance.SyncSection;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferFactory;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Escribe la respuesta de descarga como un flujo de DataBuffer, sección por sección y
+ * elemento por elemento, directamente desde el FinanceManager y sin construir el Map
+ * intermedio ni el SyncResponseDTO. El JSON resultante tiene la misma forma que la
+ * respuesta bufferizada: {"data":{...},"timestamp":...,"sessionActive":true}
+ */
+@Component
+public class SyncStreamWriter {
+
+    private final ObjectMapper objectMapper;
+
+    public SyncStreamWriter(ObjectMapper objectMapper) {
+        this.objectMapper = objectMapper;
+    }
+
+    /**
+     * Genera el cuerpo de la respuesta con las secciones indicadas.
+     * Con delta solo se escriben las secciones con cambios
+     */
+    public Flux<DataBuffer> write(FinanceManager financeManager, Set<SyncSection> sections, boolean delta,
+                                  long timestamp, DataBufferFactory factory) {
+        List<Flux<DataBuffer>> parts = new ArrayList<>();
+        parts.add(literal("{\"data\":{\"delta\":" + delta, factory));
+
+        if (sections.contains(SyncSection.PRESUPUESTO)) {
+            if (financeManager.getPresupuesto() != null) {
+                parts.add(field("PresupuestoLS", financeManager.getPresupuesto().getMonto(), factory));
+            } else if (!delta) {
+                parts.add(field("PresupuestoLS", 0.0, factory));
+            }
+        }
+
+        addSection(parts, sections, SyncSection.GASTOS, values(financeManager.getGastos()), delta, factory);
+        addSection(parts, sections, SyncSection.METAS_AHORRO, values(financeManager.getMetasAhorro()), delta, factory);
+        addSection(parts, sections, SyncSection.CATEGORIAS, values(financeManager.getCategorias()), delta, factory);
+        addSection(parts, sections, SyncSection.RECORDATORIOS, values(financeManager.getRecordatorios()), delta, factory);
+        addSection(parts, sections, SyncSection.INGRESOS_EXTRA, values(financeManager.getIngresosExtra()), delta, factory);
+
+        parts.add(field("lastSyncTimestamp", financeManager.getLastSyncTimestamp(), factory));
+
+        if (!delta) {
+            addIfPresent(parts, "lastVisitedRoute", financeManager.getLastVisitedRoute(), factory);
+            addIfPresent(parts, "sessionId", financeManager.getSessionId(), factory);
+            addIfPresent(parts, "dataImportTimestamp", financeManager.getDataImportTimestamp(), factory);
+        }
+
+        addEliminados(parts, financeManager.getEliminados(), sections, delta, factory);
+
+        parts.add(literal("},\"timestamp\":" + timestamp + ",\"sessionActive\":true}", factory));
+
+        return Flux.concat(parts);
+    }
+
+    private void addSection(List<Flux<DataBuffer>> parts, Set<SyncSection> sections, SyncSection section,
+                            Collection<?> items, boolean delta, DataBufferFactory factory) {
+        if (!sections.contains(section) || (delta && items.isEmpty())) {
+            return;
+        }
+
+        // Cada elemento se serializa solo cuando el cliente lo demanda
+        parts.add(Flux.concat(
+                literal(",\"" + section.getClientKey() + "\":[", factory),
+                Flux.fromIterable(items)
+                        .index()
+                        .map(indexed -> toBuffer(indexed.getT1() == 0 ? "" : ",", indexed.getT2(), factory)),
+                literal("]", factory)));
+    }
+
+    private void addEliminados(List<Flux<DataBuffer>> parts, FinanceManager.EliminadosInfo eliminados,
+                               Set<SyncSection> sections, boolean delta, DataBufferFactory factory) {
+        if (eliminados == null) {
+            return;
+        }
+
+        Map<String, List<String>> ids = new LinkedHashMap<>();
+        putIfRequested(ids, sections, SyncSection.GASTOS, eliminados.getGastos());
+        putIfRequested(ids, sections, SyncSection.CATEGORIAS, eliminados.getCategorias());
+        putIfRequested(ids, sections, SyncSection.METAS_AHORRO, eliminados.getMetasAhorro());
+        putIfRequested(ids, sections, SyncSection.RECORDATORIOS, eliminados.getRecordatorios());
+        putIfRequested(ids, sections, SyncSection.INGRESOS_EXTRA, eliminados.getIngresosExtra());
+        if (delta) {
+            ids.values().removeIf(list -> list == null || list.isEmpty());
+            if (ids.isEmpty()) {
+                return;
+            }
+        }
+
+        parts.add(Flux.from(value(",\"eliminados\":", ids, factory)));
+    }
+
+    private void putIfRequested(Map<String, List<String>> ids, Set<SyncSection> sections, SyncSection section, List<String> values) {
+        if (sections.contains(section)) {
+            ids.put(section.getClientKey(), values);
+        }
+    }
+
+    private void addIfPresent(List<Flux<DataBuffer>> parts, String key, Object value, DataBufferFactory factory) {
+        if (value != null) {
+            parts.add(field(key, value, factory));
+        }
+    }
+
+    private Flux<DataBuffer> field(String key, Object value, DataBufferFactory factory) {
+        return Flux.from(value(",\"" + key + "\":", value, factory));
+    }
+
+    private Mono<DataBuffer> value(String prefix, Object value, DataBufferFactory factory) {
+        return Mono.fromCallable(() -> toBuffer(prefix, value, factory));
+    }
+
+    private Flux<DataBuffer> literal(String json, DataBufferFactory factory) {
+        return Flux.defer(() -> Flux.just(factory.wrap(json.getBytes(StandardCharsets.UTF_8))));
+    }
+
+    private DataBuffer toBuffer(String prefix, Object value, DataBufferFactory factory) {
+        try {
+            byte[] prefixBytes = prefix.getBytes(StandardCharsets.UTF_8);
+            byte[] json = objectMapper.writeValueAsBytes(value);
+            DataBuffer buffer = factory.allocateBuffer(prefixBytes.length + json.length);
+            buffer.write(prefixBytes);
+            buffer.write(json);
+            return buffer;
+        } catch (JsonProcessingException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private Collection<?> values(Map<String, ?> items) {
+        return items != null ? items.values() : List.of();
+    }
+}
@@ -0,0 +1,244 @@
+package dev.yerid.api;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import dev.yerid.api.config.RateLimiter;
+import dev.yerid.model.financeManager.finance.SyncChangeEvent;
+import dev.yerid.model.financeManager.finance.SyncSection;
+import dev.yerid.usecase.sync.SyncNotificationUseCase;
+import dev.yerid.usecase.sync.SyncUseCase;
+import org.springframework.stereotype.Component;
+import org.springframework.web.reactive.socket.CloseStatus;
+import org.springframework.web.reactive.socket.WebSocketHandler;
+import org.springframework.web.reactive.socket.WebSocketMessage;
+import org.springframework.web.reactive.socket.WebSocketSession;
+import org.springframework.web.util.UriComponentsBuilder;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.io.UncheckedIOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Logger;
+
+/**
+ * Sesión de sincronización bidireccional sobre WebSocket en /api/sync/ws?userId=...&since=...
+ * La autenticación y el registro de sesión se hacen una sola vez al conectar; el límite de tasa se aplica
+ * al conectar y a cada upload o pull del cliente, que responde con error si se excede.
+ * Mensajes del cliente (JSON):
+ *  - {"type":"upload","id":"...","data":{...},"eliminados":{...},"timestamp":...} procesado con SyncUseCase.processSyncData,
+ *    respondido con {"type":"ack","id":"...","timestamp":...,"version":...,"rechazados":{...}} o {"type":"error","id":"...","message":"..."}
+ *  - {"type":"pull","id":"...","sections":"ObjetosGastos,..."} pide los cambios desde la última descarga
+ *    de esas secciones (cada sección lleva su propia marca, así un pull parcial no salta cambios de las demás)
+ * El servidor envía {"type":"delta","data":{...},"timestamp":...} cuando otro dispositivo sincroniza y en respuesta a pull.
+ * Los avisos de las versiones escritas por esta misma sesión se ignoran, porque el cliente ya tiene esos cambios
+ */
+@Component
+public class SyncWebSocketHandler implements WebSocketHandler {
+    private static final Logger logger = Logger.getLogger(SyncWebSocketHandler.class.getName());
+
+    // Clave interna de los frames generados por avisos de cambios; un JSON del cliente no puede traer un SyncChangeEvent
+    private static final String EVENT_KEY = "event";
+    private static final int MAX_OWN_VERSIONS = 64;
+
+    private final SyncUseCase syncUseCase;
+    private final SyncNotificationUseCase syncNotificationUseCase;
+    private final RateLimiter rateLimiter;
+    private final RenderedDownloadCache renderedCache;
+    private final ObjectMapper objectMapper;
+
+    public SyncWebSocketHandler(SyncUseCase syncUseCase, SyncNotificationUseCase syncNotificationUseCase,
+                                RateLimiter rateLimiter, RenderedDownloadCache renderedCache, ObjectMapper objectMapper) {
+        this.syncUseCase = syncUseCase;
+        this.syncNotificationUseCase = syncNotificationUseCase;
+        this.rateLimiter = rateLimiter;
+        this.renderedCache = renderedCache;
+        this.objectMapper = objectMapper;
+    }
+
+    @Override
+    public Mono<Void> handle(WebSocketSession session) {
+        Map<String, String> params = UriComponentsBuilder.fromUri(session.getHandshakeInfo().getUri())
+                .build()
+                .getQueryParams()
+                .toSingleValueMap();
+        String userId = params.getOrDefault("userId", "");
+        if (userId.isEmpty()) {
+            return session.close(CloseStatus.POLICY_VIOLATION.withReason("El userId es requerido"));
+        }
+
+        String authToken = session.getHandshakeInfo().getHeaders().getFirst("Authorization");
+        if (authToken != null && authToken.startsWith("Bearer ")) {
+            authToken = authToken.substring(7);
+        }
+        final String sessionToken = authToken;
+
+        // Marca de la última descarga entregada en esta sesión, por sección
+        long initialSince = parseLong(params.get("since"));
+        Map<SyncSection, Long> since = new ConcurrentHashMap<>();
+        SyncSection.ALL.forEach(section -> since.put(section, initialSince));
+        // Versiones producidas por los uploads de esta sesión, cuyo aviso no hace falta descargar
+        Set<Long> ownVersions = ConcurrentHashMap.newKeySet();
+
+        return rateLimiter.isRateLimited(userId)
+                .flatMap(isLimited -> {
+                    if (isLimited) {
+                        logger.warning("Límite de tasa excedido para usuario: " + userId);
+                        return session.close(CloseStatus.POLICY_VIOLATION.withReason("Demasiadas solicitudes"));
+                    }
+
+                    if (sessionToken != null && !rateLimiter.isActiveSession(userId, sessionToken)) {
+                        rateLimiter.registerSession(userId, sessionToken);
+                        logger.info("Nueva sesión activa para usuario: " + userId);
+                    }
+
+                    logger.info("Sesión WebSocket de sincronización abierta para usuario: " + userId);
+
+                    Flux<Map<String, Object>> requests = session.receive()
+                            .map(WebSocketMessage::getPayloadAsText)
+                            .map(this::readFrame);
+
+                    // Los cambios de otros dispositivos se atienden como un pull de todas las secciones
+                    Flux<Map<String, Object>> changes = syncNotificationUseCase.subscribe(userId)
+                            .map(event -> Map.<String, Object>of("type", "pull", EVENT_KEY, event));
+
+                    // Se procesan en orden, de uno en uno, para que since avance de forma consistente
+                    Flux<WebSocketMessage> replies = Flux.merge(requests, changes)
+                            .takeUntilOther(session.closeStatus())
+                            .concatMap(frame -> process(userId, frame, since, ownVersions))
+                            .map(reply -> session.textMessage(writeFrame(reply)));
+
+                    return session.send(replies)
+                            .doFinally(signal -> logger.info("Sesión WebSocket de sincronización cerrada para usuario: " + userId));
+                });
+    }
+
+    private Mono<Map<String, Object>> process(String userId, Map<String, Object> frame,
+                                              Map<SyncSection, Long> since, Set<Long> ownVersions) {
+        Object id = frame.get("id");
+        String type = String.valueOf(frame.get("type"));
+
+        Mono<Map<String, Object>> reply;
+        if (frame.get(EVENT_KEY) instanceof SyncChangeEvent event) {
+            // Los frames se procesan en orden, así que el aviso de un upload propio llega cuando ya se registró
+            // su versión. Se descarta una sola vez: si otro dispositivo escribió en la misma escritura agrupada,
+            // su propio aviso con esa versión sí provoca la descarga
+            reply = event.getVersion() != null && ownVersions.remove(event.getVersion())
+                    ? Mono.empty()
+                    : pull(userId, frame, since);
+        } else {
+            reply = clientRequest(userId, type, frame, since, ownVersions);
+        }
+
+        return reply
+                .onErrorResume(error -> {
+                    logger.severe("Error en sesión WebSocket de usuario " + userId + ": " + error.getMessage());
+                    Map<String, Object> response = new LinkedHashMap<>();
+                    response.put("type", "error");
+                    response.put("message", error.getMessage());
+                    return Mono.just(response);
+                })
+                .map(response -> {
+                    if (id != null) {
+                        response.put("id", id);
+                    }
+                    return response;
+                });
+    }
+
+    /**
+     * Atiende un upload o pull enviado por el cliente, contándolo para el límite de tasa
+     */
+    private Mono<Map<String, Object>> clientRequest(String userId, String type, Map<String, Object> frame,
+                                                    Map<SyncSection, Long> since, Set<Long> ownVersions) {
+        return rateLimiter.isRateLimited(userId)
+                .flatMap(isLimited -> {
+                    if (isLimited) {
+                        logger.warning("Límite de tasa excedido en sesión WebSocket para usuario: " + userId);
+                        return Mono.error(new IllegalStateException("Demasiadas solicitudes, espere un momento antes de intentar de nuevo"));
+                    }
+                    return switch (type) {
+                        case "upload" -> upload(userId, frame, ownVersions);
+                        case "pull" -> pull(userId, frame, since);
+                        default -> Mono.error(new IllegalArgumentException("Tipo de mensaje desconocido: " + type));
+                    };
+                });
+    }
+
+    @SuppressWarnings("unchecked")
+    private Mono<Map<String, Object>> upload(String userId, Map<String, Object> frame, Set<Long> ownVersions) {
+        Map<String, Object> data = frame.get("data") instanceof Map<?, ?> map ? (Map<String, Object>) map : Map.of();
+        Map<String, Object> eliminados = frame.get("eliminados") instanceof Map<?, ?> map ? (Map<String, Object>) map : null;
+        long timestamp = frame.get("timestamp") instanceof Number number ? number.longValue() : System.currentTimeMillis();
+
+        return syncUseCase.processSyncData(userId, data, eliminados, timestamp)
+                .doOnSuccess(result -> renderedCache.invalidate(userId))
+                .doOnNext(result -> {
+                    // Un upload guardado en el diario aún no tiene versión; su aviso llegará como un cambio más.
+                    // Los avisos pueden perderse, así que el conjunto se vacía si crece demasiado
+                    if (!result.isPendiente()) {
+                        if (ownVersions.size() >= MAX_OWN_VERSIONS) {
+                            ownVersions.clear();
+                        }
+                        ownVersions.add(result.getVersion());
+                    }
+                })
+                .map(result -> {
+                    Map<String, Object> response = new LinkedHashMap<>();
+                    response.put("type", "ack");
+                    response.put("status", "success");
+                    response.put("timestamp", timestamp);
+                    response.put("version", result.getVersion());
+                    response.put("rechazados", result.getRechazados());
+                    response.put("pendiente", result.isPendiente());
+                    return response;
+                });
+    }
+
+    private Mono<Map<String, Object>> pull(String userId, Map<String, Object> frame, Map<SyncSection, Long> since) {
+        Set<SyncSection> sections = SyncSection.parse(frame.get("sections") != null ? frame.get("sections").toString() : null);
+        // Desde la marca más antigua de las secciones pedidas; las más adelantadas pueden recibir algo repetido
+        long from = sections.stream().mapToLong(since::get).min().orElse(0L);
+
+        return syncUseCase.getUserData(userId, from, sections)
+                .map(data -> {
+                    long timestamp = data.get("lastSyncTimestamp") instanceof Long lastSync ? lastSync : System.currentTimeMillis();
+                    sections.forEach(section -> since.merge(section, timestamp, Math::max));
+
+                    Map<String, Object> response = new LinkedHashMap<>();
+                    response.put("type", "delta");
+                    response.put("data", data);
+                    response.put("timestamp", timestamp);
+                    return response;
+                });
+    }
+
+    private Map<String, Object> readFrame(String payload) {
+        try {
+            return objectMapper.readValue(payload, new TypeReference<Map<String, Object>>() {});
+        } catch (JsonProcessingException e) {
+            Map<String, Object> invalid = new LinkedHashMap<>();
+            invalid.put("type", "invalid");
+            return invalid;
+        }
+    }
+
+    private String writeFrame(Map<String, Object> frame) {
+        try {
+            return objectMapper.writeValueAsString(frame);
+        } catch (JsonProcessingException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private long parseLong(String value) {
+        try {
+            return value != null ? Long.parseLong(value) : 0L;
+        } catch (NumberFormatException e) {
+            return 0L;
+        }
+    }
+}
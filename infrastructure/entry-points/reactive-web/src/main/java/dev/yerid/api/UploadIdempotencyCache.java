@@ -0,0 +1,148 @@
+package dev.yerid.api;
+
+import com.github.benmanes.caffeine.cache.AsyncCache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
+import java.util.logging.Logger;
+
+/**
+ * Respuestas de subida por clave de idempotencia (encabezado Idempotency-Key), para que un
+ * reintento del cliente reciba el resultado guardado sin volver a leer, comparar y escribir.
+ * La clave se asocia al token de sesión, de modo que un cliente no puede recibir la respuesta de otro;
+ * sin token el encabezado se ignora. Junto a la respuesta se guarda el SHA-256 del cuerpo: reutilizar
+ * la clave con otro cuerpo se rechaza con 422 en lugar de devolver el resultado de una subida distinta.
+ * Un reintento que llega mientras la subida original sigue en curso espera a esa misma subida.
+ * Solo se guardan las respuestas correctas; los errores y los límites de tasa se pueden reintentar
+ */
+@Component
+public class UploadIdempotencyCache {
+    private static final Logger logger = Logger.getLogger(UploadIdempotencyCache.class.getName());
+
+    private static final StoredResponse KEY_REUSED = new StoredResponse(
+            HttpStatus.UNPROCESSABLE_ENTITY.value(),
+            Map.of(
+                    "error", "Idempotency-Key reutilizada",
+                    "message", "La clave ya se usó con un cuerpo distinto"
+            ),
+            false);
+
+    private final AsyncCache<String, StoredUpload> cache;
+
+    public UploadIdempotencyCache(
+            MeterRegistry meterRegistry,
+            @Value("${sync.idempotency.max-entries:100000}") long maxEntries,
+            @Value("${sync.idempotency.ttl:10m}") Duration ttl) {
+        this.cache = Caffeine.newBuilder()
+                .maximumSize(maxEntries)
+                .expireAfterWrite(ttl)
+                .recordStats()
+                .buildAsync();
+
+        CaffeineCacheMetrics.monitor(meterRegistry, cache.synchronous(), "uploadIdempotency");
+    }
+
+    /**
+     * Respuesta de una subida: código HTTP, cuerpo e indicación de si se repitió desde la caché
+     */
+    public record StoredResponse(int status, Map<String, Object> body, boolean replayed) {
+
+        public boolean isSuccessful() {
+            return status >= 200 && status < 300;
+        }
+
+        private StoredResponse asReplay() {
+            return replayed ? this : new StoredResponse(status, body, true);
+        }
+    }
+
+    /**
+     * Respuesta guardada con el hash del cuerpo que la produjo
+     */
+    private record StoredUpload(String bodyHash, StoredResponse response) {
+    }
+
+    /**
+     * Ejecuta la subida con el cuerpo recibido o, si la clave ya se usó con el mismo token y el mismo
+     * cuerpo, devuelve su respuesta. Sin clave o sin token se ejecuta siempre
+     */
+    public Mono<StoredResponse> execute(String sessionToken, String idempotencyKey, Flux<DataBuffer> body,
+                                        Function<Flux<DataBuffer>, Mono<StoredResponse>> upload) {
+        if (idempotencyKey == null || idempotencyKey.isBlank()) {
+            return Mono.defer(() -> upload.apply(body));
+        }
+        if (sessionToken == null || sessionToken.isBlank()) {
+            logger.warning("Idempotency-Key ignorada en una subida sin token de sesión");
+            return Mono.defer(() -> upload.apply(body));
+        }
+
+        String key = sessionToken + ":" + idempotencyKey;
+
+        return Mono.defer(() -> {
+            MessageDigest digest = sha256();
+            Flux<DataBuffer> hashedBody = body.doOnNext(buffer -> update(digest, buffer));
+
+            AtomicBoolean started = new AtomicBoolean();
+            // La subida sigue aunque el cliente se desconecte, para que el reintento encuentre su resultado.
+            // El lector acumula el cuerpo completo antes de procesarlo, así que el hash cubre todos los bytes
+            CompletableFuture<StoredUpload> stored = cache.get(key, (cacheKey, executor) -> {
+                started.set(true);
+                return upload.apply(hashedBody)
+                        .map(response -> new StoredUpload(hex(digest), response))
+                        .toFuture();
+            });
+
+            if (started.get()) {
+                stored.thenAccept(original -> {
+                    if (original != null && !original.response().isSuccessful()) {
+                        cache.synchronous().invalidate(key);
+                    }
+                });
+                return Mono.fromFuture(stored, true).map(StoredUpload::response);
+            }
+
+            // Un reintento solo lee el cuerpo para calcular su hash
+            return hashedBody
+                    .doOnNext(DataBufferUtils::release)
+                    .then(Mono.fromSupplier(() -> hex(digest)))
+                    .flatMap(bodyHash -> Mono.fromFuture(stored, true)
+                            .map(original -> original.bodyHash().equals(bodyHash)
+                                    ? original.response().asReplay()
+                                    : KEY_REUSED));
+        });
+    }
+
+    private static void update(MessageDigest digest, DataBuffer buffer) {
+        try (DataBuffer.ByteBufferIterator iterator = buffer.readableByteBuffers()) {
+            iterator.forEachRemaining(digest::update);
+        }
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 no está disponible", e);
+        }
+    }
+
+    private static String hex(MessageDigest digest) {
+        return HexFormat.of().formatHex(digest.digest());
+    }
+}
@@ -20,6 +20,7 @@ public class CorsConfig {
         config.setAllowedOrigins(List.of(origins.split(",")));
         config.setAllowedMethods(Arrays.asList("POST", "GET")); // TODO: Check others required methods
         config.setAllowedHeaders(List.of(CorsConfiguration.ALL));
+        config.setExposedHeaders(List.of("ETag", "Idempotent-Replayed"));
 
         UrlBasedCorsConfigurationSource source = new UrlBasedCorsConfigurationSource();
         source.registerCorsConfiguration("/**", config);
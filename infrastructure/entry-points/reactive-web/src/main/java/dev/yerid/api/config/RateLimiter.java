@@ -22,6 +22,10 @@ public class RateLimiter {
     private static final int MAX_REQUESTS = 5;
     private static final long WINDOW_SIZE_MS = 10000; // 10 segundos
 
+    // Páginas siguientes de una descarga paginada: cuentan aparte, con un margen mayor
+    private static final String PAGE_KEY_PREFIX = "pages:";
+    private static final int MAX_PAGE_REQUESTS = 30;
+
     // Tiempo de expiración de la sesión
     private static final long SESSION_EXPIRY_MS = 1800000; // 30 minutos
 
@@ -29,13 +33,25 @@ public class RateLimiter {
      * Verifica si una solicitud debe ser limitada según la tasa de peticiones
      */
     public Mono<Boolean> isRateLimited(String userId) {
+        return Mono.just(exceeds(userId, MAX_REQUESTS));
+    }
+
+    /**
+     * Verifica el límite de las páginas que continúan una descarga paginada (las que traen cursor).
+     * Tienen su propio contador para que recorrer una descarga no agote el de las demás solicitudes
+     */
+    public Mono<Boolean> isPageRateLimited(String userId) {
+        return Mono.just(exceeds(PAGE_KEY_PREFIX + userId, MAX_PAGE_REQUESTS));
+    }
+
+    private boolean exceeds(String key, int maxRequests) {
         long currentTime = System.currentTimeMillis();
 
-        // Obtiene o crea un contador para este usuario
-        AtomicInteger counter = requestCountMap.computeIfAbsent(userId, k -> new AtomicInteger(0));
+        // Obtiene o crea un contador para esta clave
+        AtomicInteger counter = requestCountMap.computeIfAbsent(key, k -> new AtomicInteger(0));
 
         // Obtiene el tiempo de la última solicitud
-        Long lastRequestTime = lastRequestTimeMap.get(userId);
+        Long lastRequestTime = lastRequestTimeMap.get(key);
 
         // Si ha pasado más tiempo que la ventana, reinicia el contador
         if (lastRequestTime != null && currentTime - lastRequestTime > WINDOW_SIZE_MS) {
@@ -43,11 +59,11 @@ public class RateLimiter {
         }
 
         // Actualiza el tiempo de la última solicitud
-        lastRequestTimeMap.put(userId, currentTime);
+        lastRequestTimeMap.put(key, currentTime);
 
         // Incrementa el contador y comprueba si supera el límite
         int count = counter.incrementAndGet();
-        return Mono.just(count > MAX_REQUESTS);
+        return count > maxRequests;
     }
 
     /**
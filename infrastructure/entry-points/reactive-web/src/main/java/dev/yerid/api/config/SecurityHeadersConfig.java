@@ -7,8 +7,11 @@ import org.springframework.web.server.WebFilter;
 import org.springframework.web.server.WebFilterChain;
 import reactor.core.publisher.Mono;
 
+import java.util.Set;
+
 @Component
 public class SecurityHeadersConfig implements WebFilter {
+    private static final Set<String> REVALIDATED_PATHS = Set.of("/api/sync/download");
 
     @Override
     public Mono<Void> filter(ServerWebExchange exchange, WebFilterChain chain) {
@@ -17,8 +20,13 @@ public class SecurityHeadersConfig implements WebFilter {
         headers.set("Strict-Transport-Security", "max-age=31536000;");
         headers.set("X-Content-Type-Options", "nosniff");
         headers.set("Server", "");
-        headers.set("Cache-Control", "no-store");
-        headers.set("Pragma", "no-cache");
+        if (REVALIDATED_PATHS.contains(exchange.getRequest().getPath().value())) {
+            // Se permite guardar la respuesta para revalidarla con If-None-Match (ETag) en cada petición
+            headers.set("Cache-Control", "private, no-cache");
+        } else {
+            headers.set("Cache-Control", "no-store");
+            headers.set("Pragma", "no-cache");
+        }
         headers.set("Referrer-Policy", "strict-origin-when-cross-origin");
         return chain.filter(exchange);
     }
@@ -0,0 +1,51 @@
+package dev.yerid.api.config;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.MediaType;
+import org.springframework.http.codec.ServerCodecConfigurer;
+import org.springframework.http.codec.cbor.Jackson2CborDecoder;
+import org.springframework.http.codec.cbor.Jackson2CborEncoder;
+import org.springframework.http.codec.json.Jackson2SmileDecoder;
+import org.springframework.http.codec.json.Jackson2SmileEncoder;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.web.reactive.config.WebFluxConfigurer;
+
+import java.util.List;
+
+/**
+ * Formatos binarios para los endpoints de sincronización, elegidos por Accept y Content-Type.
+ * CBOR y Smile codifican los montos como double y las fechas como long sin pasar por texto,
+ * lo que reduce el tamaño y el costo de parseo para los clientes nativos. JSON sigue siendo el formato por defecto
+ */
+@Configuration
+public class SyncCodecsConfig implements WebFluxConfigurer {
+
+    public static final MediaType APPLICATION_SMILE = MediaType.valueOf("application/x-jackson-smile");
+
+    /**
+     * Tipos aceptados por la sincronización, en orden de preferencia ante un Accept sin preferencia explícita
+     */
+    public static final List<MediaType> SYNC_MEDIA_TYPES = List.of(
+            MediaType.APPLICATION_JSON, MediaType.APPLICATION_CBOR, APPLICATION_SMILE);
+
+    private final Jackson2ObjectMapperBuilder objectMapperBuilder;
+
+    public SyncCodecsConfig(Jackson2ObjectMapperBuilder objectMapperBuilder) {
+        this.objectMapperBuilder = objectMapperBuilder;
+    }
+
+    @Override
+    public void configureHttpMessageCodecs(ServerCodecConfigurer configurer) {
+        // Misma configuración que el ObjectMapper JSON de la aplicación, cambiando solo el formato
+        ObjectMapper cborMapper = objectMapperBuilder.factory(new CBORFactory()).build();
+        ObjectMapper smileMapper = objectMapperBuilder.factory(new SmileFactory()).build();
+
+        configurer.customCodecs().register(new Jackson2CborDecoder(cborMapper, MediaType.APPLICATION_CBOR));
+        configurer.customCodecs().register(new Jackson2CborEncoder(cborMapper, MediaType.APPLICATION_CBOR));
+        configurer.customCodecs().register(new Jackson2SmileDecoder(smileMapper, APPLICATION_SMILE));
+        configurer.customCodecs().register(new Jackson2SmileEncoder(smileMapper, APPLICATION_SMILE));
+    }
+}
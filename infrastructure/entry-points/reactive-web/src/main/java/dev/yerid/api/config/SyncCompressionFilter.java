@@ -0,0 +1,337 @@
+package dev.yerid.api.config;
+
+import com.github.luben.zstd.ZstdDictCompress;
+import com.github.luben.zstd.ZstdDictDecompress;
+import com.github.luben.zstd.ZstdInputStream;
+import com.github.luben.zstd.ZstdOutputStream;
+import org.reactivestreams.Publisher;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.DefaultResourceLoader;
+import org.springframework.core.io.Resource;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.server.reactive.ServerHttpRequest;
+import org.springframework.http.server.reactive.ServerHttpRequestDecorator;
+import org.springframework.http.server.reactive.ServerHttpResponse;
+import org.springframework.http.server.reactive.ServerHttpResponseDecorator;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.server.ServerWebExchange;
+import org.springframework.web.server.WebFilter;
+import org.springframework.web.server.WebFilterChain;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Compresión gzip y zstd de los cuerpos de petición y respuesta de los endpoints de sincronización.
+ * Las peticiones se descomprimen según Content-Encoding y las respuestas se comprimen según
+ * Accept-Encoding cuando superan el tamaño mínimo configurado (o cuando se envían en streaming).
+ * Si se configura un diccionario zstd se acepta además la codificación "x-zstd-dict", pensada para
+ * clientes nativos que incluyen el mismo diccionario
+ */
+@Component
+public class SyncCompressionFilter implements WebFilter {
+    private static final Logger logger = Logger.getLogger(SyncCompressionFilter.class.getName());
+
+    private static final Set<String> COMPRESSED_PATHS = Set.of(
+            "/api/sync/upload", "/api/sync/download", "/api/sync/download/expenses");
+
+    static final String GZIP = "gzip";
+    static final String ZSTD = "zstd";
+    static final String ZSTD_DICT = "x-zstd-dict";
+
+    private static final int DECODE_CHUNK_SIZE = 8192;
+
+    // La descompresión bloquea mientras espera bytes, así que no corre en el event loop
+    private static final Executor DECODE_EXECUTOR = task -> Schedulers.boundedElastic().schedule(task);
+
+    private final int minResponseSize;
+    private final int zstdLevel;
+    private final long maxRequestSize;
+    private final ZstdDictCompress zstdCompressDict;
+    private final ZstdDictDecompress zstdDecompressDict;
+
+    public SyncCompressionFilter(
+            @Value("${sync.compression.min-response-size:1024}") int minResponseSize,
+            @Value("${sync.compression.zstd-level:3}") int zstdLevel,
+            @Value("${sync.compression.max-request-size:33554432}") long maxRequestSize,
+            @Value("${sync.compression.zstd-dictionary:}") String zstdDictionary) {
+        this.minResponseSize = minResponseSize;
+        this.zstdLevel = zstdLevel;
+        this.maxRequestSize = maxRequestSize;
+
+        byte[] dictionary = loadDictionary(zstdDictionary);
+        this.zstdCompressDict = dictionary != null ? new ZstdDictCompress(dictionary, zstdLevel) : null;
+        this.zstdDecompressDict = dictionary != null ? new ZstdDictDecompress(dictionary) : null;
+    }
+
+    @Override
+    public Mono<Void> filter(ServerWebExchange exchange, WebFilterChain chain) {
+        if (!COMPRESSED_PATHS.contains(exchange.getRequest().getPath().value())) {
+            return chain.filter(exchange);
+        }
+
+        ServerHttpRequest request = exchange.getRequest();
+        String requestCoding = request.getHeaders().getFirst(HttpHeaders.CONTENT_ENCODING);
+        if (requestCoding != null && !isSupported(requestCoding.trim().toLowerCase(Locale.ROOT))) {
+            return Mono.error(new ResponseStatusException(HttpStatus.UNSUPPORTED_MEDIA_TYPE,
+                    "Content-Encoding no soportado: " + requestCoding));
+        }
+
+        ServerWebExchange.Builder builder = exchange.mutate();
+        if (requestCoding != null && !"identity".equalsIgnoreCase(requestCoding.trim())) {
+            builder.request(new DecompressingRequest(request, requestCoding.trim().toLowerCase(Locale.ROOT)));
+        }
+
+        String responseCoding = negotiate(request.getHeaders().get(HttpHeaders.ACCEPT_ENCODING));
+        if (responseCoding != null) {
+            builder.response(new CompressingResponse(exchange.getResponse(), responseCoding));
+        }
+
+        return chain.filter(builder.build());
+    }
+
+    /**
+     * Elige la mejor codificación aceptada por el cliente: diccionario zstd, zstd y luego gzip
+     */
+    private String negotiate(List<String> acceptEncoding) {
+        if (acceptEncoding == null) {
+            return null;
+        }
+
+        boolean gzip = false;
+        boolean zstd = false;
+        boolean zstdDict = false;
+        for (String header : acceptEncoding) {
+            for (String token : header.split(",")) {
+                String[] parts = token.trim().toLowerCase(Locale.ROOT).split(";");
+                if (parts.length > 1 && parts[1].trim().matches("q=0(\\.0*)?")) {
+                    continue;
+                }
+                switch (parts[0].trim()) {
+                    case GZIP -> gzip = true;
+                    case ZSTD -> zstd = true;
+                    case ZSTD_DICT -> zstdDict = zstdCompressDict != null;
+                    default -> {
+                        // Codificación no soportada
+                    }
+                }
+            }
+        }
+
+        if (zstdDict) return ZSTD_DICT;
+        if (zstd) return ZSTD;
+        return gzip ? GZIP : null;
+    }
+
+    private boolean isSupported(String coding) {
+        return "identity".equals(coding) || GZIP.equals(coding) || ZSTD.equals(coding)
+                || (ZSTD_DICT.equals(coding) && zstdDecompressDict != null);
+    }
+
+    private InputStream decodingStream(String coding, InputStream in) throws IOException {
+        return switch (coding) {
+            case GZIP -> new GZIPInputStream(in);
+            case ZSTD -> new ZstdInputStream(in);
+            case ZSTD_DICT -> new ZstdInputStream(in).setDict(zstdDecompressDict);
+            default -> throw new IOException("Codificación no soportada: " + coding);
+        };
+    }
+
+    private OutputStream encodingStream(String coding, OutputStream out) throws IOException {
+        return switch (coding) {
+            case GZIP -> new GZIPOutputStream(out, 8192);
+            case ZSTD -> new ZstdOutputStream(out, zstdLevel);
+            case ZSTD_DICT -> new ZstdOutputStream(out, zstdLevel).setDict(zstdCompressDict);
+            default -> throw new IOException("Codificación no soportada: " + coding);
+        };
+    }
+
+    private static byte[] loadDictionary(String location) {
+        if (location == null || location.isBlank()) {
+            return null;
+        }
+
+        Resource resource = new DefaultResourceLoader().getResource(location);
+        try (InputStream in = resource.getInputStream()) {
+            byte[] dictionary = in.readAllBytes();
+            logger.info("Diccionario zstd de sincronización cargado (" + dictionary.length + " bytes) desde: " + location);
+            return dictionary;
+        } catch (IOException e) {
+            throw new UncheckedIOException("No se pudo cargar el diccionario zstd: " + location, e);
+        }
+    }
+
+    /**
+     * Petición cuyo cuerpo se entrega descomprimido a medida que llega. Tanto el cuerpo comprimido
+     * como el descomprimido se limitan a maxRequestSize bytes; la descompresión corre fuera del event
+     * loop y entrega fragmentos según la demanda de quien lee el cuerpo
+     */
+    private final class DecompressingRequest extends ServerHttpRequestDecorator {
+        private final String coding;
+        private final HttpHeaders headers;
+
+        DecompressingRequest(ServerHttpRequest delegate, String coding) {
+            super(delegate);
+            this.coding = coding;
+            HttpHeaders copy = new HttpHeaders();
+            copy.putAll(delegate.getHeaders());
+            copy.remove(HttpHeaders.CONTENT_ENCODING);
+            copy.remove(HttpHeaders.CONTENT_LENGTH);
+            this.headers = HttpHeaders.readOnlyHttpHeaders(copy);
+        }
+
+        @Override
+        public HttpHeaders getHeaders() {
+            return headers;
+        }
+
+        @Override
+        public Flux<DataBuffer> getBody() {
+            AtomicLong received = new AtomicLong();
+            Flux<DataBuffer> compressed = super.getBody()
+                    .handle((buffer, sink) -> {
+                        if (received.addAndGet(buffer.readableByteCount()) > maxRequestSize) {
+                            DataBufferUtils.release(buffer);
+                            sink.error(tooLarge("comprimido"));
+                        } else {
+                            sink.next(buffer);
+                        }
+                    });
+
+            return DataBufferUtils.outputStreamPublisher(out -> {
+                try (InputStream in = decodingStream(coding, DataBufferUtils.subscriberInputStream(compressed, 1))) {
+                    byte[] chunk = new byte[DECODE_CHUNK_SIZE];
+                    long decoded = 0;
+                    int read;
+                    while ((read = in.read(chunk)) != -1) {
+                        decoded += read;
+                        if (decoded > maxRequestSize) {
+                            throw tooLarge("descomprimido");
+                        }
+                        out.write(chunk, 0, read);
+                    }
+                } catch (IOException e) {
+                    // El límite del cuerpo comprimido llega envuelto por el InputStream que lo lee
+                    if (e.getCause() instanceof ResponseStatusException statusError) {
+                        throw statusError;
+                    }
+                    throw new ResponseStatusException(HttpStatus.BAD_REQUEST,
+                            "Cuerpo " + coding + " inválido: " + e.getMessage(), e);
+                }
+            }, DefaultDataBufferFactory.sharedInstance, DECODE_EXECUTOR, DECODE_CHUNK_SIZE);
+        }
+
+        private ResponseStatusException tooLarge(String kind) {
+            return new ResponseStatusException(HttpStatus.PAYLOAD_TOO_LARGE,
+                    "El cuerpo " + kind + " supera " + maxRequestSize + " bytes");
+        }
+    }
+
+    /**
+     * Respuesta que se comprime al escribirse. Las respuestas con Content-Length menor al mínimo
+     * se envían sin comprimir; las respuestas en streaming se comprimen a medida que se generan
+     */
+    private final class CompressingResponse extends ServerHttpResponseDecorator {
+        private final String coding;
+
+        CompressingResponse(ServerHttpResponse delegate, String coding) {
+            super(delegate);
+            this.coding = coding;
+        }
+
+        @Override
+        public Mono<Void> writeWith(Publisher<? extends DataBuffer> body) {
+            HttpHeaders headers = getHeaders();
+            long length = headers.getContentLength();
+            if ((length >= 0 && length < minResponseSize) || headers.containsKey(HttpHeaders.CONTENT_ENCODING)) {
+                return super.writeWith(body);
+            }
+
+            StreamingEncoder encoder;
+            try {
+                encoder = new StreamingEncoder(coding);
+            } catch (IOException e) {
+                return Mono.error(e);
+            }
+
+            headers.remove(HttpHeaders.CONTENT_LENGTH);
+            headers.set(HttpHeaders.CONTENT_ENCODING, coding);
+            headers.add(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+
+            Flux<DataBuffer> compressed = Flux.concat(
+                            Flux.from(body).map(encoder::encode),
+                            Mono.fromCallable(encoder::finish))
+                    .filter(bytes -> bytes.length > 0)
+                    .map(bytes -> bufferFactory().wrap(bytes))
+                    .doFinally(signal -> encoder.close());
+
+            return super.writeWith(compressed);
+        }
+    }
+
+    /**
+     * Compresor con estado para una respuesta: recibe los fragmentos en orden y devuelve
+     * los bytes comprimidos disponibles hasta el momento
+     */
+    private final class StreamingEncoder {
+        private final ByteArrayOutputStream sink = new ByteArrayOutputStream();
+        private final OutputStream stream;
+        private boolean closed;
+
+        StreamingEncoder(String coding) throws IOException {
+            this.stream = encodingStream(coding, sink);
+        }
+
+        byte[] encode(DataBuffer buffer) {
+            try (InputStream in = buffer.asInputStream(true)) {
+                in.transferTo(stream);
+                return drain();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        byte[] finish() throws IOException {
+            closed = true;
+            stream.close();
+            return drain();
+        }
+
+        void close() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            try {
+                stream.close();
+            } catch (IOException e) {
+                logger.fine("Error al cerrar el compresor: " + e.getMessage());
+            }
+        }
+
+        private byte[] drain() {
+            byte[] bytes = sink.toByteArray();
+            sink.reset();
+            return bytes;
+        }
+    }
+}
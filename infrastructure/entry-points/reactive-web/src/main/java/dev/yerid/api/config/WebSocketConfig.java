@@ -0,0 +1,21 @@
+package dev.yerid.api.config;
+
+import dev.yerid.api.SyncWebSocketHandler;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.web.reactive.HandlerMapping;
+import org.springframework.web.reactive.handler.SimpleUrlHandlerMapping;
+
+import java.util.Map;
+
+@Configuration
+public class WebSocketConfig {
+
+    /**
+     * Ruta de la sesión de sincronización por WebSocket, con prioridad sobre las rutas funcionales
+     */
+    @Bean
+    public HandlerMapping syncWebSocketMapping(SyncWebSocketHandler syncWebSocketHandler) {
+        return new SimpleUrlHandlerMapping(Map.of("/api/sync/ws", syncWebSocketHandler), -1);
+    }
+}
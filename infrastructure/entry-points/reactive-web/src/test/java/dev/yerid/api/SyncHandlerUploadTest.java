@@ -0,0 +1,78 @@
+package dev.yerid.api;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import dev.yerid.api.config.RateLimiter;
+import dev.yerid.api.config.SyncCompressionFilter;
+import dev.yerid.usecase.sync.SyncNotificationUseCase;
+import dev.yerid.usecase.sync.SyncUseCase;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.reactive.server.WebTestClient;
+import org.springframework.web.reactive.function.server.RouterFunctions;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.zip.GZIPOutputStream;
+
+import static org.mockito.Mockito.mock;
+import static org.springframework.web.reactive.function.server.RequestPredicates.POST;
+
+class SyncHandlerUploadTest {
+
+    private static final int MAX_REQUEST_SIZE = 4096;
+
+    private final WebTestClient client = client();
+
+    @Test
+    void oversizedCompressedUploadIsRejectedWith413() throws IOException {
+        // Pocos bytes comprimidos que al descomprimirse superan el límite
+        String body = "{\"email\":\"user-1\",\"data\":{\"lastVisitedRoute\":\"" + "a".repeat(MAX_REQUEST_SIZE * 4) + "\"}}";
+
+        client.post().uri("/api/sync/upload")
+                .contentType(MediaType.APPLICATION_JSON)
+                .header(HttpHeaders.CONTENT_ENCODING, "gzip")
+                .bodyValue(gzip(body.getBytes(StandardCharsets.UTF_8)))
+                .exchange()
+                .expectStatus().isEqualTo(HttpStatus.PAYLOAD_TOO_LARGE);
+    }
+
+    @Test
+    void corruptCompressedUploadIsRejectedWith400() {
+        client.post().uri("/api/sync/upload")
+                .contentType(MediaType.APPLICATION_JSON)
+                .header(HttpHeaders.CONTENT_ENCODING, "gzip")
+                .bodyValue("esto no es gzip".getBytes(StandardCharsets.UTF_8))
+                .exchange()
+                .expectStatus().isBadRequest();
+    }
+
+    private static WebTestClient client() {
+        ObjectMapper objectMapper = new ObjectMapper();
+        SyncHandler handler = new SyncHandler(
+                mock(SyncUseCase.class),
+                new RateLimiter(),
+                mock(SyncStreamWriter.class),
+                mock(RenderedDownloadCache.class),
+                mock(SyncNotificationUseCase.class),
+                new SyncRequestReader(objectMapper, MAX_REQUEST_SIZE),
+                new UploadIdempotencyCache(new SimpleMeterRegistry(), 100, Duration.ofMinutes(1)),
+                mock(ImportRequestReader.class));
+
+        return WebTestClient.bindToRouterFunction(RouterFunctions.route(POST("/api/sync/upload"), handler::uploadData))
+                .webFilter(new SyncCompressionFilter(1024, 3, MAX_REQUEST_SIZE, ""))
+                .build();
+    }
+
+    private static byte[] gzip(byte[] bytes) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (GZIPOutputStream gzip = new GZIPOutputStream(out)) {
+            gzip.write(bytes);
+        }
+        return out.toByteArray();
+    }
+}